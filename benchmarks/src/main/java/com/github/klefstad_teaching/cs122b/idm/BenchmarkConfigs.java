@@ -0,0 +1,66 @@
+package com.github.klefstad_teaching.cs122b.idm;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+
+import java.time.Duration;
+import java.util.Collections;
+
+/**
+ * The values from src/main/resources/application.yml, built by hand so that
+ * benchmarks can create components without starting Spring.
+ */
+public final class BenchmarkConfigs
+{
+    private BenchmarkConfigs() {}
+
+    public static IDMServiceConfig serviceConfig()
+    {
+        return serviceConfig(new IDMServiceConfig.Jwt(false, 0, 100, true));
+    }
+
+    public static IDMServiceConfig serviceConfig(IDMServiceConfig.Jwt jwt)
+    {
+        return serviceConfig(jwt, new IDMServiceConfig.InMemory(Duration.ZERO));
+    }
+
+    public static IDMServiceConfig serviceConfig(IDMServiceConfig.InMemory inMemory)
+    {
+        return serviceConfig(new IDMServiceConfig.Jwt(false, 0, 100, true), inMemory);
+    }
+
+    private static IDMServiceConfig serviceConfig(IDMServiceConfig.Jwt jwt, IDMServiceConfig.InMemory inMemory)
+    {
+        return new IDMServiceConfig(
+            "ec-key.json",
+            Duration.ofMinutes(30),
+            Duration.ofHours(12),
+            Duration.ofDays(30),
+            new IDMServiceConfig.Hashing(0, 64, Duration.ofSeconds(5)),
+            new IDMServiceConfig.Password("pbkdf2-sha512", 10000, 512, 16, null, true),
+            jwt,
+            new IDMServiceConfig.WriteBehind(false, Duration.ofMillis(500), 500),
+            new IDMServiceConfig.TokenInsert(true, 64, 1024, Duration.ofSeconds(5)),
+            new IDMServiceConfig.UserCache(10000, Duration.ofSeconds(30)),
+            new IDMServiceConfig.Validation(6, 32, 10, 20, true, true, true),
+            new IDMServiceConfig.Reaper(false, Duration.ofMinutes(5), Duration.ofHours(1), 500, Duration.ofMillis(50), 200),
+            new IDMServiceConfig.Migration(false, Collections.singletonList("classpath:db/migration"), 1),
+            IDMServiceConfig.TokenStorage.TEXT,
+            new IDMServiceConfig.Pool(10, 10, Duration.ofSeconds(5), Duration.ofMinutes(10), Duration.ofMinutes(30),
+                                      Duration.ZERO, true, 250, 2048, true, true, true),
+            inMemory,
+            new IDMServiceConfig.VirtualThreads(false),
+            new IDMServiceConfig.KeyRing(null, Duration.ofSeconds(30)));
+    }
+
+    public static User activeUser()
+    {
+        return new User()
+            .setId(4)
+            .setEmail("Active@example.com")
+            .setUserStatus(UserStatus.ACTIVE)
+            .setRoles(Role.PREMIUM);
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.BenchmarkConfigs;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jwt.JWTClaimsSet;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token issue and check costs behind /login, /refresh and /authenticate.
+ * Throughput plus a sampled latency distribution (p50 ... p99.99); run with
+ * {@code -prof gc} for the allocation rate.
+ * <p>
+ * {@code verifyOnSign=true} is how tokens were issued before signing only;
+ * compare {@code login} across the two to see what the extra verify cost.
+ * <p>
+ * {@code fastEncoder=false} issues tokens through {@code JWTClaimsSet} and
+ * {@code SignedJWT}; compare {@code buildAccessToken} across the two, with
+ * {@code -prof gc} for bytes allocated per token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IDMJwtManagerBenchmark
+{
+    // true is the old behaviour, every issued token was verified again
+    @Param({"false", "true"})
+    private boolean verifyOnSign;
+
+    // false is the nimbus path, every token built its own header, claims map and JSON
+    @Param({"true", "false"})
+    private boolean fastEncoder;
+
+    private IDMJwtManager jwtManager;
+    private IDMJwtManager cachingJwtManager;
+    private User          user;
+    private String        accessToken;
+
+    @Setup
+    public void setup()
+        throws JOSEException, BadJOSEException
+    {
+        jwtManager = jwtManager(new IDMServiceConfig.Jwt(verifyOnSign, 0, 100, fastEncoder));
+        cachingJwtManager = jwtManager(new IDMServiceConfig.Jwt(verifyOnSign, 10000, 100, fastEncoder));
+        user = BenchmarkConfigs.activeUser();
+        accessToken = jwtManager.buildAccessToken(user);
+        cachingJwtManager.verifyAccessToken(accessToken);
+    }
+
+    private static IDMJwtManager jwtManager(IDMServiceConfig.Jwt jwt)
+    {
+        IDMServiceConfig serviceConfig = BenchmarkConfigs.serviceConfig(jwt);
+        return new IDMJwtManager(serviceConfig, new AccessTokenCache(serviceConfig), new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public String buildAccessToken()
+        throws JOSEException, BadJOSEException
+    {
+        return jwtManager.buildAccessToken(user);
+    }
+
+    // the token work of a successful /login
+    @Benchmark
+    public void login(Blackhole blackhole)
+        throws JOSEException, BadJOSEException
+    {
+        blackhole.consume(jwtManager.buildAccessToken(user));
+        blackhole.consume(jwtManager.buildRefreshToken(user.getId()));
+    }
+
+    @Benchmark
+    public JWTClaimsSet verifyAccessToken()
+    {
+        return jwtManager.verifyAccessToken(accessToken);
+    }
+
+    // a gateway calling /authenticate again with a token it already sent
+    @Benchmark
+    public JWTClaimsSet verifyAccessTokenCached()
+    {
+        return cachingJwtManager.verifyAccessToken(accessToken);
+    }
+
+    @Benchmark
+    public RefreshToken buildRefreshToken()
+    {
+        return jwtManager.buildRefreshToken(user.getId());
+    }
+}
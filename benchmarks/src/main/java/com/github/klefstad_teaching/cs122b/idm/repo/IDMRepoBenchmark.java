@@ -0,0 +1,276 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.idm.BenchmarkConfigs;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The queries behind /login and /refresh against an in-memory H2 database in
+ * MySQL mode, so what is measured is the JDBC layer's own CPU rather than the
+ * network. The {@code named*} benchmarks are the repository's previous style,
+ * {@code NamedParameterJdbcTemplate} with a new {@code MapSqlParameterSource}
+ * per call and rows read by column name, kept as the baseline; run with
+ * {@code -prof gc} for the allocation difference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IDMRepoBenchmark
+{
+    private static final String  MIGRATIONS       = "classpath:db/migration/V*__*.sql";
+    private static final Pattern MIGRATION_NAME   = Pattern.compile("V(\\d+)__.+\\.sql");
+    private static final Pattern MULTI_MODIFY     = Pattern.compile("(ALTER\\s+TABLE\\s+\\S+)\\s+(MODIFY\\s.*)",
+                                                                    Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern MODIFY_SEPARATOR = Pattern.compile(",\\s*(?=MODIFY\\s)", Pattern.CASE_INSENSITIVE);
+
+    private static final String EMAIL = "Active@example.com";
+    private static final String TOKEN = "3b0e4dbe-8c7b-4bcf-a1d6-43c5e2cf6a41";
+
+    private static final ResultSetExtractor<User> NAMED_USER_WITH_ROLES = IDMRepoBenchmark::namedUserWithRoles;
+
+    private SingleConnectionDataSource dataSource;
+    private IDMRepo                    repo;
+    private NamedParameterJdbcTemplate named;
+    private Integer                    userId;
+    private Instant                    now;
+    private Instant                    newExpireTime;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        // user and value are keywords in H2 2.x, the schema uses both as names
+        dataSource = new SingleConnectionDataSource(
+                "jdbc:h2:mem:idm;MODE=MySQL;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER,VALUE", true);
+
+        // the head schema and its status and role rows
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        migrate(template);
+
+        template.update("INSERT INTO idm.user (email, user_status_id, salt, hashed_password) VALUES (?, 1, NULL, 'x')", EMAIL);
+
+        repo = new JdbcIDMRepo(template, BenchmarkConfigs.serviceConfig());
+        named = new NamedParameterJdbcTemplate(dataSource);
+
+        userId = repo.searchByEmail(EMAIL).getId();
+        template.update("INSERT INTO idm.user_role (user_id, role_id) VALUES (?, 3)", userId);
+
+        now = Instant.now();
+        newExpireTime = now.plus(1, ChronoUnit.HOURS);
+        repo.insertRefreshToken(
+                new RefreshToken()
+                        .setToken(TOKEN)
+                        .setUserId(userId)
+                        .setTokenStatus(TokenStatus.ACTIVE)
+                        .setExpireTime(newExpireTime)
+                        .setMaxLifeTime(now.plus(30, ChronoUnit.DAYS)));
+    }
+
+    /**
+     * Runs the service's own migrations in version order, the way
+     * {@code SchemaMigrator} finds them, so this schema follows db/migration.
+     */
+    private static void migrate(JdbcTemplate template) throws IOException
+    {
+        Resource[] scripts = new PathMatchingResourcePatternResolver().getResources(MIGRATIONS);
+        Arrays.sort(scripts, Comparator.comparingInt(IDMRepoBenchmark::version));
+
+        for (Resource script : scripts) {
+            List<String> statements = new ArrayList<>();
+            ScriptUtils.splitSqlScript(StreamUtils.copyToString(script.getInputStream(), StandardCharsets.UTF_8),
+                                       ScriptUtils.DEFAULT_STATEMENT_SEPARATOR,
+                                       statements);
+
+            for (String statement : statements) {
+                for (String h2Statement : forH2(statement))
+                    template.execute(h2Statement);
+            }
+        }
+    }
+
+    private static int version(Resource script)
+    {
+        Matcher matcher = MIGRATION_NAME.matcher(String.valueOf(script.getFilename()));
+
+        if (! matcher.matches())
+            throw new IllegalStateException("Migration " + script.getFilename() + " is not named V<version>__<description>.sql");
+
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    // H2 takes one MODIFY per ALTER TABLE where MySQL takes a list of them
+    private static List<String> forH2(String statement)
+    {
+        Matcher matcher = MULTI_MODIFY.matcher(statement.trim());
+
+        if (! matcher.matches())
+            return Collections.singletonList(statement);
+
+        List<String> statements = new ArrayList<>();
+        for (String clause : MODIFY_SEPARATOR.split(matcher.group(2)))
+            statements.add(matcher.group(1) + " " + clause);
+
+        return statements;
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        dataSource.destroy();
+    }
+
+    // /login
+    @Benchmark
+    public User searchByEmail()
+    {
+        return repo.searchByEmail(EMAIL);
+    }
+
+    // /refresh, slow path and write-behind fast path
+    @Benchmark
+    public RefreshToken searchByRefreshToken()
+    {
+        return repo.searchByRereshToken(TOKEN);
+    }
+
+    @Benchmark
+    public User searchById()
+    {
+        return repo.searchById(userId);
+    }
+
+    // /refresh fast path
+    @Benchmark
+    public User extendRefreshToken()
+    {
+        return repo.extendRefreshToken(TOKEN, now, newExpireTime);
+    }
+
+    @Benchmark
+    public User namedSearchByEmail()
+    {
+        return named.query(
+                "SELECT u.id, u.email, u.user_status_id, u.salt, u.hashed_password, ur.role_id " +
+                        "FROM idm.user u " +
+                        "LEFT JOIN idm.user_role ur ON ur.user_id = u.id " +
+                        "WHERE u.email = :email;",
+                new MapSqlParameterSource()
+                        .addValue("email", EMAIL, Types.VARCHAR),
+                NAMED_USER_WITH_ROLES);
+    }
+
+    @Benchmark
+    public RefreshToken namedSearchByRefreshToken()
+    {
+        return named.queryForObject(
+                "SELECT id, token, user_id, token_status_id, expire_time, max_life_time " +
+                        "FROM idm.refresh_token " +
+                        "WHERE token = :refreshToken;",
+                new MapSqlParameterSource()
+                        .addValue("refreshToken", TOKEN, Types.VARCHAR),
+                (rs, rowNum) ->
+                        new RefreshToken()
+                                .setId(rs.getInt("id"))
+                                .setToken(rs.getString("token"))
+                                .setUserId(rs.getInt("user_id"))
+                                .setTokenStatus(TokenStatus.fromId(rs.getInt("token_status_id")))
+                                .setExpireTime(rs.getTimestamp("expire_time").toInstant())
+                                .setMaxLifeTime(rs.getTimestamp("max_life_time").toInstant()));
+    }
+
+    // the conditional UPDATE and the follow up SELECT, as repo.extendRefreshToken does
+    @Benchmark
+    public User namedExtendRefreshToken()
+    {
+        int updated = named.update(
+                "UPDATE idm.refresh_token " +
+                        "SET expire_time = :new_expire_time " +
+                        "WHERE token = :refreshToken " +
+                        "AND token_status_id = :active " +
+                        "AND expire_time >= :now " +
+                        "AND max_life_time >= :new_expire_time;",
+                new MapSqlParameterSource()
+                        .addValue("refreshToken", TOKEN, Types.VARCHAR)
+                        .addValue("active", TokenStatus.ACTIVE.id(), Types.INTEGER)
+                        .addValue("now", Timestamp.from(now), Types.TIMESTAMP)
+                        .addValue("new_expire_time", Timestamp.from(newExpireTime), Types.TIMESTAMP));
+
+        if (updated == 0)
+            return null;
+
+        return named.query(
+                "SELECT u.id, u.email, u.user_status_id, u.salt, u.hashed_password, ur.role_id " +
+                        "FROM idm.user u " +
+                        "LEFT JOIN idm.user_role ur ON ur.user_id = u.id " +
+                        "JOIN idm.refresh_token rt ON rt.user_id = u.id " +
+                        "WHERE rt.token = :refreshToken;",
+                new MapSqlParameterSource()
+                        .addValue("refreshToken", TOKEN, Types.VARCHAR),
+                NAMED_USER_WITH_ROLES);
+    }
+
+    // JdbcIDMRepo's extractor with columns read by name
+    private static User namedUserWithRoles(ResultSet rs) throws SQLException
+    {
+        User user = null;
+
+        while (rs.next()) {
+            if (user == null) {
+                user = new User()
+                        .setId(rs.getInt("id"))
+                        .setEmail(rs.getString("email"))
+                        .setUserStatus(UserStatus.fromId(rs.getInt("user_status_id")))
+                        .setSalt(rs.getString("salt"))
+                        .setHashedPassword(rs.getString("hashed_password"));
+            }
+
+            int roleId = rs.getInt("role_id");
+            if (! rs.wasNull())
+                user.setRole(Role.fromId(roleId));
+        }
+
+        return user;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking a stored password the way {@code IDMAuthenticationManager} used to
+ * (a new {@code SecretKeyFactory} and {@code PBEKeySpec} per call, Base64 and
+ * String comparison) against {@link Pbkdf2PasswordHasher#verify}, plus hashing
+ * a new password as /register does.
+ * <p>
+ * Run with {@code -prof gc} to see {@code gc.alloc.rate.norm} (bytes per op).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class Pbkdf2PasswordHasherBenchmark
+{
+    // Active@example.com from src/test/resources/idm-test-data.sql
+    private static final String SALT            = "BXVDsQ==";
+    private static final String HASHED_PASSWORD =
+        "3906lItAtnDxDK5i85TKsdhfMNJgHYcK6quOR6FegjmPB6ppS6NH7j3ie83kjwotLlVZZVklclRKnyXTSVoEJw==";
+
+    private char[]               password;
+    private Pbkdf2PasswordHasher hasher;
+    private EncodedPassword      stored;
+
+    @Setup
+    public void setup()
+    {
+        password = "ActivePassWord0".toCharArray();
+        hasher = new Pbkdf2PasswordHasher("pbkdf2-sha512", 10000, 512, 4);
+        stored = EncodedPassword.fromColumns(SALT, HASHED_PASSWORD);
+    }
+
+    @Benchmark
+    public boolean secretKeyFactoryPerCall()
+        throws Exception
+    {
+        SecretKeyFactory skf  = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
+        PBEKeySpec       spec = new PBEKeySpec(password, Base64.getDecoder().decode(SALT), 10000, 512);
+
+        return HASHED_PASSWORD.equals(Base64.getEncoder().encodeToString(skf.generateSecret(spec).getEncoded()));
+    }
+
+    @Benchmark
+    public boolean threadLocalMac()
+    {
+        return hasher.verify(password, stored);
+    }
+
+    @Benchmark
+    public EncodedPassword hash()
+    {
+        return hasher.hash(password);
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.idm.BenchmarkConfigs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The request validation every /login and /register runs before touching the
+ * database. The {@code regex*} benchmarks are the controller's old
+ * {@code Pattern.matches} checks, kept as the baseline; run with {@code -prof gc}
+ * to compare allocation per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidateBenchmark
+{
+    private Validate validate;
+    private String   email;
+    private String   rejectedEmail;
+    private char[]   password;
+
+    @Setup
+    public void setup()
+    {
+        validate = new Validate(BenchmarkConfigs.serviceConfig());
+        email = "Active@example.com";
+        rejectedEmail = "Active.example@com";
+        password = "ActivePassWord0".toCharArray();
+    }
+
+    @Benchmark
+    public void validateEmail()
+    {
+        validate.email(email);
+    }
+
+    @Benchmark
+    public boolean validateEmailRejected()
+    {
+        try {
+            validate.email(rejectedEmail);
+            return false;
+        } catch (ResultError e) {
+            return true;
+        }
+    }
+
+    @Benchmark
+    public void validatePassword()
+    {
+        validate.password(password);
+    }
+
+    @Benchmark
+    public boolean regexEmail()
+    {
+        return Pattern.matches("[A-Za-z0-9]+@[A-Za-z0-9]+\\.[A-Za-z0-9]+", email);
+    }
+
+    @Benchmark
+    public boolean regexPassword()
+    {
+        String string = new String(password);
+
+        if (! Pattern.matches("^[a-zA-Z0-9]+$", string))
+            return false;
+
+        boolean hasUpperCase = false;
+        boolean hasLowerCase = false;
+        boolean hasNumberCase = false;
+        for (char c : string.toCharArray()) {
+            if (c >= 'A' && c <= 'Z')
+                hasUpperCase = true;
+            else if (c >= 'a' && c <= 'z')
+                hasLowerCase = true;
+            else if (c >= '0' && c <= '9')
+                hasNumberCase = true;
+        }
+        return hasUpperCase && hasLowerCase && hasNumberCase;
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import com.github.klefstad_teaching.cs122b.idm.BenchmarkConfigs;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.IDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.InMemoryIDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.JdbcIDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@value #CONCURRENCY} concurrent /refresh fast paths, each one repository call
+ * with {@code latencyMicros} of injected database latency, served either by a
+ * fixed pool the size of Tomcat's default max-threads or by a virtual thread per
+ * request. Scores are requests per second; the virtual runs need Java 21 or
+ * newer.
+ * <p>
+ * By default the repository is {@code InMemoryIDMRepo}, whose latency is a
+ * {@code parkNanos} and so never pins a carrier. {@code -p database=mysql} runs
+ * the same requests through the real driver and Hikari against the IDM schema
+ * at {@code jdbcUrl}, with the latency injected as a {@code DO SLEEP} round trip
+ * ahead of each call. That is the run that shows whether the driver pins, e.g.
+ * <pre>
+ *     java -Djdk.tracePinnedThreads=short -jar benchmarks/target/benchmarks.jar VirtualThreadsBenchmark \
+ *         -p database=mysql -p jdbcUrl=jdbc:mysql://localhost:3306/idm -p jdbcUser=... -p jdbcPassword=...
+ * </pre>
+ * The pool holds {@value #MYSQL_CONNECTIONS} connections, raise the server's
+ * {@code max_connections} if it is lower.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VirtualThreadsBenchmark
+{
+    private static final int CONCURRENCY       = 2000;
+    private static final int PLATFORM_THREADS  = 200;
+    private static final int MYSQL_CONNECTIONS = 100;
+
+    private static final String EMAIL = "VirtualThreadsBenchmark@example.com";
+
+    @Param({"platform", "virtual"})
+    private String threads;
+
+    @Param({"0", "1000", "5000"})
+    private long latencyMicros;
+
+    @Param({"in-memory"})
+    private String database;
+
+    @Param({""})
+    private String jdbcUrl;
+
+    @Param({""})
+    private String jdbcUser;
+
+    @Param({""})
+    private String jdbcPassword;
+
+    private ExecutorService  executor;
+    private HikariDataSource dataSource;
+    private JdbcTemplate     template;
+    private IDMRepo          repo;
+    private String[]         tokens;
+    private Instant          now;
+    private Instant          newExpireTime;
+
+    @Setup
+    public void setup()
+    {
+        executor = "virtual".equals(threads) ?
+                   VirtualThreads.newThreadPerTaskExecutor("bench-") :
+                   Executors.newFixedThreadPool(PLATFORM_THREADS);
+
+        if ("mysql".equals(database)) {
+            HikariConfig hikari = new HikariConfig();
+            hikari.setJdbcUrl(jdbcUrl);
+            hikari.setUsername(jdbcUser);
+            hikari.setPassword(jdbcPassword);
+            hikari.setMaximumPoolSize(MYSQL_CONNECTIONS);
+            hikari.setMinimumIdle(MYSQL_CONNECTIONS);
+
+            dataSource = new HikariDataSource(hikari);
+            template = new JdbcTemplate(dataSource);
+            repo = new JdbcIDMRepo(template, BenchmarkConfigs.serviceConfig());
+
+            deleteBenchmarkRows();
+        } else {
+            repo = new InMemoryIDMRepo(
+                BenchmarkConfigs.serviceConfig(new IDMServiceConfig.InMemory(Duration.ofNanos(latencyMicros * 1_000))));
+        }
+
+        repo.insertUser(EMAIL, UserStatus.ACTIVE.id(), null, "x");
+        int userId = repo.searchByEmail(EMAIL).getId();
+
+        now = Instant.now();
+        newExpireTime = now.plus(1, ChronoUnit.HOURS);
+
+        // one token per request, so requests do not contend on the same row
+        tokens = new String[CONCURRENCY];
+        for (int i = 0; i < CONCURRENCY; i++) {
+            tokens[i] = UUID.randomUUID().toString();
+            repo.insertRefreshToken(
+                new RefreshToken()
+                    .setToken(tokens[i])
+                    .setUserId(userId)
+                    .setTokenStatus(TokenStatus.ACTIVE)
+                    .setExpireTime(newExpireTime)
+                    .setMaxLifeTime(now.plus(30, ChronoUnit.DAYS)));
+        }
+    }
+
+    private void deleteBenchmarkRows()
+    {
+        template.update("DELETE t FROM idm.refresh_token t JOIN idm.user u ON u.id = t.user_id WHERE u.email = ?", EMAIL);
+        template.update("DELETE FROM idm.user WHERE email = ?", EMAIL);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        executor.shutdownNow();
+
+        if (dataSource != null) {
+            deleteBenchmarkRows();
+            dataSource.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENCY)
+    public void refresh() throws InterruptedException
+    {
+        CountDownLatch done = new CountDownLatch(CONCURRENCY);
+
+        for (String token : tokens) {
+            executor.execute(() -> {
+                try {
+                    // the in-memory repo sleeps inside the call itself
+                    if (template != null && latencyMicros > 0)
+                        template.execute("DO SLEEP(" + latencyMicros / 1_000_000.0 + ")");
+                    repo.extendRefreshToken(token, now, newExpireTime);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+    }
+}
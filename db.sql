@@ -1,3 +1,7 @@
+-- The schema as of migration V3, the head of src/main/resources/db/migration, for
+-- creating a new database by hand; the service upgrades an existing one itself.
+-- Changes go into a new script there; apply the same change here and record its
+-- version at the end so a database created from this file starts at the head.
 CREATE SCHEMA IF NOT EXISTS idm;
 
 CREATE TABLE IF NOT EXISTS idm.token_status
@@ -25,8 +29,8 @@ CREATE TABLE IF NOT EXISTS idm.user
     id                  INT            NOT NULL PRIMARY KEY AUTO_INCREMENT,
     email               VARCHAR(32)    NOT NULL UNIQUE,
     user_status_id      INT            NOT NULL,
-    salt                VARCHAR(8)    NOT NULL,
-    hashed_password     VARCHAR(88)   NOT NULL,
+    salt                VARCHAR(8)     NULL,
+    hashed_password     VARCHAR(255)   NOT NULL,
     FOREIGN KEY (user_status_id) REFERENCES idm.user_status (id)
     ON UPDATE CASCADE ON DELETE CASCADE
     );
@@ -42,7 +46,9 @@ CREATE TABLE IF NOT EXISTS idm.refresh_token
     FOREIGN KEY (user_id) REFERENCES idm.user (id)
     ON UPDATE CASCADE ON DELETE CASCADE,
     FOREIGN KEY (token_status_id) REFERENCES idm.token_status (id)
-    ON UPDATE CASCADE ON DELETE CASCADE
+    ON UPDATE CASCADE ON DELETE CASCADE,
+    INDEX idx_refresh_token_user_status (user_id, token_status_id),
+    INDEX idx_refresh_token_status_expire (token_status_id, expire_time)
     );
 
 CREATE TABLE IF NOT EXISTS idm.user_role
@@ -54,4 +60,20 @@ CREATE TABLE IF NOT EXISTS idm.user_role
     ON UPDATE CASCADE ON DELETE CASCADE,
     FOREIGN KEY (role_id) REFERENCES idm.role (id)
     ON UPDATE CASCADE ON DELETE CASCADE
-    );
\ No newline at end of file
+    );
+
+-- the layout SchemaMigrator creates; checksum 0 marks a version as baselined
+CREATE TABLE IF NOT EXISTS idm.schema_version
+(
+    version         INT            NOT NULL PRIMARY KEY,
+    description     VARCHAR(128)   NOT NULL,
+    script          VARCHAR(255)   NOT NULL,
+    checksum        BIGINT         NOT NULL,
+    installed_on    TIMESTAMP      NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    execution_ms    INT            NOT NULL
+    );
+
+INSERT IGNORE INTO idm.schema_version (version, description, script, checksum, execution_ms)
+VALUES (1, '<< db.sql >>', 'V1__baseline.sql', 0, 0),
+       (2, '<< db.sql >>', 'V2__widen_password_columns.sql', 0, 0),
+       (3, '<< db.sql >>', 'V3__refresh_token_indexes.sql', 0, 0);
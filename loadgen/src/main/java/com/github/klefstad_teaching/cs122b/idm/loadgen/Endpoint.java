@@ -0,0 +1,21 @@
+package com.github.klefstad_teaching.cs122b.idm.loadgen;
+
+public enum Endpoint
+{
+    REGISTER("/register"),
+    LOGIN("/login"),
+    REFRESH("/refresh"),
+    AUTHENTICATE("/authenticate");
+
+    private final String path;
+
+    Endpoint(String path)
+    {
+        this.path = path;
+    }
+
+    public String path()
+    {
+        return path;
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.klefstad_teaching.cs122b.idm.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and outcomes of one endpoint. Latencies are in microseconds and taken
+ * from the time a request was scheduled, not sent, so a stalled service shows
+ * up in the percentiles instead of just lowering the request rate.
+ */
+public final class EndpointStats
+{
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Endpoint               endpoint;
+    private final Recorder               recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram              total    = new Histogram(SIGNIFICANT_DIGITS);
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    private Histogram interval;
+
+    public EndpointStats(Endpoint endpoint)
+    {
+        this.endpoint = endpoint;
+    }
+
+    public Endpoint endpoint()
+    {
+        return endpoint;
+    }
+
+    public void record(long latencyNanos, String outcome)
+    {
+        recorder.recordValue(Math.max(1, latencyNanos / 1_000));
+        outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Swaps out what was recorded since the previous call and adds it to the total.
+     * Only the reporting thread may call this.
+     */
+    public Histogram takeInterval()
+    {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        return interval;
+    }
+
+    /**
+     * Everything recorded up to the last {@link #takeInterval()}.
+     */
+    public Histogram total()
+    {
+        return total;
+    }
+
+    public Map<String, Long> outcomes()
+    {
+        Map<String, Long> counts = new TreeMap<>();
+        outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+        return counts;
+    }
+
+    public void reset()
+    {
+        takeInterval();
+        total.reset();
+        outcomes.clear();
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.klefstad_teaching.cs122b.idm.loadgen;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line options, each given as {@code --name=value}. See the module's
+ * readme for what they mean.
+ */
+public final class LoadConfig
+{
+    private final URI      baseUrl;
+    private final int      rate;
+    private final Duration warmup;
+    private final Duration duration;
+    private final int      users;
+    private final boolean  register;
+    private final String   password;
+    private final Mix      mix;
+    private final int      tokenUses;
+    private final int      maxInFlight;
+    private final Duration timeout;
+    private final Duration reportInterval;
+
+    private LoadConfig(Map<String, String> options)
+    {
+        this.baseUrl = URI.create(take(options, "base-url", "http://localhost:8081"));
+        this.rate = Integer.parseInt(take(options, "rate", "200"));
+        this.warmup = parseDuration(take(options, "warmup", "10s"));
+        this.duration = parseDuration(take(options, "duration", "60s"));
+        this.users = Integer.parseInt(take(options, "users", "1000"));
+        this.register = Boolean.parseBoolean(take(options, "register", "true"));
+        this.password = take(options, "password", "LoadGen12345");
+        this.mix = Mix.parse(take(options, "mix", "login=10,refresh=30,authenticate=55,register=5"));
+        this.tokenUses = Integer.parseInt(take(options, "token-uses", "20"));
+        this.maxInFlight = Integer.parseInt(take(options, "max-in-flight", "256"));
+        this.timeout = parseDuration(take(options, "timeout", "5s"));
+        this.reportInterval = parseDuration(take(options, "report-interval", "10s"));
+
+        if (! options.isEmpty())
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        if (rate <= 0 || users <= 0 || tokenUses <= 0 || maxInFlight <= 0)
+            throw new IllegalArgumentException("rate, users, token-uses and max-in-flight must be positive");
+    }
+
+    public static LoadConfig parse(String[] args)
+    {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (! arg.startsWith("--") || equals < 0)
+                throw new IllegalArgumentException("Expected --name=value, got '" + arg + "'");
+
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+
+        return new LoadConfig(options);
+    }
+
+    private static String take(Map<String, String> options, String name, String defaultValue)
+    {
+        String value = options.remove(name);
+        return value == null ? defaultValue : value;
+    }
+
+    // 250ms, 30s, 5m or an ISO-8601 duration
+    static Duration parseDuration(String value)
+    {
+        String lower = value.trim().toLowerCase(Locale.ROOT);
+
+        if (lower.startsWith("p"))
+            return Duration.parse(value.trim());
+        if (lower.endsWith("ms"))
+            return Duration.ofMillis(Long.parseLong(lower.substring(0, lower.length() - 2)));
+        if (lower.endsWith("s"))
+            return Duration.ofSeconds(Long.parseLong(lower.substring(0, lower.length() - 1)));
+        if (lower.endsWith("m"))
+            return Duration.ofMinutes(Long.parseLong(lower.substring(0, lower.length() - 1)));
+        throw new IllegalArgumentException("Expected a duration like 250ms, 30s or 5m, got '" + value + "'");
+    }
+
+    public URI baseUrl()
+    {
+        return baseUrl;
+    }
+
+    public int rate()
+    {
+        return rate;
+    }
+
+    public Duration warmup()
+    {
+        return warmup;
+    }
+
+    public Duration duration()
+    {
+        return duration;
+    }
+
+    public int users()
+    {
+        return users;
+    }
+
+    public boolean register()
+    {
+        return register;
+    }
+
+    public String password()
+    {
+        return password;
+    }
+
+    public Mix mix()
+    {
+        return mix;
+    }
+
+    public int tokenUses()
+    {
+        return tokenUses;
+    }
+
+    public int maxInFlight()
+    {
+        return maxInFlight;
+    }
+
+    public Duration timeout()
+    {
+        return timeout;
+    }
+
+    public Duration reportInterval()
+    {
+        return reportInterval;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "base-url=" + baseUrl + " rate=" + rate + "/s warmup=" + warmup + " duration=" + duration +
+               " users=" + users + " mix=" + mix + " token-uses=" + tokenUses + " max-in-flight=" + maxInFlight;
+    }
+}
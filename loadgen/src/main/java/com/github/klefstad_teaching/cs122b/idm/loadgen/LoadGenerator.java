@@ -0,0 +1,388 @@
+package com.github.klefstad_teaching.cs122b.idm.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Open loop load against a running IDM service. Requests are started on a fixed
+ * schedule of {@code rate} per second whatever the response times are, picked
+ * from the configured mix, and timed from their scheduled start; at most
+ * {@code max-in-flight} are outstanding, past that the schedule falls behind and
+ * the delay is charged to the requests that were held back.
+ * <p>
+ * Each of the {@code users} simulated users logs in once during setup and then
+ * reuses its tokens for /refresh and /authenticate until they have been used
+ * {@code token-uses} times or /refresh rejects them; its next request is a /login
+ * instead. /register always creates a new user.
+ */
+public final class LoadGenerator
+{
+    private static final PrintStream OUT = System.out;
+
+    private final LoadConfig                    config;
+    private final HttpClient                    client;
+    private final ObjectMapper                  mapper     = new ObjectMapper();
+    private final Map<Endpoint, EndpointStats>  stats      = new EnumMap<>(Endpoint.class);
+    private final Semaphore                     inFlight;
+    private final AtomicReferenceArray<Session> sessions;
+    private final AtomicLong                    registered = new AtomicLong();
+    private final String                        runId      = Long.toString(System.currentTimeMillis(), 36);
+    private final Random                        random     = new Random();
+
+    public LoadGenerator(LoadConfig config)
+    {
+        this.config = config;
+        this.client = HttpClient.newBuilder()
+                                .version(HttpClient.Version.HTTP_1_1)
+                                .connectTimeout(config.timeout())
+                                .build();
+        this.inFlight = new Semaphore(config.maxInFlight());
+        this.sessions = new AtomicReferenceArray<>(config.users());
+
+        for (Endpoint endpoint : Endpoint.values())
+            stats.put(endpoint, new EndpointStats(endpoint));
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        LoadConfig config;
+        try {
+            config = LoadConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        new LoadGenerator(config).run();
+    }
+
+    public void run() throws InterruptedException
+    {
+        OUT.println("Load: " + config);
+
+        setUp();
+        drive();
+    }
+
+    /**
+     * Registers every simulated user (one that already exists is fine) and logs
+     * it in, as fast as {@code max-in-flight} allows and without recording.
+     */
+    private void setUp() throws InterruptedException
+    {
+        long start = System.nanoTime();
+
+        if (config.register()) {
+            for (int user = 0; user < config.users(); user++) {
+                inFlight.acquire();
+                send(Endpoint.REGISTER, credentials(email(user)))
+                    .whenComplete((response, error) -> inFlight.release());
+            }
+            awaitInFlight();
+        }
+
+        for (int user = 0; user < config.users(); user++) {
+            int index = user;
+            inFlight.acquire();
+            send(Endpoint.LOGIN, credentials(email(user)))
+                .whenComplete((response, error) -> {
+                    try {
+                        if (response != null)
+                            storeSession(index, null, read(response));
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+        }
+        awaitInFlight();
+
+        int loggedIn = 0;
+        for (int user = 0; user < config.users(); user++) {
+            if (sessions.get(user) != null)
+                loggedIn++;
+        }
+
+        OUT.printf("Set up %d of %d users in %d ms%n",
+                   loggedIn, config.users(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (loggedIn == 0)
+            throw new IllegalStateException("No user could log in, is the service running at " + config.baseUrl() + "?");
+    }
+
+    private void drive() throws InterruptedException
+    {
+        long period = TimeUnit.SECONDS.toNanos(1) / config.rate();
+        long reportEvery = config.reportInterval().toNanos();
+
+        long start = System.nanoTime();
+        long measureFrom = start + config.warmup().toNanos();
+        long end = measureFrom + config.duration().toNanos();
+
+        boolean measuring = config.warmup().isZero();
+        long nextReport = start + reportEvery;
+
+        for (long i = 0; ; i++) {
+            long scheduled = start + i * period;
+            if (scheduled >= end)
+                break;
+
+            if (! measuring && scheduled >= measureFrom) {
+                stats.values().forEach(EndpointStats::reset);
+                measuring = true;
+                OUT.println("Warm up done, measuring");
+            }
+
+            if (scheduled >= nextReport) {
+                report(reportEvery);
+                nextReport += reportEvery;
+            }
+
+            parkUntil(scheduled);
+            inFlight.acquire();
+            fire(scheduled);
+        }
+
+        awaitInFlight();
+        stats.values().forEach(EndpointStats::takeInterval);
+        summarize(end - measureFrom);
+    }
+
+    private void fire(long scheduled)
+    {
+        Endpoint endpoint = config.mix().pick(random);
+
+        if (endpoint == Endpoint.REGISTER) {
+            String email = "lg" + runId + "n" + registered.incrementAndGet() + "@example.com";
+            complete(endpoint, scheduled, send(endpoint, credentials(email)), null);
+            return;
+        }
+
+        int user = random.nextInt(config.users());
+        Session session = sessions.get(user);
+
+        // the client's tokens are used up or were rejected: log in again
+        if (endpoint != Endpoint.LOGIN && (session == null || session.use() > config.tokenUses()))
+            endpoint = Endpoint.LOGIN;
+
+        Map<String, Object> body;
+        switch (endpoint) {
+            case LOGIN:
+                body = credentials(email(user));
+                break;
+            case REFRESH:
+                body = Map.of("refreshToken", session.refreshToken());
+                break;
+            default:
+                body = Map.of("accessToken", session.accessToken());
+                break;
+        }
+
+        Endpoint sent = endpoint;
+        complete(sent, scheduled, send(sent, body), response -> {
+            if (sent == Endpoint.LOGIN)
+                storeSession(user, sessions.get(user), response);
+            else if (sent == Endpoint.REFRESH)
+                storeSession(user, session, response);
+        });
+    }
+
+    private void complete(Endpoint endpoint,
+                          long scheduled,
+                          CompletableFuture<HttpResponse<byte[]>> future,
+                          Consumer<JsonNode> onResponse)
+    {
+        future.whenComplete((response, error) -> {
+            try {
+                long latency = System.nanoTime() - scheduled;
+
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ?
+                                      error.getCause() : error;
+                    stats.get(endpoint).record(latency, cause.getClass().getSimpleName());
+                    return;
+                }
+
+                JsonNode json = read(response);
+                stats.get(endpoint).record(latency, outcome(response, json));
+
+                if (onResponse != null)
+                    onResponse.accept(json);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Keeps the tokens of a successful /login or /refresh, or forgets {@code current}
+     * if the service turned it down so the user logs in next time. Only replaces
+     * {@code current}, a newer session from a concurrent request wins.
+     */
+    private void storeSession(int user, Session current, JsonNode json)
+    {
+        String accessToken = json.path("accessToken").asText(null);
+        String refreshToken = json.path("refreshToken").asText(null);
+
+        Session next;
+        if (accessToken == null || refreshToken == null)
+            next = null;
+        else if (current == null)
+            next = new Session(accessToken, refreshToken);
+        else
+            next = current.refreshed(accessToken, refreshToken);
+
+        sessions.compareAndSet(user, current, next);
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> send(Endpoint endpoint, Map<String, Object> body)
+    {
+        byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(body);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        HttpRequest request =
+            HttpRequest.newBuilder(uri(endpoint))
+                       .timeout(config.timeout())
+                       .header("Content-Type", "application/json")
+                       .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+                       .build();
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private URI uri(Endpoint endpoint)
+    {
+        return config.baseUrl().resolve(endpoint.path());
+    }
+
+    private JsonNode read(HttpResponse<byte[]> response)
+    {
+        try {
+            return mapper.readTree(response.body());
+        } catch (IOException e) {
+            return mapper.missingNode();
+        }
+    }
+
+    // the service's result code and message, or the HTTP status when there is no result
+    private static String outcome(HttpResponse<byte[]> response, JsonNode json)
+    {
+        JsonNode result = json.path("result");
+        if (result.has("code"))
+            return result.path("code").asInt() + " " + result.path("message").asText("");
+        return "HTTP " + response.statusCode();
+    }
+
+    private Map<String, Object> credentials(String email)
+    {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("email", email);
+        body.put("password", config.password());
+        return body;
+    }
+
+    private static String email(int user)
+    {
+        return "loadgen" + user + "@example.com";
+    }
+
+    private void awaitInFlight() throws InterruptedException
+    {
+        if (! inFlight.tryAcquire(config.maxInFlight(), config.timeout().toMillis() * 2, TimeUnit.MILLISECONDS))
+            OUT.println("Gave up waiting for " + (config.maxInFlight() - inFlight.availablePermits()) + " requests");
+        else
+            inFlight.release(config.maxInFlight());
+    }
+
+    private static void parkUntil(long deadline)
+    {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0)
+            LockSupport.parkNanos(remaining);
+    }
+
+    private void report(long intervalNanos)
+    {
+        List<String> lines = new ArrayList<>();
+
+        for (EndpointStats endpointStats : stats.values()) {
+            Histogram interval = endpointStats.takeInterval();
+            if (interval.getTotalCount() == 0)
+                continue;
+
+            lines.add(String.format("  %-13s %8.1f/s  p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms",
+                                    endpointStats.endpoint(),
+                                    interval.getTotalCount() * 1e9 / intervalNanos,
+                                    millis(interval.getValueAtPercentile(50)),
+                                    millis(interval.getValueAtPercentile(99)),
+                                    millis(interval.getMaxValue())));
+        }
+
+        OUT.println("Last " + TimeUnit.NANOSECONDS.toSeconds(intervalNanos) + "s, in flight " +
+                    (config.maxInFlight() - inFlight.availablePermits()));
+        lines.forEach(OUT::println);
+    }
+
+    private void summarize(long measuredNanos)
+    {
+        OUT.println();
+        OUT.printf("%-13s %10s %10s %9s %9s %9s %9s %9s%n",
+                   "Endpoint", "Requests", "Req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        long requests = 0;
+        for (EndpointStats endpointStats : stats.values()) {
+            Histogram total = endpointStats.total();
+            if (total.getTotalCount() == 0)
+                continue;
+
+            requests += total.getTotalCount();
+            OUT.printf("%-13s %10d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                       endpointStats.endpoint(),
+                       total.getTotalCount(),
+                       total.getTotalCount() * 1e9 / measuredNanos,
+                       millis(total.getValueAtPercentile(50)),
+                       millis(total.getValueAtPercentile(90)),
+                       millis(total.getValueAtPercentile(99)),
+                       millis(total.getValueAtPercentile(99.9)),
+                       millis(total.getMaxValue()));
+        }
+        OUT.printf("%-13s %10d %10.1f%n", "TOTAL", requests, requests * 1e9 / measuredNanos);
+
+        OUT.println();
+        OUT.println("Outcomes");
+        for (EndpointStats endpointStats : stats.values()) {
+            endpointStats.outcomes().forEach(
+                (outcome, count) -> OUT.printf("  %-13s %10d  %s%n", endpointStats.endpoint(), count, outcome));
+        }
+    }
+
+    private static double millis(long micros)
+    {
+        return micros / 1_000.0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.klefstad_teaching.cs122b.idm.loadgen;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Relative weights of the endpoints, e.g. {@code login=10,refresh=30,authenticate=55,register=5}.
+ */
+public final class Mix
+{
+    private final Map<Endpoint, Integer> weights;
+    private final Endpoint[]             endpoints;
+    private final int[]                  cumulative;
+
+    private Mix(Map<Endpoint, Integer> weights)
+    {
+        this.weights = weights;
+        this.endpoints = weights.keySet().toArray(new Endpoint[0]);
+        this.cumulative = new int[endpoints.length];
+
+        int sum = 0;
+        for (int i = 0; i < endpoints.length; i++)
+            cumulative[i] = sum += weights.get(endpoints[i]);
+    }
+
+    public static Mix parse(String value)
+    {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+
+        for (String part : value.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2)
+                throw new IllegalArgumentException("Expected endpoint=weight, got '" + part + "'");
+
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0)
+                throw new IllegalArgumentException("Negative weight for " + pair[0]);
+            if (weight > 0)
+                weights.put(Endpoint.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)), weight);
+        }
+
+        if (weights.isEmpty())
+            throw new IllegalArgumentException("The mix needs at least one endpoint with a positive weight");
+        return new Mix(weights);
+    }
+
+    public Endpoint pick(Random random)
+    {
+        int value = random.nextInt(cumulative[cumulative.length - 1]);
+
+        for (int i = 0; i < cumulative.length; i++) {
+            if (value < cumulative[i])
+                return endpoints[i];
+        }
+        throw new AssertionError();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        weights.forEach((endpoint, weight) -> {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(endpoint.name().toLowerCase(Locale.ROOT)).append('=').append(weight);
+        });
+        return sb.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.klefstad_teaching.cs122b.idm.loadgen;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The tokens one simulated user got from its last /login, as the client would
+ * keep them. Replaced as a whole, so readers always see a matching pair.
+ */
+public final class Session
+{
+    private final String        accessToken;
+    private final String        refreshToken;
+    private final AtomicInteger uses;
+
+    public Session(String accessToken, String refreshToken)
+    {
+        this(accessToken, refreshToken, new AtomicInteger());
+    }
+
+    private Session(String accessToken, String refreshToken, AtomicInteger uses)
+    {
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+        this.uses = uses;
+    }
+
+    public String accessToken()
+    {
+        return accessToken;
+    }
+
+    public String refreshToken()
+    {
+        return refreshToken;
+    }
+
+    /**
+     * Counts one more request made with these tokens.
+     *
+     * @return the number of uses including this one
+     */
+    public int use()
+    {
+        return uses.incrementAndGet();
+    }
+
+    /**
+     * The same login after a /refresh, keeping the use count.
+     */
+    public Session refreshed(String accessToken, String refreshToken)
+    {
+        return new Session(accessToken, refreshToken, uses);
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.klefstad_teaching.cs122b.idm.reactive;
+
+import com.github.klefstad_teaching.cs122b.idm.component.AccessTokenCache;
+import com.github.klefstad_teaching.cs122b.idm.component.IDMJwtManager;
+import com.github.klefstad_teaching.cs122b.idm.component.PasswordHashExecutor;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.PasswordHasherConfig;
+import com.github.klefstad_teaching.cs122b.idm.util.Validate;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Import;
+
+/**
+ * The IDM endpoints on WebFlux and R2DBC. Only this package is scanned; the
+ * pieces that do not block (JWTs, validation, password hashing on its bounded
+ * pool) are imported from the servlet service as they are.
+ */
+@SpringBootApplication
+@EnableConfigurationProperties({
+    IDMServiceConfig.class
+})
+@Import({
+    AccessTokenCache.class,
+    IDMJwtManager.class,
+    PasswordHashExecutor.class,
+    PasswordHasherConfig.class,
+    Validate.class
+})
+public class ReactiveIDMService
+{
+    public static void main(String[] args)
+    {
+        SpringApplication.run(ReactiveIDMService.class, args);
+    }
+}
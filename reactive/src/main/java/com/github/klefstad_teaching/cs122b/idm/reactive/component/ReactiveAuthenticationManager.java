@@ -0,0 +1,142 @@
+package com.github.klefstad_teaching.cs122b.idm.reactive.component;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.component.PasswordHashExecutor;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.reactive.repo.ReactiveIDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.security.EncodedPassword;
+import com.github.klefstad_teaching.cs122b.idm.security.PasswordHasher;
+import com.github.klefstad_teaching.cs122b.idm.util.TokenUuid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.function.Supplier;
+
+/**
+ * {@code IDMAuthenticationManager} for the reactive service. Queries are non
+ * blocking, PBKDF2 runs on the same bounded {@link PasswordHashExecutor} as in
+ * the servlet service so a login storm can never stall the event loop.
+ */
+@Component
+public class ReactiveAuthenticationManager
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ReactiveAuthenticationManager.class);
+
+    private final ReactiveIDMRepo      repo;
+    private final PasswordHashExecutor hashExecutor;
+    private final PasswordHasher       passwordHasher;
+    private final boolean              rehashOnLogin;
+
+    @Autowired
+    public ReactiveAuthenticationManager(ReactiveIDMRepo repo,
+                                         PasswordHashExecutor hashExecutor,
+                                         PasswordHasher passwordHasher,
+                                         IDMServiceConfig serviceConfig)
+    {
+        this.repo = repo;
+        this.hashExecutor = hashExecutor;
+        this.passwordHasher = passwordHasher;
+        this.rehashOnLogin = serviceConfig.password().rehashOnLogin();
+    }
+
+    // queued on subscription, a full queue arrives as a failed future like any other error
+    private <T> Mono<T> onHashingPool(Supplier<T> task)
+    {
+        return Mono.fromFuture(() -> hashExecutor.submit(task));
+    }
+
+    public Mono<User> selectAndAuthenticateUser(String email, char[] password)
+    {
+        return repo
+            .searchByEmail(email)
+            .switchIfEmpty(Mono.error(() -> new ResultError(IDMResults.USER_NOT_FOUND)))
+            .flatMap(user -> {
+                EncodedPassword stored = EncodedPassword.ofUser(user);
+
+                return onHashingPool(() -> passwordHasher.verifyStored(password, stored))
+                    .map(matches -> {
+                        if (! matches)
+                            throw new ResultError(IDMResults.INVALID_CREDENTIALS);
+
+                        if (rehashOnLogin && passwordHasher.needsRehash(stored))
+                            rehashInBackground(user, password);
+
+                        return user;
+                    });
+            });
+    }
+
+    // the write is non blocking, the hashing thread only subscribes to it
+    private void rehashInBackground(User user, char[] password)
+    {
+        hashExecutor.tryRehash(passwordHasher, user, password, encoded ->
+            repo.updateUserPassword(user.getId(), encoded)
+                .subscribe(null, e -> LOG.warn("Could not store the rehashed password for user {}", user.getId(), e)));
+    }
+
+    // as in IDMAuthenticationManager, the salt column is left empty
+    public Mono<Void> createAndInsertUser(String email, char[] password)
+    {
+        return onHashingPool(() -> passwordHasher.hash(password))
+            .flatMap(encoded -> repo.insertUser(email, 1, null, encoded.encode()));
+    }
+
+    public void validateRefreshToken(String token)
+    {
+        TokenUuid.validateRefreshToken(token);
+    }
+
+    public Mono<RefreshToken> verifyRefreshToken(String token)
+    {
+        return Mono.defer(() -> {
+            validateRefreshToken(token);
+
+            return repo
+                .searchByRefreshToken(token)
+                .switchIfEmpty(Mono.error(() -> new ResultError(IDMResults.REFRESH_TOKEN_NOT_FOUND)));
+        });
+    }
+
+    /**
+     * @return the token's user if the token was active and its expiry was moved to
+     * {@code newExpireTime}, empty if the caller has to find out why not
+     */
+    public Mono<User> extendRefreshToken(String token, Instant now, Instant newExpireTime)
+    {
+        return repo.extendRefreshToken(token, now, newExpireTime);
+    }
+
+    /**
+     * @return false if another request revoked {@code token} first
+     */
+    public Mono<Boolean> rotateRefreshToken(RefreshToken token, RefreshToken replacement)
+    {
+        return repo.rotateRefreshToken(token, replacement);
+    }
+
+    public Mono<Void> insertRefreshToken(RefreshToken token)
+    {
+        return repo.insertRefreshToken(token);
+    }
+
+    public Mono<Void> expireRefreshToken(RefreshToken token)
+    {
+        token.setTokenStatus(TokenStatus.EXPIRED);
+        return repo.updateRefreshToken(token);
+    }
+
+    public Mono<User> getUserFromRefreshToken(RefreshToken refreshToken)
+    {
+        return repo
+            .searchById(refreshToken.getUserId())
+            .switchIfEmpty(Mono.error(() -> new ResultError(IDMResults.USER_NOT_FOUND)));
+    }
+}
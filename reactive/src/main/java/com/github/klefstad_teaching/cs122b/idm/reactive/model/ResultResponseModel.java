@@ -0,0 +1,10 @@
+package com.github.klefstad_teaching.cs122b.idm.reactive.model;
+
+import com.github.klefstad_teaching.cs122b.core.base.ResponseModel;
+
+/**
+ * A response that carries nothing but its result, used for errors.
+ */
+public class ResultResponseModel extends ResponseModel<ResultResponseModel> {
+
+}
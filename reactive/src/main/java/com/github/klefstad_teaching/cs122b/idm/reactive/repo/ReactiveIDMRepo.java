@@ -0,0 +1,279 @@
+package com.github.klefstad_teaching.cs122b.idm.reactive.repo;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import io.r2dbc.spi.R2dbcException;
+import io.r2dbc.spi.Row;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * The servlet service's queries on R2DBC. Parameters are bound by position
+ * against MySQL's {@code ?} markers, as in {@code JdbcIDMRepo}; lookups that find
+ * nothing complete empty instead of throwing.
+ * <p>
+ * Only {@code idm.refresh-token-storage: text} is supported, the binary column
+ * rollout has not been ported.
+ */
+@Component
+public class ReactiveIDMRepo
+{
+    private static final String SELECT_USER_WITH_ROLES =
+            "SELECT u.id, u.email, u.user_status_id, u.salt, u.hashed_password, ur.role_id " +
+                    "FROM idm.user u " +
+                    "LEFT JOIN idm.user_role ur ON ur.user_id = u.id ";
+
+    private static final String SEARCH_USER_BY_EMAIL = SELECT_USER_WITH_ROLES + "WHERE u.email = ?";
+    private static final String SEARCH_USER_BY_ID    = SELECT_USER_WITH_ROLES + "WHERE u.id = ?";
+
+    private static final String SEARCH_USER_BY_REFRESH_TOKEN =
+            SELECT_USER_WITH_ROLES +
+                    "JOIN idm.refresh_token rt ON rt.user_id = u.id " +
+                    "WHERE rt.token = ?";
+
+    private static final String SEARCH_REFRESH_TOKEN =
+            "SELECT id, user_id, token_status_id, expire_time, max_life_time " +
+                    "FROM idm.refresh_token " +
+                    "WHERE token = ?";
+
+    private static final String EXTEND_REFRESH_TOKEN =
+            "UPDATE idm.refresh_token " +
+                    "SET expire_time = ? " +
+                    "WHERE token = ? " +
+                    "AND token_status_id = ? " +
+                    "AND expire_time >= ? " +
+                    "AND max_life_time >= ?";
+
+    private static final String ROTATE_REFRESH_TOKEN =
+            "UPDATE idm.refresh_token SET token_status_id = ? WHERE id = ? AND token_status_id = ?";
+
+    private static final String INSERT_USER =
+            "INSERT INTO idm.user (email, user_status_id, salt, hashed_password) VALUES (?, ?, ?, ?)";
+
+    private static final String UPDATE_USER_PASSWORD =
+            "UPDATE idm.user SET salt = NULL, hashed_password = ? WHERE id = ?";
+
+    private static final String INSERT_REFRESH_TOKEN =
+            "INSERT INTO idm.refresh_token (token, user_id, token_status_id, expire_time, max_life_time) " +
+                    "VALUES (?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_REFRESH_TOKEN =
+            "UPDATE idm.refresh_token SET token_status_id = ?, expire_time = ? WHERE id = ?";
+
+    private static final int ER_DUP_ENTRY = 1062;
+
+    private final DatabaseClient        client;
+    private final TransactionalOperator transactions;
+
+    @Autowired
+    public ReactiveIDMRepo(DatabaseClient client, TransactionalOperator transactions, IDMServiceConfig serviceConfig)
+    {
+        if (serviceConfig.refreshTokenStorage() != IDMServiceConfig.TokenStorage.TEXT)
+            throw new IllegalStateException("The reactive service only supports idm.refresh-token-storage: text");
+
+        this.client = client;
+        this.transactions = transactions;
+    }
+
+    public Mono<User> searchByEmail(String email)
+    {
+        return searchUser(SEARCH_USER_BY_EMAIL, email);
+    }
+
+    public Mono<User> searchById(Integer id)
+    {
+        return searchUser(SEARCH_USER_BY_ID, id);
+    }
+
+    public Mono<RefreshToken> searchByRefreshToken(String refreshToken)
+    {
+        return client.sql(SEARCH_REFRESH_TOKEN)
+                     .bind(0, refreshToken)
+                     .map(row -> new RefreshToken()
+                             .setId(row.get(0, Integer.class))
+                             .setToken(refreshToken)
+                             .setUserId(row.get(1, Integer.class))
+                             .setTokenStatus(TokenStatus.fromId(row.get(2, Integer.class)))
+                             .setExpireTime(toInstant(row.get(3, LocalDateTime.class)))
+                             .setMaxLifeTime(toInstant(row.get(4, LocalDateTime.class))))
+                     .one();
+    }
+
+    /**
+     * Slides the expiry of an active, unexpired refresh token whose max life time
+     * allows it, with the same conditional UPDATE as {@code JdbcIDMRepo}.
+     *
+     * @return the token's user, or empty if any condition failed
+     */
+    public Mono<User> extendRefreshToken(String refreshToken, Instant now, Instant newExpireTime)
+    {
+        LocalDateTime newExpire = toLocal(newExpireTime);
+
+        Mono<User> extend =
+            client.sql(EXTEND_REFRESH_TOKEN)
+                  .bind(0, newExpire)
+                  .bind(1, refreshToken)
+                  .bind(2, TokenStatus.ACTIVE.id())
+                  .bind(3, toLocal(now))
+                  .bind(4, newExpire)
+                  .fetch()
+                  .rowsUpdated()
+                  .flatMap(updated -> updated == 0 ?
+                                      Mono.empty() :
+                                      searchUser(SEARCH_USER_BY_REFRESH_TOKEN, refreshToken));
+
+        return transactions.transactional(extend);
+    }
+
+    /**
+     * Revokes {@code token} and inserts {@code replacement} in one transaction.
+     *
+     * @return false if the old token was no longer active
+     */
+    public Mono<Boolean> rotateRefreshToken(RefreshToken token, RefreshToken replacement)
+    {
+        Mono<Boolean> rotate =
+            client.sql(ROTATE_REFRESH_TOKEN)
+                  .bind(0, TokenStatus.REVOKED.id())
+                  .bind(1, token.getId())
+                  .bind(2, TokenStatus.ACTIVE.id())
+                  .fetch()
+                  .rowsUpdated()
+                  .flatMap(revoked -> revoked == 0 ?
+                                      Mono.just(false) :
+                                      insertRefreshToken(replacement).thenReturn(true));
+
+        return transactions.transactional(rotate);
+    }
+
+    public Mono<Void> insertUser(String email, Integer user_status_id, String salt, String hashed_password)
+    {
+        DatabaseClient.GenericExecuteSpec spec =
+            client.sql(INSERT_USER)
+                  .bind(0, email)
+                  .bind(1, user_status_id);
+
+        spec = salt == null ? spec.bindNull(2, String.class) : spec.bind(2, salt);
+
+        return spec.bind(3, hashed_password)
+                   .then()
+                   .onErrorMap(ReactiveIDMRepo::isDuplicateKey,
+                               e -> new ResultError(IDMResults.USER_ALREADY_EXISTS));
+    }
+
+    public Mono<Void> updateUserPassword(Integer id, String hashed_password)
+    {
+        return client.sql(UPDATE_USER_PASSWORD)
+                     .bind(0, hashed_password)
+                     .bind(1, id)
+                     .then();
+    }
+
+    public Mono<Void> insertRefreshToken(RefreshToken refreshToken)
+    {
+        return client.sql(INSERT_REFRESH_TOKEN)
+                     .bind(0, refreshToken.getToken())
+                     .bind(1, refreshToken.getUserId())
+                     .bind(2, refreshToken.getTokenStatus().id())
+                     .bind(3, toLocal(refreshToken.getExpireTime()))
+                     .bind(4, toLocal(refreshToken.getMaxLifeTime()))
+                     .then();
+    }
+
+    public Mono<Void> updateRefreshToken(RefreshToken token)
+    {
+        return client.sql(UPDATE_REFRESH_TOKEN)
+                     .bind(0, token.getTokenStatus().id())
+                     .bind(1, toLocal(token.getExpireTime()))
+                     .bind(2, token.getId())
+                     .then();
+    }
+
+    // one row per role, like JdbcIDMRepo's USER_WITH_ROLES
+    private Mono<User> searchUser(String sql, Object key)
+    {
+        return client.sql(sql)
+                     .bind(0, key)
+                     .map(UserRow::new)
+                     .all()
+                     .collectList()
+                     .flatMap(rows -> rows.isEmpty() ? Mono.empty() : Mono.just(toUser(rows)));
+    }
+
+    private static User toUser(List<UserRow> rows)
+    {
+        UserRow first = rows.get(0);
+
+        User user = new User()
+                .setId(first.id)
+                .setEmail(first.email)
+                .setUserStatus(UserStatus.fromId(first.userStatusId))
+                .setSalt(first.salt)
+                .setHashedPassword(first.hashedPassword);
+
+        for (UserRow row : rows) {
+            if (row.roleId != null)
+                user.setRole(Role.fromId(row.roleId));
+        }
+
+        return user;
+    }
+
+    // DATETIME/TIMESTAMP columns are read and written in the JVM's zone, like java.sql.Timestamp
+    /**
+     * The R2DBC translation of Spring 5.3 has no {@code DuplicateKeyException},
+     * where {@code JdbcIDMRepo} catches one; this is the same case, MySQL's
+     * ER_DUP_ENTRY. Other integrity and connection failures stay errors.
+     */
+    private static boolean isDuplicateKey(Throwable e)
+    {
+        return e instanceof DataIntegrityViolationException &&
+               e.getCause() instanceof R2dbcException &&
+               ((R2dbcException) e.getCause()).getErrorCode() == ER_DUP_ENTRY;
+    }
+
+    private static Instant toInstant(LocalDateTime time)
+    {
+        return time.atZone(ZoneId.systemDefault()).toInstant();
+    }
+
+    private static LocalDateTime toLocal(Instant time)
+    {
+        return LocalDateTime.ofInstant(time, ZoneId.systemDefault());
+    }
+
+    private static final class UserRow
+    {
+        private final Integer id;
+        private final String  email;
+        private final Integer userStatusId;
+        private final String  salt;
+        private final String  hashedPassword;
+        private final Integer roleId;
+
+        private UserRow(Row row)
+        {
+            this.id = row.get(0, Integer.class);
+            this.email = row.get(1, String.class);
+            this.userStatusId = row.get(2, Integer.class);
+            this.salt = row.get(3, String.class);
+            this.hashedPassword = row.get(4, String.class);
+            this.roleId = row.get(5, Integer.class);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.klefstad_teaching.cs122b.idm.reactive.rest;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.component.AccessTokenVerification;
+import com.github.klefstad_teaching.cs122b.idm.component.IDMJwtManager;
+import com.github.klefstad_teaching.cs122b.idm.model.request.AuthenticateBatchRequestModel;
+import com.github.klefstad_teaching.cs122b.idm.model.request.AuthenticateRequestModel;
+import com.github.klefstad_teaching.cs122b.idm.model.request.LoginRequestModel;
+import com.github.klefstad_teaching.cs122b.idm.model.request.RefreshRequestModel;
+import com.github.klefstad_teaching.cs122b.idm.model.response.AuthenticateBatchResponseModel;
+import com.github.klefstad_teaching.cs122b.idm.model.response.AuthenticateResponseModel;
+import com.github.klefstad_teaching.cs122b.idm.model.response.LoginResponseModel;
+import com.github.klefstad_teaching.cs122b.idm.model.response.RegisterResponseModel;
+import com.github.klefstad_teaching.cs122b.idm.reactive.component.ReactiveAuthenticationManager;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import com.github.klefstad_teaching.cs122b.idm.util.Validate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+
+/**
+ * The same contract as {@code IDMController}. Each handler is deferred so that
+ * validation errors thrown while assembling the chain surface as error signals
+ * and reach {@link ResultErrorHandler}.
+ */
+@RestController
+public class ReactiveIDMController
+{
+    private final ReactiveAuthenticationManager authManager;
+    private final IDMJwtManager                 jwtManager;
+    private final Validate                      validate;
+
+    @Autowired
+    public ReactiveIDMController(ReactiveAuthenticationManager authManager,
+                                 IDMJwtManager jwtManager,
+                                 Validate validate)
+    {
+        this.authManager = authManager;
+        this.jwtManager = jwtManager;
+        this.validate = validate;
+    }
+
+    // signing is a few microseconds of CPU, not worth a hop off the event loop
+    private Mono<String> accessToken(User user)
+    {
+        return Mono.fromCallable(() -> jwtManager.buildAccessToken(user));
+    }
+
+    @PostMapping("/login")
+    public Mono<ResponseEntity<LoginResponseModel>> login(@RequestBody LoginRequestModel request)
+    {
+        return Mono.defer(() -> {
+            validate.email(request.getEmail());
+            validate.password(request.getPassword());
+
+            return authManager.selectAndAuthenticateUser(request.getEmail(), request.getPassword());
+        }).flatMap(user -> {
+            if (user.getUserStatus() == UserStatus.fromId(3))
+                return Mono.error(new ResultError(IDMResults.USER_IS_BANNED));
+            if (user.getUserStatus() == UserStatus.fromId(2))
+                return Mono.error(new ResultError(IDMResults.USER_IS_LOCKED));
+
+            RefreshToken refreshToken = jwtManager.buildRefreshToken(user.getId());
+
+            return accessToken(user)
+                .flatMap(accessToken -> authManager
+                    .insertRefreshToken(refreshToken)
+                    .thenReturn(new LoginResponseModel()
+                                    .setAccessToken(accessToken)
+                                    .setRefreshToken(refreshToken.getToken())));
+        }).map(response -> response.setResult(IDMResults.USER_LOGGED_IN_SUCCESSFULLY).toResponse());
+    }
+
+    @PostMapping("/register")
+    public Mono<ResponseEntity<RegisterResponseModel>> register(@RequestBody LoginRequestModel request)
+    {
+        return Mono.defer(() -> {
+            validate.email(request.getEmail());
+            validate.password(request.getPassword());
+
+            return authManager.createAndInsertUser(request.getEmail(), request.getPassword());
+        }).then(Mono.fromSupplier(() -> {
+            RegisterResponseModel response = new RegisterResponseModel();
+            response.setResult(IDMResults.USER_REGISTERED_SUCCESSFULLY);
+            return response.toResponse();
+        }));
+    }
+
+    @PostMapping("/refresh")
+    public Mono<ResponseEntity<LoginResponseModel>> refresh(@RequestBody RefreshRequestModel request)
+    {
+        String token = request.getRefreshToken();
+
+        return Mono.defer(() -> {
+            authManager.validateRefreshToken(token);
+
+            // common case: one conditional UPDATE slides the expiry of an active token
+            Instant now = Instant.now();
+
+            return authManager
+                .extendRefreshToken(token, now, jwtManager.refreshTokenExpireTime(now))
+                .flatMap(user -> renewed(user, token))
+                .switchIfEmpty(Mono.defer(() -> refreshSlowPath(token)));
+        }).map(response -> response.setResult(IDMResults.RENEWED_FROM_REFRESH_TOKEN).toResponse());
+    }
+
+    // find out why the extension failed: unknown, expired, revoked or at the end of its max life
+    private Mono<LoginResponseModel> refreshSlowPath(String token)
+    {
+        return authManager.verifyRefreshToken(token).flatMap(refreshToken -> {
+            if (refreshToken.getTokenStatus() == TokenStatus.fromId(2))
+                return Mono.error(new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED));
+
+            if (refreshToken.getTokenStatus() == TokenStatus.fromId(3))
+                return Mono.error(new ResultError(IDMResults.REFRESH_TOKEN_IS_REVOKED));
+
+            if (jwtManager.hasExpired(refreshToken))
+                return authManager.expireRefreshToken(refreshToken)
+                                  .then(Mono.error(new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED)));
+
+            // still active, so extending it would have passed its max life time: rotate
+            RefreshToken newToken = jwtManager.buildRefreshToken(refreshToken.getUserId());
+
+            return authManager.rotateRefreshToken(refreshToken, newToken).flatMap(rotated -> {
+                if (! rotated)
+                    return Mono.error(new ResultError(IDMResults.REFRESH_TOKEN_IS_REVOKED));
+
+                return authManager.getUserFromRefreshToken(refreshToken)
+                                  .flatMap(user -> renewed(user, newToken.getToken()));
+            });
+        });
+    }
+
+    private Mono<LoginResponseModel> renewed(User user, String refreshToken)
+    {
+        return accessToken(user).map(accessToken -> new LoginResponseModel()
+            .setAccessToken(accessToken)
+            .setRefreshToken(refreshToken));
+    }
+
+    /**
+     * A cached or missing token is answered in place; an ECDSA check moves to the
+     * parallel scheduler, which is sized to the cores, so the event loop never
+     * runs one. {@code IDMJwtManager}'s own verify pool is not used here, its
+     * caller-runs policy would put a full queue's work back on the event loop.
+     */
+    private Mono<AccessTokenVerification> checkAccessToken(String accessToken)
+    {
+        AccessTokenVerification known = jwtManager.checkKnownAccessToken(accessToken);
+
+        if (known != null)
+            return Mono.just(known);
+
+        return Mono.fromCallable(() -> jwtManager.checkAccessToken(accessToken))
+                   .subscribeOn(Schedulers.parallel());
+    }
+
+    @PostMapping("/authenticate")
+    public Mono<ResponseEntity<AuthenticateResponseModel>> authenticate(@RequestBody AuthenticateRequestModel request)
+    {
+        return Mono.defer(() -> checkAccessToken(request.getAccessToken())).flatMap(verification -> {
+            if (! verification.isValid())
+                return Mono.error(new ResultError(verification.result()));
+
+            AuthenticateResponseModel response = new AuthenticateResponseModel();
+            response.setAccessToken(request.getAccessToken());
+            response.setResult(IDMResults.ACCESS_TOKEN_IS_VALID);
+            return Mono.just(response.toResponse());
+        });
+    }
+
+    @PostMapping("/authenticate/batch")
+    public Mono<ResponseEntity<AuthenticateBatchResponseModel>> authenticateBatch(
+            @RequestBody AuthenticateBatchRequestModel request)
+    {
+        return Mono.defer(() -> {
+            if (request.getAccessTokens() == null)
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "accessTokens is required");
+
+            jwtManager.checkBatchSize(request.getAccessTokens());
+
+            // the checks run concurrently, the results keep the order of the tokens;
+            // each token carries its own result, the request itself has none
+            return Flux.fromIterable(request.getAccessTokens())
+                       .flatMapSequential(this::checkAccessToken)
+                       .map(verification -> new AuthenticateBatchResponseModel.TokenResult()
+                           .setResult(verification.result())
+                           .setClaims(verification.isValid() ? verification.claims().toJSONObject() : null))
+                       .collectList();
+        }).map(results -> ResponseEntity.ok(new AuthenticateBatchResponseModel().setResults(results)));
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.klefstad_teaching.cs122b.idm.reactive.rest;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.idm.reactive.model.ResultResponseModel;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Turns a {@link ResultError}, thrown or signalled by a handler's {@code Mono},
+ * into the same status and {@code result} body the servlet service sends.
+ */
+@RestControllerAdvice
+public class ResultErrorHandler
+{
+    @ExceptionHandler(ResultError.class)
+    public ResponseEntity<ResultResponseModel> handle(ResultError error)
+    {
+        return new ResultResponseModel()
+            .setResult(error.getResult())
+            .toResponse();
+    }
+}
@@ -0,0 +1,566 @@
+package com.github.klefstad_teaching.cs122b.idm.reactive;
+
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.r2dbc.spi.ConnectionFactory;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The scenarios of the servlet service's {@code IDMServiceTest}, sent to the
+ * reactive endpoints over a real port. Expects the idm schema to already exist.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ReactiveIDMServiceTest
+{
+    private static final String REGISTER_PATH           = "/register";
+    private static final String LOGIN_PATH              = "/login";
+    private static final String REFRESH_PATH            = "/refresh";
+    private static final String AUTHENTICATE_PATH       = "/authenticate";
+    private static final String AUTHENTICATE_BATCH_PATH = "/authenticate/batch";
+
+    private static final JSONObject ACTIVE = makeUser("Active@example.com",
+                                                      "ActivePassWord0");
+    private static final JSONObject LOCKED = makeUser("Locked@example.com",
+                                                      "LockedPassWord0");
+    private static final JSONObject BANNED = makeUser("Banned@example.com",
+                                                      "BannedPassWord0");
+
+    private static final JSONObject LOGIN_MIN_PASS = makeUser("LoginMinPass@example.com",
+                                                              "ValidPass0");
+    private static final JSONObject LOGIN_MAX_PASS = makeUser("LoginMaxPass@example.com",
+                                                              "ValidPass01234567890");
+
+    private static final JSONObject LOGIN_MIN_EMAIL = makeUser("a@a.io",
+                                                               "MinEmailPassWord0");
+    private static final JSONObject LOGIN_MAX_EMAIL = makeUser("LoginIsRightAtMaxLen@example.com",
+                                                               "MaxEmailPassWord0");
+
+    private static final String EXPIRED_TOKEN = "c46fc3c2-9791-44d6-a86e-2922ad655284";
+    private static final String REVOKED_TOKEN = "399cd90d-e715-484a-bb4d-a8ff35506ef9";
+
+    private final WebTestClient     client;
+    private final ConnectionFactory connectionFactory;
+    private final JWTManager        jwtManager;
+
+    @Autowired
+    public ReactiveIDMServiceTest(WebTestClient client,
+                                  ConnectionFactory connectionFactory,
+                                  @Value("${idm.key-file-name}") String keyFileName,
+                                  @Value("${idm.access-token-expire}") Duration accessTokenExpire,
+                                  @Value("${idm.max-refresh-token-life-time}") Duration maxRefreshTokenLifeTime,
+                                  @Value("${idm.refresh-token-expire}") Duration refreshTokenExpire)
+    {
+        this.client = client;
+        this.connectionFactory = connectionFactory;
+        this.jwtManager =
+            new JWTManager.Builder()
+                .keyFileName(keyFileName)
+                .accessTokenExpire(accessTokenExpire)
+                .maxRefreshTokenLifeTime(maxRefreshTokenLifeTime)
+                .refreshTokenExpire(refreshTokenExpire)
+                .build();
+    }
+
+    // @Sql only works with a JDBC DataSource, the script keeps its user variables on one connection here too
+    @BeforeEach
+    public void loadTestData()
+    {
+        new ResourceDatabasePopulator(new ClassPathResource("idm-test-data.sql"))
+            .populate(connectionFactory)
+            .block();
+    }
+
+    private static JSONObject makeUser(String email, String password)
+    {
+        JSONArray jsonArray = new JSONArray();
+        password.chars().forEach(digit -> jsonArray.add(String.valueOf((char) digit)));
+
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("email", email);
+        jsonObject.put("password", jsonArray);
+
+        return jsonObject;
+    }
+
+    private static JSONObject refreshRequest(String refreshToken)
+    {
+        JSONObject request = new JSONObject();
+        request.put("refreshToken", refreshToken);
+        return request;
+    }
+
+    private static JSONObject authenticateRequest(String accessToken)
+    {
+        JSONObject request = new JSONObject();
+        request.put("accessToken", accessToken);
+        return request;
+    }
+
+    private WebTestClient.ResponseSpec post(String path, JSONObject request)
+    {
+        return client.post()
+                     .uri(path)
+                     .contentType(MediaType.APPLICATION_JSON)
+                     .bodyValue(request.toJSONString())
+                     .exchange();
+    }
+
+    private WebTestClient.BodyContentSpec expectResult(String path, JSONObject request, Result result)
+    {
+        return post(path, request)
+            .expectStatus().isEqualTo(result.status().value())
+            .expectBody()
+            .jsonPath("result.code").isEqualTo(result.code())
+            .jsonPath("result.message").isEqualTo(result.message());
+    }
+
+    // failures never carry tokens
+    private void expectError(String path, JSONObject request, Result result)
+    {
+        expectResult(path, request, result)
+            .jsonPath("accessToken").doesNotExist()
+            .jsonPath("refreshToken").doesNotExist();
+    }
+
+    private static JSONObject parse(WebTestClient.BodyContentSpec body)
+    {
+        byte[] content = body.returnResult().getResponseBody();
+        return (JSONObject) JSONValue.parse(new String(content, StandardCharsets.UTF_8));
+    }
+
+    private JSONObject login(JSONObject user)
+    {
+        return parse(expectResult(LOGIN_PATH, user, IDMResults.USER_LOGGED_IN_SUCCESSFULLY));
+    }
+
+    @Test
+    public void applicationLoads()
+    {
+    }
+
+    // Register Tests
+
+    @Test
+    public void registerSuccessMinPassword()
+    {
+        expectResult(REGISTER_PATH, makeUser("RegisterMin@example.com", "ValidPass0"),
+                     IDMResults.USER_REGISTERED_SUCCESSFULLY);
+    }
+
+    @Test
+    public void registerSuccessMaxPassword()
+    {
+        expectResult(REGISTER_PATH, makeUser("RegisterMax@example.com", "ValidPass01234567890"),
+                     IDMResults.USER_REGISTERED_SUCCESSFULLY);
+    }
+
+    @Test
+    public void registerSuccessMinEmail()
+    {
+        expectResult(REGISTER_PATH, makeUser("b@b.io", "ValidPassWord0"),
+                     IDMResults.USER_REGISTERED_SUCCESSFULLY);
+    }
+
+    @Test
+    public void registerSuccessMaxEmail()
+    {
+        expectResult(REGISTER_PATH, makeUser("EmailIsRightAtMaxLen@example.com", "ValidPassWord0"),
+                     IDMResults.USER_REGISTERED_SUCCESSFULLY);
+    }
+
+    @Test
+    public void registerPasswordTooShort()
+    {
+        expectResult(REGISTER_PATH, makeUser("RegisterFail1@example.com", "TooShort0"),
+                     IDMResults.PASSWORD_DOES_NOT_MEET_LENGTH_REQUIREMENTS);
+    }
+
+    @Test
+    public void registerPasswordTooLong()
+    {
+        expectResult(REGISTER_PATH, makeUser("RegisterFail2@example.com", "WayTooLongPassword012"),
+                     IDMResults.PASSWORD_DOES_NOT_MEET_LENGTH_REQUIREMENTS);
+    }
+
+    @Test
+    public void registerPasswordMissingNumber()
+    {
+        expectResult(REGISTER_PATH, makeUser("RegisterFail3@example.com", "NoNumberPassword"),
+                     IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
+    }
+
+    @Test
+    public void registerPasswordMissingUpperCase()
+    {
+        expectResult(REGISTER_PATH, makeUser("RegisterFail4@example.com", "nouppercase0"),
+                     IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
+    }
+
+    @Test
+    public void registerPasswordMissingLowerCase()
+    {
+        expectResult(REGISTER_PATH, makeUser("RegisterFail5@example.com", "NOLOWERCASE0"),
+                     IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
+    }
+
+    @Test
+    public void registerEmailTooShort()
+    {
+        expectResult(REGISTER_PATH, makeUser("a@a.a", "ValidPassWord0"),
+                     IDMResults.EMAIL_ADDRESS_HAS_INVALID_LENGTH);
+    }
+
+    @Test
+    public void registerEmailTooLong()
+    {
+        expectResult(REGISTER_PATH, makeUser("EmailTooLongToSucceed@example.com", "ValidPassWord0"),
+                     IDMResults.EMAIL_ADDRESS_HAS_INVALID_LENGTH);
+    }
+
+    @Test
+    public void registerEmailNotValid()
+    {
+        expectResult(REGISTER_PATH, makeUser("NotValidEmail", "ValidPassWord0"),
+                     IDMResults.EMAIL_ADDRESS_HAS_INVALID_FORMAT);
+    }
+
+    @Test
+    public void registerAlreadyExists()
+    {
+        expectResult(REGISTER_PATH, ACTIVE, IDMResults.USER_ALREADY_EXISTS);
+    }
+
+    // Login Tests
+
+    private void expectLoggedIn(JSONObject user)
+    {
+        expectResult(LOGIN_PATH, user, IDMResults.USER_LOGGED_IN_SUCCESSFULLY)
+            .jsonPath("accessToken").isNotEmpty()
+            .jsonPath("refreshToken").isNotEmpty();
+    }
+
+    @Test
+    public void loginSuccessMinPassword()
+    {
+        expectLoggedIn(LOGIN_MIN_PASS);
+    }
+
+    @Test
+    public void loginSuccessMaxPassword()
+    {
+        expectLoggedIn(LOGIN_MAX_PASS);
+    }
+
+    @Test
+    public void loginSuccessMinEmail()
+    {
+        expectLoggedIn(LOGIN_MIN_EMAIL);
+    }
+
+    @Test
+    public void loginSuccessMaxEmail()
+    {
+        expectLoggedIn(LOGIN_MAX_EMAIL);
+    }
+
+    @Test
+    public void loginPasswordTooShort()
+    {
+        expectError(LOGIN_PATH, makeUser("LoginFail1@example.com", "TooShort0"),
+                    IDMResults.PASSWORD_DOES_NOT_MEET_LENGTH_REQUIREMENTS);
+    }
+
+    @Test
+    public void loginPasswordTooLong()
+    {
+        expectError(LOGIN_PATH, makeUser("LoginFail2@example.com", "WayTooLongPassword012"),
+                    IDMResults.PASSWORD_DOES_NOT_MEET_LENGTH_REQUIREMENTS);
+    }
+
+    @Test
+    public void loginPasswordMissingNumber()
+    {
+        expectError(LOGIN_PATH, makeUser("LoginFail3@example.com", "NoNumberPassword"),
+                    IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
+    }
+
+    @Test
+    public void loginPasswordMissingUpperCase()
+    {
+        expectError(LOGIN_PATH, makeUser("LoginFail4@example.com", "nouppercase0"),
+                    IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
+    }
+
+    @Test
+    public void loginPasswordMissingLowerCase()
+    {
+        expectError(LOGIN_PATH, makeUser("LoginFail5@example.com", "NOLOWERCASE0"),
+                    IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
+    }
+
+    @Test
+    public void loginEmailTooShort()
+    {
+        expectError(LOGIN_PATH, makeUser("a@a.a", "ValidPass01234567890"),
+                    IDMResults.EMAIL_ADDRESS_HAS_INVALID_LENGTH);
+    }
+
+    @Test
+    public void loginEmailTooLong()
+    {
+        expectError(LOGIN_PATH, makeUser("EmailTooLongToSucceed@example.com", "ValidPass01234567890"),
+                    IDMResults.EMAIL_ADDRESS_HAS_INVALID_LENGTH);
+    }
+
+    @Test
+    public void loginEmailNotValid()
+    {
+        expectError(LOGIN_PATH, makeUser("NotValidEmail", "ValidPass01234567890"),
+                    IDMResults.EMAIL_ADDRESS_HAS_INVALID_FORMAT);
+    }
+
+    @Test
+    public void loginDoesntExist()
+    {
+        expectError(LOGIN_PATH, makeUser("DoesntExist@example.com", "ValidPass0"),
+                    IDMResults.USER_NOT_FOUND);
+    }
+
+    @Test
+    public void loginBannedAccount()
+    {
+        expectError(LOGIN_PATH, BANNED, IDMResults.USER_IS_BANNED);
+    }
+
+    @Test
+    public void loginLockedAccount()
+    {
+        expectError(LOGIN_PATH, LOCKED, IDMResults.USER_IS_LOCKED);
+    }
+
+    @Test
+    public void loginWrongPassword()
+    {
+        expectError(LOGIN_PATH, makeUser(ACTIVE.getAsString("email"), "WrongPass0"),
+                    IDMResults.INVALID_CREDENTIALS);
+    }
+
+    // Refresh Tests
+
+    @Test
+    public void refreshActiveToken()
+    {
+        String refreshToken = login(ACTIVE).getAsString("refreshToken");
+
+        expectResult(REFRESH_PATH, refreshRequest(refreshToken), IDMResults.RENEWED_FROM_REFRESH_TOKEN)
+            .jsonPath("accessToken").exists()
+            .jsonPath("refreshToken").isEqualTo(refreshToken);
+    }
+
+    @Test
+    public void refreshExpiredToken()
+    {
+        expectError(REFRESH_PATH, refreshRequest(EXPIRED_TOKEN), IDMResults.REFRESH_TOKEN_IS_EXPIRED);
+    }
+
+    @Test
+    public void refreshRevokedToken()
+    {
+        expectError(REFRESH_PATH, refreshRequest(REVOKED_TOKEN), IDMResults.REFRESH_TOKEN_IS_REVOKED);
+    }
+
+    @Test
+    public void refreshBeforeExpire()
+        throws Exception
+    {
+        String refreshToken = login(ACTIVE).getAsString("refreshToken");
+
+        Thread.sleep(jwtManager.getRefreshTokenExpire().minus(Duration.ofSeconds(1)).toMillis());
+
+        expectResult(REFRESH_PATH, refreshRequest(refreshToken), IDMResults.RENEWED_FROM_REFRESH_TOKEN)
+            .jsonPath("accessToken").isNotEmpty()
+            .jsonPath("refreshToken").isEqualTo(refreshToken);
+    }
+
+    @Test
+    public void refreshAfterExpire()
+        throws Exception
+    {
+        String refreshToken = login(ACTIVE).getAsString("refreshToken");
+
+        Thread.sleep(jwtManager.getRefreshTokenExpire().plus(Duration.ofSeconds(1)).toMillis());
+
+        expectError(REFRESH_PATH, refreshRequest(refreshToken), IDMResults.REFRESH_TOKEN_IS_EXPIRED);
+    }
+
+    @Test
+    public void refreshAfterExpireIsExtended()
+        throws Exception
+    {
+        String refreshToken = login(ACTIVE).getAsString("refreshToken");
+
+        Thread.sleep(jwtManager.getRefreshTokenExpire().minus(Duration.ofSeconds(1)).toMillis());
+
+        expectResult(REFRESH_PATH, refreshRequest(refreshToken), IDMResults.RENEWED_FROM_REFRESH_TOKEN)
+            .jsonPath("refreshToken").isEqualTo(refreshToken)
+            .jsonPath("accessToken").isNotEmpty();
+
+        Thread.sleep(jwtManager.getRefreshTokenExpire().minus(Duration.ofSeconds(1)).toMillis());
+
+        // past its max life time now, so the token is rotated
+        JSONObject refreshResponse =
+            parse(expectResult(REFRESH_PATH, refreshRequest(refreshToken), IDMResults.RENEWED_FROM_REFRESH_TOKEN)
+                      .jsonPath("accessToken").isNotEmpty());
+
+        String newRefreshToken = refreshResponse.getAsString("refreshToken");
+        assertThat(newRefreshToken).isNotEqualTo(refreshToken);
+
+        expectError(REFRESH_PATH, refreshRequest(refreshToken), IDMResults.REFRESH_TOKEN_IS_REVOKED);
+
+        expectResult(REFRESH_PATH, refreshRequest(newRefreshToken), IDMResults.RENEWED_FROM_REFRESH_TOKEN)
+            .jsonPath("accessToken").isNotEmpty()
+            .jsonPath("refreshToken").isEqualTo(newRefreshToken);
+    }
+
+    @Test
+    public void refreshAfterMaxExpire()
+        throws Exception
+    {
+        String refreshToken = login(ACTIVE).getAsString("refreshToken");
+
+        Thread.sleep(jwtManager.getMaxRefreshTokenLifeTime().toMillis());
+
+        expectError(REFRESH_PATH, refreshRequest(refreshToken), IDMResults.REFRESH_TOKEN_IS_EXPIRED);
+    }
+
+    @Test
+    public void refreshTokenInvalidLength()
+    {
+        expectError(REFRESH_PATH, refreshRequest("invalidToken"), IDMResults.REFRESH_TOKEN_HAS_INVALID_LENGTH);
+    }
+
+    @Test
+    public void refreshTokenInvalidFormat()
+    {
+        expectError(REFRESH_PATH, refreshRequest(UUID.randomUUID().toString().replace("-", ".")),
+                    IDMResults.REFRESH_TOKEN_HAS_INVALID_FORMAT);
+    }
+
+    // Authenticate Tests
+
+    @Test
+    public void authenticateActiveToken()
+    {
+        String accessToken = login(ACTIVE).getAsString("accessToken");
+
+        expectResult(AUTHENTICATE_PATH, authenticateRequest(accessToken), IDMResults.ACCESS_TOKEN_IS_VALID);
+    }
+
+    @Test
+    public void authenticateExpiredToken()
+        throws Exception
+    {
+        String accessToken = login(ACTIVE).getAsString("accessToken");
+
+        Thread.sleep(jwtManager.getAccessTokenExpire().toMillis());
+
+        expectResult(AUTHENTICATE_PATH, authenticateRequest(accessToken), IDMResults.ACCESS_TOKEN_IS_EXPIRED);
+    }
+
+    @Test
+    public void authenticateInvalidTokenKey()
+        throws Exception
+    {
+        ECKey ecJWK = new ECKeyGenerator(Curve.P_521)
+            .keyUse(KeyUse.SIGNATURE)
+            .keyID(UUID.randomUUID().toString())
+            .generate();
+
+        JWSSigner signer = new ECDSASigner(ecJWK);
+
+        SignedJWT jws = new SignedJWT(
+            new JWSHeader(JWSAlgorithm.ES512),
+            new JWTClaimsSet.Builder()
+                .subject("Subject")
+                .expirationTime(Date.from(Instant.now().plus(Duration.ofHours(1))))
+                .claim("roles", new ArrayList<String>())
+                .build());
+
+        jws.sign(signer);
+
+        expectResult(AUTHENTICATE_PATH, authenticateRequest(jws.serialize()), IDMResults.ACCESS_TOKEN_IS_INVALID);
+    }
+
+    @Test
+    public void authenticateInvalidClaims()
+        throws Exception
+    {
+        JWTClaimsSet claimsSet =
+            new JWTClaimsSet.Builder()
+                .subject("Email")
+                .expirationTime(Date.from(Instant.now().plus(Duration.ofHours(1))))
+                .build();
+
+        JWSHeader header =
+            new JWSHeader.Builder(JWTManager.JWS_ALGORITHM)
+                .keyID(jwtManager.getEcKey().getKeyID())
+                .type(JWTManager.JWS_TYPE)
+                .build();
+
+        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
+        signedJWT.sign(jwtManager.getSigner());
+
+        expectResult(AUTHENTICATE_PATH, authenticateRequest(signedJWT.serialize()),
+                     IDMResults.ACCESS_TOKEN_IS_INVALID);
+    }
+
+    @Test
+    public void authenticateBatchMixedTokens()
+    {
+        JSONArray accessTokens = new JSONArray();
+        accessTokens.add(login(ACTIVE).getAsString("accessToken"));
+        accessTokens.add("invalidToken");
+
+        JSONObject request = new JSONObject();
+        request.put("accessTokens", accessTokens);
+
+        post(AUTHENTICATE_BATCH_PATH, request)
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("results[0].result.code").isEqualTo(IDMResults.ACCESS_TOKEN_IS_VALID.code())
+            .jsonPath("results[0].claims.sub").isEqualTo(ACTIVE.getAsString("email"))
+            .jsonPath("results[1].result.code").isEqualTo(IDMResults.ACCESS_TOKEN_IS_INVALID.code())
+            .jsonPath("results[1].claims").doesNotExist();
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.util.BoundedCache;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Access tokens that already passed signature and claims verification, keyed by
+ * the SHA-256 of the serialized token so the cache never holds the tokens
+ * themselves.
+ * <p>
+ * An entry lives until its token's {@code exp} plus the clock skew the
+ * {@code JWTProcessor} tolerates; inside that window a hit can still answer
+ * "expired" without any crypto, after it a lookup misses and is verified again.
+ */
+@Component
+public class AccessTokenCache
+{
+    private static final long EXPIRED_GRACE_MILLIS = DefaultJWTClaimsVerifier.DEFAULT_MAX_CLOCK_SKEW_SECONDS * 1000L;
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final BoundedCache<TokenKey, VerifiedAccessToken> cache;
+
+    @Autowired
+    public AccessTokenCache(IDMServiceConfig serviceConfig)
+    {
+        int maxSize = serviceConfig.jwt().cacheMaxSize();
+
+        this.cache = maxSize > 0 ? new BoundedCache<>(maxSize) : null;
+    }
+
+    /**
+     * @return the verified token, or null if it has to be verified
+     */
+    public VerifiedAccessToken get(String jws)
+    {
+        return cache == null ? null : cache.get(TokenKey.of(jws));
+    }
+
+    public void put(String jws, JWTClaimsSet claims, Instant expireTime)
+    {
+        if (cache == null)
+            return;
+
+        cache.put(TokenKey.of(jws),
+                  new VerifiedAccessToken(claims, expireTime),
+                  expireTime.toEpochMilli() + EXPIRED_GRACE_MILLIS);
+    }
+
+    public void remove(String jws)
+    {
+        if (cache != null)
+            cache.remove(TokenKey.of(jws));
+    }
+
+    /**
+     * Forgets every verified token, e.g. once the key that signed some of them is
+     * no longer trusted.
+     */
+    public void clear()
+    {
+        if (cache != null)
+            cache.clear();
+    }
+
+    public long size()
+    {
+        return cache == null ? 0 : cache.size();
+    }
+
+    public long hits()
+    {
+        return cache == null ? 0 : cache.hits();
+    }
+
+    public long misses()
+    {
+        return cache == null ? 0 : cache.misses();
+    }
+
+    public long evictions()
+    {
+        return cache == null ? 0 : cache.evictions() + cache.expirations();
+    }
+
+    public static final class VerifiedAccessToken
+    {
+        private final JWTClaimsSet claims;
+        private final Instant      expireTime;
+
+        private VerifiedAccessToken(JWTClaimsSet claims, Instant expireTime)
+        {
+            this.claims = claims;
+            this.expireTime = expireTime;
+        }
+
+        public JWTClaimsSet claims()
+        {
+            return claims;
+        }
+
+        public Instant expireTime()
+        {
+            return expireTime;
+        }
+    }
+
+    private static final class TokenKey
+    {
+        private final byte[] digest;
+        private final int    hash;
+
+        private TokenKey(byte[] digest)
+        {
+            this.digest = digest;
+            // the digest is already uniformly distributed
+            this.hash = (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff);
+        }
+
+        private static TokenKey of(String jws)
+        {
+            return new TokenKey(SHA_256.get().digest(jws.getBytes(StandardCharsets.US_ASCII)));
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof TokenKey && Arrays.equals(digest, ((TokenKey) o).digest);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
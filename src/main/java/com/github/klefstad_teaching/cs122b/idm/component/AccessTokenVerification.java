@@ -0,0 +1,56 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+import com.nimbusds.jwt.JWTClaimsSet;
+
+/**
+ * The outcome of checking one access token: one of the access token results in
+ * {@link IDMResults}, and the claims when the token is valid.
+ */
+public final class AccessTokenVerification
+{
+    private static final AccessTokenVerification EXPIRED =
+        new AccessTokenVerification(IDMResults.ACCESS_TOKEN_IS_EXPIRED, null);
+    private static final AccessTokenVerification INVALID =
+        new AccessTokenVerification(IDMResults.ACCESS_TOKEN_IS_INVALID, null);
+
+    private final Result       result;
+    private final JWTClaimsSet claims;
+
+    private AccessTokenVerification(Result result, JWTClaimsSet claims)
+    {
+        this.result = result;
+        this.claims = claims;
+    }
+
+    static AccessTokenVerification valid(JWTClaimsSet claims)
+    {
+        return new AccessTokenVerification(IDMResults.ACCESS_TOKEN_IS_VALID, claims);
+    }
+
+    static AccessTokenVerification expired()
+    {
+        return EXPIRED;
+    }
+
+    static AccessTokenVerification invalid()
+    {
+        return INVALID;
+    }
+
+    public boolean isValid()
+    {
+        return claims != null;
+    }
+
+    public Result result()
+    {
+        return result;
+    }
+
+    public JWTClaimsSet claims()
+    {
+        return claims;
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs best effort database writes no request waits for, such as upgrading a
+ * password hash after a login, on a thread of their own. The hashing pool only
+ * hashes, so a slow MySQL never takes a core away from the next login.
+ * <p>
+ * One thread and a bounded queue: a write that does not fit is dropped, and
+ * whoever submitted it has to be able to try again later.
+ */
+@Component
+public class BackgroundWriteExecutor implements DisposableBean
+{
+    private static final String THREAD_NAME    = "idm-background-write";
+    private static final int    QUEUE_CAPACITY = 1024;
+
+    private final ThreadPoolExecutor executor;
+
+    public BackgroundWriteExecutor()
+    {
+        this.executor =
+            new ThreadPoolExecutor(
+                1, 1,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queues {@code task} if there is room, without failing the caller otherwise.
+     */
+    public boolean trySubmit(Runnable task)
+    {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public int queuedTasks()
+    {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdown();
+    }
+}
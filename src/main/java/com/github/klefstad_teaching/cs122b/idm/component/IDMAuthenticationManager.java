@@ -2,115 +2,191 @@ package com.github.klefstad_teaching.cs122b.idm.component;
 
 import com.github.klefstad_teaching.cs122b.core.error.ResultError;
 import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
 import com.github.klefstad_teaching.cs122b.idm.repo.IDMRepo;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.security.EncodedPassword;
+import com.github.klefstad_teaching.cs122b.idm.security.PasswordHasher;
+import com.github.klefstad_teaching.cs122b.idm.util.Futures;
+import com.github.klefstad_teaching.cs122b.idm.util.TokenUuid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.util.Base64;
-import java.util.UUID;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 public class IDMAuthenticationManager
 {
-    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
-    private static final String       HASH_FUNCTION = "PBKDF2WithHmacSHA512";
-
-    private static final int ITERATIONS     = 10000;
-    private static final int KEY_BIT_LENGTH = 512;
-
-    private static final int SALT_BYTE_LENGTH = 4;
+    private static final Logger LOG = LoggerFactory.getLogger(IDMAuthenticationManager.class);
 
     public final IDMRepo repo;
 
+    private final PasswordHashExecutor       hashExecutor;
+    private final BackgroundWriteExecutor    backgroundWriter;
+    private final PasswordHasher             passwordHasher;
+    private final RefreshTokenExpiryWriter   expiryWriter;
+    private final RefreshTokenInsertPipeline insertPipeline;
+    private final UserCache                  userCache;
+    private final boolean                    rehashOnLogin;
+
     @Autowired
-    public IDMAuthenticationManager(IDMRepo repo)
+    public IDMAuthenticationManager(IDMRepo repo,
+                                    PasswordHashExecutor hashExecutor,
+                                    BackgroundWriteExecutor backgroundWriter,
+                                    PasswordHasher passwordHasher,
+                                    RefreshTokenExpiryWriter expiryWriter,
+                                    RefreshTokenInsertPipeline insertPipeline,
+                                    UserCache userCache,
+                                    IDMServiceConfig serviceConfig)
     {
         this.repo = repo;
+        this.hashExecutor = hashExecutor;
+        this.backgroundWriter = backgroundWriter;
+        this.expiryWriter = expiryWriter;
+        this.insertPipeline = insertPipeline;
+        this.userCache = userCache;
+        this.passwordHasher = passwordHasher;
+        this.rehashOnLogin = serviceConfig.password().rehashOnLogin();
     }
 
-    private static byte[] hashPassword(final char[] password, String salt)
+    public User selectAndAuthenticateUser(String email, char[] password)
     {
-        return hashPassword(password, Base64.getDecoder().decode(salt));
+        return hashExecutor.await(selectAndAuthenticateUserAsync(email, password));
     }
 
-    private static byte[] hashPassword(final char[] password, final byte[] salt)
+    // the lookup stays on the caller, only the hash goes to the hashing pool
+    public CompletableFuture<User> selectAndAuthenticateUserAsync(String email, char[] password)
     {
-        try {
-            SecretKeyFactory skf = SecretKeyFactory.getInstance(HASH_FUNCTION);
+        User user = userCache.getByEmail(email, repo::searchByEmail);
 
-            PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, KEY_BIT_LENGTH);
+        EncodedPassword stored = EncodedPassword.ofUser(user);
 
-            SecretKey key = skf.generateSecret(spec);
+        CompletableFuture<Boolean> check = hashExecutor.submit(() -> passwordHasher.verifyStored(password, stored));
 
-            return key.getEncoded();
+        // a caller that gives up on the login also drops the queued hash
+        return Futures.cancelling(check.thenApply(matches -> {
+            if (! matches)
+                throw new ResultError(IDMResults.INVALID_CREDENTIALS);
 
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            throw new RuntimeException(e);
-        }
+            if (rehashOnLogin && passwordHasher.needsRehash(stored))
+                rehashInBackground(user, password);
+
+            return user;
+        }), check);
     }
 
-    private static byte[] genSalt()
+    // the hashing thread is done once it hands over, MySQL is written from the background writer
+    private void rehashInBackground(User user, char[] password)
     {
-        byte[] salt = new byte[SALT_BYTE_LENGTH];
-        SECURE_RANDOM.nextBytes(salt);
-        return salt;
+        hashExecutor.tryRehash(passwordHasher, user, password, encoded -> backgroundWriter.trySubmit(() -> {
+            try {
+                repo.updateUserPassword(user.getId(), encoded);
+                userCache.invalidate(user);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not store the rehashed password for user {}", user.getId(), e);
+            }
+        }));
     }
 
-    public User selectAndAuthenticateUser(String email, char[] password)
+    // the insert stays on the caller so a hashing thread never waits on MySQL
+    public void createAndInsertUser(String email, char[] password)
     {
-        User user = repo.searchByEmail(email);
+        EncodedPassword encoded = hashExecutor.await(hashExecutor.submit(() -> passwordHasher.hash(password)));
 
-        if (! user.getHashedPassword().equals(Base64.getEncoder().encodeToString(hashPassword(password, user.getSalt())))  )
-            throw new ResultError(IDMResults.INVALID_CREDENTIALS);
-        return user;
+        insertUser(email, encoded);
     }
 
-    public void createAndInsertUser(String email, char[] password)
+    // the insert runs on whichever thread completes the hash
+    public CompletableFuture<Void> createAndInsertUserAsync(String email, char[] password)
     {
-        byte[] salt = genSalt();
-        byte[] encodedPassword = hashPassword(password, salt);
-        String base64EncodedHashedPassword = Base64.getEncoder().encodeToString(encodedPassword);
-        String base64EncodedHashedSalt = Base64.getEncoder().encodeToString(salt);
+        CompletableFuture<EncodedPassword> hash = hashExecutor.submit(() -> passwordHasher.hash(password));
 
-//        User aUser= new User();
-        repo.insertUser(email, 1, base64EncodedHashedSalt, base64EncodedHashedPassword);
+        return Futures.cancelling(hash.thenAccept(encoded -> insertUser(email, encoded)), hash);
     }
 
-    public RefreshToken verifyRefreshToken(String token)
+    // the salt lives inside the encoded hash, the salt column is only read for legacy rows
+    private void insertUser(String email, EncodedPassword encoded)
     {
-        if (token.length() != 36)
-            throw new ResultError(IDMResults.REFRESH_TOKEN_HAS_INVALID_LENGTH);
-        try{
-            UUID.fromString(token);
-        } catch (IllegalArgumentException e){
-            throw new ResultError(IDMResults.REFRESH_TOKEN_HAS_INVALID_FORMAT);
+        try {
+            repo.insertUser(email, 1, null, encoded.encode());
+        } finally {
+            userCache.invalidate(null, email);
         }
+    }
 
-        return this.repo.searchByRereshToken(token);
+    public void validateRefreshToken(String token)
+    {
+        TokenUuid.validateRefreshToken(token);
     }
 
-    public void updateRefreshTokenExpireTime(RefreshToken token)
+    public RefreshToken verifyRefreshToken(String token)
     {
-        this.repo.updateRefreshToken(token);
+        validateRefreshToken(token);
+
+        RefreshToken refreshToken = this.repo.searchByRereshToken(token);
+
+        // the row may not have caught up with an extension we already handed out
+        Instant pendingExpireTime = expiryWriter.pendingExpireTime(refreshToken.getId());
+        if (pendingExpireTime != null && pendingExpireTime.isAfter(refreshToken.getExpireTime()))
+            refreshToken.setExpireTime(pendingExpireTime);
+
+        return refreshToken;
+    }
+
+    /**
+     * @return the token's user if the token was active and its expiry was moved to
+     * {@code newExpireTime}, null if the caller has to find out why not
+     */
+    public User extendRefreshToken(String token, Instant now, Instant newExpireTime)
+    {
+        if (! expiryWriter.enabled())
+            return this.repo.extendRefreshToken(token, now, newExpireTime);
+
+        // the same conditions as the conditional UPDATE, with the write deferred
+        RefreshToken refreshToken = verifyRefreshToken(token);
+
+        if (refreshToken.getTokenStatus() != TokenStatus.ACTIVE ||
+            now.isAfter(refreshToken.getExpireTime()) ||
+            newExpireTime.isAfter(refreshToken.getMaxLifeTime()))
+            return null;
+
+        expiryWriter.extend(refreshToken.getId(), newExpireTime);
+        return getUserFromRefreshToken(refreshToken);
+    }
+
+    /**
+     * @return false if another request revoked {@code token} first
+     */
+    public boolean rotateRefreshToken(RefreshToken token, RefreshToken replacement)
+    {
+        expiryWriter.cancel(token.getId());
+        return this.repo.rotateRefreshToken(token, replacement);
+    }
+
+    /**
+     * Returns once {@code token} is committed, sharing the commit with any logins
+     * that are inserting at the same time.
+     */
+    public void insertRefreshToken(RefreshToken token)
+    {
+        insertPipeline.insertAndWait(token);
     }
 
     public void expireRefreshToken(RefreshToken token)
     {
+        expiryWriter.cancel(token.getId());
         token.setTokenStatus(TokenStatus.fromId(2));
         this.repo.updateRefreshToken(token);
     }
 
     public void revokeRefreshToken(RefreshToken token)
     {
+        expiryWriter.cancel(token.getId());
         token.setTokenStatus(TokenStatus.fromId(3));
         this.repo.updateRefreshToken(token);
     }
@@ -118,6 +194,6 @@ public class IDMAuthenticationManager
     public User getUserFromRefreshToken(RefreshToken refreshToken)
     {
         Integer userId = refreshToken.getUserId();
-        return this.repo.searchById(userId);
+        return userCache.getById(userId, this.repo::searchById);
     }
 }
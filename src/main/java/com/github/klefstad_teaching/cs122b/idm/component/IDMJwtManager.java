@@ -6,27 +6,56 @@ import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
 import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.security.SigningKeys;
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
 import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.SecurityContext;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.JWTClaimsSetVerifier;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 // line 91 ??
 @Component
-public class IDMJwtManager
+public class IDMJwtManager implements DisposableBean
 {
-    private final JWTManager jwtManager;
+    private static final String TIMER         = "idm.jwt";
+    private static final String THREAD_PREFIX = "idm-jwt-verify-";
+
+    private final JWTManager                            jwtManager;
+    private final AccessTokenCache                      accessTokenCache;
+    private final SigningKeyRing                        keyRing;
+    private final JWTClaimsSetVerifier<SecurityContext> claimsVerifier;
+    private final boolean                               verifyOnSign;
+    private final int                                   batchMaxSize;
+    private final Timer                                 signTimer;
+    private final Timer                                 verifyTimer;
+    private final ThreadPoolExecutor                    verifyExecutor;
 
     @Autowired
-    public IDMJwtManager(IDMServiceConfig serviceConfig)
+    public IDMJwtManager(IDMServiceConfig serviceConfig, AccessTokenCache accessTokenCache, MeterRegistry registry)
     {
         this.jwtManager =
             new JWTManager.Builder()
@@ -35,68 +64,256 @@ public class IDMJwtManager
                 .maxRefreshTokenLifeTime(serviceConfig.maxRefreshTokenLifeTime())
                 .refreshTokenExpire(serviceConfig.refreshTokenExpire())
                 .build();
+        this.accessTokenCache = accessTokenCache;
+        this.keyRing = keyRing(serviceConfig, jwtManager, accessTokenCache);
+        // the signature is checked against the ring, only the claims rules come from the core processor
+        this.claimsVerifier = jwtManager.getJwtProcessor().getJWTClaimsSetVerifier();
+        this.verifyOnSign = serviceConfig.jwt().verifyOnSign();
+        this.batchMaxSize = serviceConfig.jwt().batchMaxSize();
+
+        // verify only counts the signature checks, tokens served from the cache skip it
+        this.signTimer = Timer.builder(TIMER).description("JWS signing and verification")
+                              .tag("operation", "sign").register(registry);
+        this.verifyTimer = Timer.builder(TIMER).description("JWS signing and verification")
+                                .tag("operation", "verify").register(registry);
+        this.verifyExecutor = verifyExecutor(batchMaxSize);
+    }
+
+    // one thread per core for batch verification, a full queue runs the check on the caller
+    private static ThreadPoolExecutor verifyExecutor(int queueCapacity)
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        return new ThreadPoolExecutor(
+            threads, threads,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+            runnable -> {
+                Thread thread = new Thread(runnable, THREAD_PREFIX + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // a key ring file replaces the single classpath key, which is still loaded by JWTManager
+    private static SigningKeyRing keyRing(IDMServiceConfig serviceConfig,
+                                          JWTManager jwtManager,
+                                          AccessTokenCache accessTokenCache)
+    {
+        IDMServiceConfig.KeyRing config = serviceConfig.keyRing();
+        boolean fastEncoder = serviceConfig.jwt().fastEncoder();
+
+        if (config.file() != null)
+            return new SigningKeyRing(Paths.get(config.file()), config.reloadInterval(), fastEncoder,
+                                      accessTokenCache::clear);
 
+        try {
+            return new SigningKeyRing(SigningKeys.of(Collections.singletonList(jwtManager.getEcKey()), fastEncoder));
+        } catch (JOSEException e) {
+            throw new IllegalStateException("Could not use key " + serviceConfig.keyFileName(), e);
+        }
     }
 
-    private SignedJWT buildAndSignJWT(JWTClaimsSet claimsSet)
+    private SignedJWT buildAndSignJWT(SigningKeys keys, JWTClaimsSet claimsSet)
         throws JOSEException
     {
-        JWSHeader header =
-                new JWSHeader.Builder(JWTManager.JWS_ALGORITHM)
-                        .keyID(jwtManager.getEcKey().getKeyID())
-                        .type(JWTManager.JWS_TYPE)
-                        .build();
-        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
-        signedJWT.sign(jwtManager.getSigner());
+        SignedJWT signedJWT = new SignedJWT(keys.header(), claimsSet);
+
+        long start = System.nanoTime();
+        signedJWT.sign(keys.signer());
+        signTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
         return signedJWT;
     }
 
+    /**
+     * Checks the header's {@code typ}, the signature with the key {@code keys}
+     * has for the token's {@code kid}, then the claims.
+     */
+    private JWTClaimsSet verifyJWT(SignedJWT jwt, SigningKeys keys)
+        throws JOSEException, BadJOSEException, ParseException
+    {
+        if (! JWTManager.JWS_TYPE.equals(jwt.getHeader().getType()))
+            throw new BadJOSEException("Not an access token, typ is " + jwt.getHeader().getType());
+
+        JWSVerifier verifier = keys.verifier(jwt.getHeader());
 
+        if (verifier == null)
+            throw new BadJOSEException("Not signed by a key in the ring: " + jwt.getHeader().getKeyID());
+        if (! jwt.verify(verifier))
+            throw new BadJOSEException("Invalid signature");
 
-    private void verifyJWT(SignedJWT jwt)
+        JWTClaimsSet claimsSet = jwt.getJWTClaimsSet();
+        claimsVerifier.verify(claimsSet, null);
+        return claimsSet;
+    }
+
+    // verify-on-sign, a token we just issued has to pass our own checks
+    private void verifyIssued(SignedJWT jwt, SigningKeys keys)
         throws JOSEException, BadJOSEException
     {
-        jwt.verify(jwtManager.getVerifier());
-        jwtManager.getJwtProcessor().process(jwt, null);
-
+        try {
+            verifyJWT(jwt, keys);
+        } catch (ParseException e) {
+            throw new BadJOSEException("Issued an access token that does not parse", e);
+        }
     }
 
 
 
     public String buildAccessToken(User user) throws JOSEException, BadJOSEException {
+        Instant now = Instant.now();
+        Instant expireTime = now.plus(this.jwtManager.getAccessTokenExpire());
+
+        // one generation of keys for the whole token, even if the ring reloads meanwhile
+        SigningKeys keys = keyRing.current();
+
+        if (keys.encoder() != null)
+            return encodeAccessToken(keys, user, now, expireTime);
+
         JWTClaimsSet claimsSet =
                 new JWTClaimsSet.Builder()
                         .subject(user.getEmail())
-                        .expirationTime(
-                                Date.from(
-                                        Instant.now().plus(this.jwtManager.getAccessTokenExpire())))
+                        .expirationTime(Date.from(expireTime))
                         .claim(JWTManager.CLAIM_ID, user.getId())
-                        .claim(JWTManager.CLAIM_ROLES, user.getRoles())
-                        .issueTime(Date.from(Instant.now()))
+                        .claim(JWTManager.CLAIM_ROLES, Role.names(user.getRoleMask()))
+                        .issueTime(Date.from(now))
                         .build();
-        SignedJWT signedJWT = buildAndSignJWT(claimsSet);
-        verifyJWT(signedJWT);
+        SignedJWT signedJWT = buildAndSignJWT(keys, claimsSet);
+        // we just signed it ourselves, checking it again is only useful to debug the key
+        if (verifyOnSign)
+            verifyIssued(signedJWT, keys);
         // return to user serialize, where put this, where to return?
         String serialized = signedJWT.serialize();
         return serialized;
     }
 
-    public void verifyAccessToken(String jws)
+    // the same claims as the JWTClaimsSet path, written and signed without the intermediate objects
+    private String encodeAccessToken(SigningKeys keys, User user, Instant now, Instant expireTime)
+        throws JOSEException, BadJOSEException
+    {
+        long start = System.nanoTime();
+        String serialized = keys.encoder().encode(user.getEmail(),
+                                           user.getId(),
+                                           user.getRoleMask(),
+                                           now.getEpochSecond(),
+                                           expireTime.getEpochSecond());
+        signTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        if (verifyOnSign) {
+            try {
+                verifyIssued(SignedJWT.parse(serialized), keys);
+            } catch (ParseException e) {
+                throw new BadJOSEException("Issued an access token that does not parse", e);
+            }
+        }
+
+        return serialized;
+    }
+
+    public JWTClaimsSet verifyAccessToken(String jws)
+    {
+        AccessTokenVerification verification = checkAccessToken(jws);
+
+        if (! verification.isValid())
+            throw new ResultError(verification.result());
+
+        return verification.claims();
+    }
+
+    /**
+     * Checks every token in parallel on a pool sized to the cores, results are in
+     * the same order as {@code tokens}. The pool is this manager's own, so a batch
+     * never competes with other users of the common fork join pool.
+     */
+    public List<AccessTokenVerification> verifyAccessTokens(List<String> tokens)
+    {
+        checkBatchSize(tokens);
+
+        if (tokens.size() == 1)
+            return Collections.singletonList(checkAccessToken(tokens.get(0)));
+
+        List<CompletableFuture<AccessTokenVerification>> checks = new ArrayList<>(tokens.size());
+        for (String token : tokens)
+            checks.add(CompletableFuture.supplyAsync(() -> checkAccessToken(token), verifyExecutor));
+
+        List<AccessTokenVerification> verifications = new ArrayList<>(tokens.size());
+        for (CompletableFuture<AccessTokenVerification> check : checks)
+            verifications.add(check.join());
+
+        return verifications;
+    }
+
+    public void checkBatchSize(List<String> tokens)
+    {
+        if (tokens.size() > batchMaxSize)
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                                              "At most " + batchMaxSize + " access tokens per request");
+    }
+
+    public AccessTokenVerification checkAccessToken(String jws)
     {
+        AccessTokenVerification known = checkKnownAccessToken(jws);
 
+        if (known != null)
+            return known;
+
+        JWTClaimsSet claimsSet;
+        SigningKeys  keys = keyRing.current();
+
+        long start = System.nanoTime();
         try {
-            SignedJWT rebuiltSignedJwt = SignedJWT.parse(jws);
-            rebuiltSignedJwt.verify(jwtManager.getVerifier());
-            jwtManager.getJwtProcessor().process(rebuiltSignedJwt, null);
-            Date expireTime = rebuiltSignedJwt.getJWTClaimsSet().getExpirationTime();
-            if (Instant.now().isAfter(expireTime.toInstant()))
-                throw new ResultError(IDMResults.ACCESS_TOKEN_IS_EXPIRED);
+            claimsSet = verifyJWT(SignedJWT.parse(jws), keys);
         } catch (IllegalStateException | JOSEException | BadJOSEException | ParseException e) {
 //            e.printStackTrace();
-            throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+            return AccessTokenVerification.invalid();
+        } finally {
+            verifyTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
 
+        if (claimsSet.getExpirationTime() == null)
+            return AccessTokenVerification.invalid();
+
+        Instant expireTime = claimsSet.getExpirationTime().toInstant();
+
+        accessTokenCache.put(jws, claimsSet, expireTime);
+
+        // the ring moved on while we verified, its clear may have run before our
+        // put, so do not leave a token of a possibly removed key in the cache
+        if (keyRing.current() != keys)
+            accessTokenCache.remove(jws);
+
+        if (Instant.now().isAfter(expireTime))
+            return AccessTokenVerification.expired();
+
+        return AccessTokenVerification.valid(claimsSet);
+    }
+
+    /**
+     * The result for {@code jws} when it needs no signature check, a missing token
+     * or one already in the cache, otherwise {@code null}. Cheap enough for a
+     * caller that must not block, such as an event loop.
+     */
+    public AccessTokenVerification checkKnownAccessToken(String jws)
+    {
+        if (jws == null)
+            return AccessTokenVerification.invalid();
+
+        // a token we already verified needs no crypto, only the expiry check
+        AccessTokenCache.VerifiedAccessToken cached = accessTokenCache.get(jws);
+
+        if (cached == null)
+            return null;
+
+        if (Instant.now().isAfter(cached.expireTime()))
+            return AccessTokenVerification.expired();
+
+        return AccessTokenVerification.valid(cached.claims());
     }
+
      //chang User to user_id, only need user_id or we need retrieve user DB to get whole user object
     public RefreshToken buildRefreshToken(Integer user_id)
     {
@@ -119,20 +336,25 @@ public class IDMJwtManager
 
     }
 
-    // what this function for ??
-    public boolean needsRefresh(RefreshToken refreshToken)
+    public Instant refreshTokenExpireTime(Instant now)
     {
-        return false;
+        return now.plus(this.jwtManager.getRefreshTokenExpire());
     }
 
-    public void updateRefreshTokenExpireTime(RefreshToken refreshToken)
+    public UUID generateUUID()
     {
-        refreshToken.setExpireTime(
-                Instant.now().plus(this.jwtManager.getRefreshTokenExpire()));
+        return UUID.randomUUID();
     }
 
-    public UUID generateUUID()
+    public SigningKeyRing keyRing()
     {
-        return UUID.randomUUID();
+        return keyRing;
+    }
+
+    @Override
+    public void destroy()
+    {
+        verifyExecutor.shutdown();
+        keyRing.close();
     }
 }
@@ -0,0 +1,146 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the counters the components already keep (caches, connection pool,
+ * hashing queue, token write pipelines, the reaper and the signing key ring) as
+ * meters. Everything is read at scrape time, nothing here touches a request.
+ */
+@Component
+public class IDMMetrics implements MeterBinder
+{
+    private final AccessTokenCache           accessTokenCache;
+    private final UserCache                  userCache;
+    private final PoolMetrics                poolMetrics;
+    private final PasswordHashExecutor       hashExecutor;
+    private final RefreshTokenInsertPipeline insertPipeline;
+    private final RefreshTokenExpiryWriter   expiryWriter;
+    private final RefreshTokenReaper         reaper;
+    private final SigningKeyRing             keyRing;
+
+    @Autowired
+    public IDMMetrics(AccessTokenCache accessTokenCache,
+                      UserCache userCache,
+                      PoolMetrics poolMetrics,
+                      PasswordHashExecutor hashExecutor,
+                      RefreshTokenInsertPipeline insertPipeline,
+                      RefreshTokenExpiryWriter expiryWriter,
+                      RefreshTokenReaper reaper,
+                      IDMJwtManager jwtManager)
+    {
+        this.accessTokenCache = accessTokenCache;
+        this.userCache = userCache;
+        this.poolMetrics = poolMetrics;
+        this.hashExecutor = hashExecutor;
+        this.insertPipeline = insertPipeline;
+        this.expiryWriter = expiryWriter;
+        this.reaper = reaper;
+        this.keyRing = jwtManager.keyRing();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry)
+    {
+        bindCache(registry, "access_token", accessTokenCache,
+                  AccessTokenCache::size, AccessTokenCache::hits, AccessTokenCache::misses, AccessTokenCache::evictions);
+        bindCache(registry, "user", userCache,
+                  UserCache::size, UserCache::hits, UserCache::misses, UserCache::evictions);
+
+        bindPool(registry);
+
+        Gauge.builder("idm.hashing.queued", hashExecutor, PasswordHashExecutor::queuedTasks)
+             .description("Password hashes waiting for a hashing thread")
+             .register(registry);
+        Gauge.builder("idm.hashing.active", hashExecutor, PasswordHashExecutor::activeThreads)
+             .description("Hashing threads currently busy")
+             .register(registry);
+
+        Gauge.builder("idm.refresh_token.insert.queued", insertPipeline, RefreshTokenInsertPipeline::queuedInserts)
+             .description("New refresh tokens waiting for the batched insert")
+             .register(registry);
+        Gauge.builder("idm.refresh_token.expiry.pending", expiryWriter, RefreshTokenExpiryWriter::pendingCount)
+             .description("Extended expiry times not yet written back")
+             .register(registry);
+
+        FunctionCounter.builder("idm.reaper.rows", reaper, RefreshTokenReaper::rowsReaped)
+                       .description("Dead refresh tokens deleted")
+                       .register(registry);
+        FunctionCounter.builder("idm.reaper.runs", reaper, RefreshTokenReaper::runs)
+                       .register(registry);
+        Gauge.builder("idm.reaper.last_run.rows", reaper, RefreshTokenReaper::lastRunRows)
+             .register(registry);
+        TimeGauge.builder("idm.reaper.lag", reaper, TimeUnit.SECONDS, r -> r.lag().getSeconds())
+                 .description("Time since the reaper last got through every reapable row")
+                 .register(registry);
+
+        Gauge.builder("idm.jwt.keys", keyRing, ring -> ring.current().keyIds().size())
+             .description("Keys whose access tokens are accepted, including the signing key")
+             .register(registry);
+        FunctionCounter.builder("idm.jwt.key_reloads", keyRing, SigningKeyRing::reloads)
+                       .description("Key ring files loaded after startup")
+                       .register(registry);
+    }
+
+    private static <T> void bindCache(MeterRegistry registry,
+                                      String cache,
+                                      T source,
+                                      ToDoubleFunction<T> size,
+                                      ToDoubleFunction<T> hits,
+                                      ToDoubleFunction<T> misses,
+                                      ToDoubleFunction<T> evictions)
+    {
+        Gauge.builder("idm.cache.size", source, size)
+             .tag("cache", cache)
+             .register(registry);
+        FunctionCounter.builder("idm.cache.requests", source, hits)
+                       .tag("cache", cache).tag("result", "hit")
+                       .register(registry);
+        FunctionCounter.builder("idm.cache.requests", source, misses)
+                       .tag("cache", cache).tag("result", "miss")
+                       .register(registry);
+        FunctionCounter.builder("idm.cache.evictions", source, evictions)
+                       .tag("cache", cache)
+                       .register(registry);
+    }
+
+    private void bindPool(MeterRegistry registry)
+    {
+        bindConnections(registry, "active", PoolMetrics::active);
+        bindConnections(registry, "idle", PoolMetrics::idle);
+        bindConnections(registry, "pending", PoolMetrics::pending);
+        bindConnections(registry, "total", PoolMetrics::total);
+
+        FunctionTimer.builder("idm.pool.acquire", poolMetrics,
+                              PoolMetrics::acquires, PoolMetrics::acquireNanos, TimeUnit.NANOSECONDS)
+                     .description("Time spent waiting for a pooled connection")
+                     .register(registry);
+        // reset by every read, so this is the slowest acquire between two scrapes
+        TimeGauge.builder("idm.pool.acquire.max", poolMetrics, TimeUnit.NANOSECONDS, PoolMetrics::takeMaxAcquireNanos)
+                 .register(registry);
+        FunctionCounter.builder("idm.pool.timeouts", poolMetrics, PoolMetrics::timeouts)
+                       .description("Connection requests that gave up after the connection timeout")
+                       .register(registry);
+        FunctionCounter.builder("idm.pool.usage", poolMetrics, PoolMetrics::usageMillis)
+                       .baseUnit("milliseconds")
+                       .description("Total time connections were borrowed")
+                       .register(registry);
+    }
+
+    private void bindConnections(MeterRegistry registry, String state, ToDoubleFunction<PoolMetrics> value)
+    {
+        Gauge.builder("idm.pool.connections", poolMetrics, value)
+             .tag("state", state)
+             .register(registry);
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.security.PasswordHasher;
+import com.github.klefstad_teaching.cs122b.idm.util.Futures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs password hashing on a fixed, core sized pool so that PBKDF2 work never
+ * occupies the servlet threads that serve /refresh and /authenticate.
+ * <p>
+ * The queue in front of the pool is bounded, once it is full new work is
+ * rejected right away with a 503 instead of piling up behind a login storm.
+ */
+@Component
+public class PasswordHashExecutor implements DisposableBean
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PasswordHashExecutor.class);
+
+    private static final String THREAD_PREFIX = "idm-hash-";
+
+    private final ThreadPoolExecutor executor;
+    private final long               awaitTimeoutMillis;
+
+    @Autowired
+    public PasswordHashExecutor(IDMServiceConfig serviceConfig)
+    {
+        int threads = serviceConfig.hashing().threads();
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.executor =
+            new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(serviceConfig.hashing().queueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, THREAD_PREFIX + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.executor.prestartAllCoreThreads();
+        this.awaitTimeoutMillis = serviceConfig.hashing().awaitTimeout().toMillis();
+    }
+
+    /**
+     * @return a future failed with a 503 if the queue is full, never throws
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task)
+    {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(
+                new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                                            "Too many credential checks in progress, try again later"));
+        }
+    }
+
+    /**
+     * Queues {@code task} if there is room, without failing the caller otherwise.
+     */
+    public boolean trySubmit(Runnable task)
+    {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Best effort: hashes a copy of {@code password} with the current settings of
+     * {@code hasher} on this pool and hands the encoded hash to {@code store}. The
+     * copy is zeroed either way. A full queue drops the rehash, the user's next
+     * login tries again.
+     */
+    public void tryRehash(PasswordHasher hasher, User user, char[] password, Consumer<String> store)
+    {
+        char[] copy = password.clone();
+
+        boolean accepted = trySubmit(() -> {
+            String encoded;
+            try {
+                encoded = hasher.hash(copy).encode();
+            } catch (RuntimeException e) {
+                LOG.warn("Could not rehash password for user {}", user.getId(), e);
+                return;
+            } finally {
+                Arrays.fill(copy, '\0');
+            }
+
+            store.accept(encoded);
+        });
+
+        if (! accepted)
+            Arrays.fill(copy, '\0');
+    }
+
+    /**
+     * Waits up to {@code idm.hashing.await-timeout} for a future produced by this
+     * executor, see {@link Futures#await}. A request that waits longer is answered
+     * with a 503 rather than holding its thread, and its hash is dropped from the
+     * queue so the pool does not spend a core on a client already turned away.
+     */
+    public <T> T await(CompletableFuture<T> future)
+    {
+        return Futures.await(future, awaitTimeoutMillis, "Timed out waiting for a credential check, try again later");
+    }
+
+    public int queuedTasks()
+    {
+        return executor.getQueue().size();
+    }
+
+    public int activeThreads()
+    {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live numbers for the IDM connection pool. Hikari reports every acquire and
+ * timeout here; the connection counts come from the pool's own {@link PoolStats},
+ * which Hikari refreshes at most once a second.
+ * <p>
+ * {@code pending} is the number of threads waiting for a connection, the first
+ * thing to look at when /login latency spikes.
+ */
+@Component
+public class PoolMetrics implements MetricsTrackerFactory
+{
+    private volatile PoolStats poolStats;
+
+    private final LongAdder  acquires        = new LongAdder();
+    private final LongAdder  acquireNanos    = new LongAdder();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final LongAdder  timeouts        = new LongAdder();
+    private final LongAdder  usageMillis     = new LongAdder();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats)
+    {
+        this.poolStats = poolStats;
+        return new Tracker();
+    }
+
+    public int active()
+    {
+        PoolStats stats = poolStats;
+        return stats == null ? 0 : stats.getActiveConnections();
+    }
+
+    public int idle()
+    {
+        PoolStats stats = poolStats;
+        return stats == null ? 0 : stats.getIdleConnections();
+    }
+
+    public int pending()
+    {
+        PoolStats stats = poolStats;
+        return stats == null ? 0 : stats.getPendingThreads();
+    }
+
+    public int total()
+    {
+        PoolStats stats = poolStats;
+        return stats == null ? 0 : stats.getTotalConnections();
+    }
+
+    public long acquires()
+    {
+        return acquires.sum();
+    }
+
+    public long acquireNanos()
+    {
+        return acquireNanos.sum();
+    }
+
+    /**
+     * @return the slowest acquire since the previous call
+     */
+    public long takeMaxAcquireNanos()
+    {
+        return maxAcquireNanos.getAndSet(0);
+    }
+
+    public long timeouts()
+    {
+        return timeouts.sum();
+    }
+
+    public long usageMillis()
+    {
+        return usageMillis.sum();
+    }
+
+    private final class Tracker implements IMetricsTracker
+    {
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos)
+        {
+            acquires.increment();
+            acquireNanos.add(elapsedAcquiredNanos);
+            maxAcquireNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+        }
+
+        @Override
+        public void recordConnectionUsageMillis(long elapsedBorrowedMillis)
+        {
+            usageMillis.add(elapsedBorrowedMillis);
+        }
+
+        @Override
+        public void recordConnectionTimeout()
+        {
+            timeouts.increment();
+        }
+    }
+}
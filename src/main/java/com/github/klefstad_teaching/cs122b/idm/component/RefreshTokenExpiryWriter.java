@@ -0,0 +1,140 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.IDMRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind for sliding refresh token expiry. Extensions are coalesced per
+ * token in memory and written in one JDBC batch every {@code flushInterval}, or
+ * as soon as {@code flushSize} tokens are waiting.
+ * <p>
+ * A pending extension stays visible through {@link #pendingExpireTime} until its
+ * batch has committed, so a token never looks expired in between. Extensions
+ * still in memory when the process dies are lost, the affected tokens then
+ * expire at their last written time and those users log in again. Status
+ * changes never go through here.
+ */
+@Component
+public class RefreshTokenExpiryWriter implements DisposableBean
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshTokenExpiryWriter.class);
+
+    private final IDMRepo                           repo;
+    private final boolean                           enabled;
+    private final int                               flushSize;
+    private final ConcurrentHashMap<Integer, Instant> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean                     flushQueued = new AtomicBoolean();
+    private final ScheduledExecutorService          scheduler;
+
+    @Autowired
+    public RefreshTokenExpiryWriter(IDMRepo repo, IDMServiceConfig serviceConfig)
+    {
+        IDMServiceConfig.WriteBehind writeBehind = serviceConfig.writeBehind();
+
+        this.repo = repo;
+        this.enabled = writeBehind.enabled();
+        this.flushSize = writeBehind.flushSize();
+
+        if (! enabled) {
+            this.scheduler = null;
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idm-expiry-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long intervalMillis = writeBehind.flushInterval().toMillis();
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean enabled()
+    {
+        return enabled;
+    }
+
+    public void extend(Integer tokenId, Instant expireTime)
+    {
+        pending.merge(tokenId, expireTime, (current, next) -> next.isAfter(current) ? next : current);
+
+        if (pending.size() >= flushSize && flushQueued.compareAndSet(false, true))
+            scheduler.execute(this::flushQuietly);
+    }
+
+    /**
+     * @return the newest expiry not yet written for {@code tokenId}, or null
+     */
+    public Instant pendingExpireTime(Integer tokenId)
+    {
+        return pending.get(tokenId);
+    }
+
+    // called on status changes, those are written right away
+    public void cancel(Integer tokenId)
+    {
+        pending.remove(tokenId);
+    }
+
+    public int pendingCount()
+    {
+        return pending.size();
+    }
+
+    public synchronized void flush()
+    {
+        flushQueued.set(false);
+
+        if (pending.isEmpty())
+            return;
+
+        // ordered by id so concurrent flushes from several nodes lock rows in the same order
+        Map<Integer, Instant> batch = new TreeMap<>(pending);
+
+        repo.updateRefreshTokenExpireTimes(batch);
+
+        // an entry extended again while we were writing stays for the next flush
+        batch.forEach(pending::remove);
+    }
+
+    private void flushQuietly()
+    {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.warn("Could not flush {} refresh token expire times, retrying next interval", pending.size(), e);
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (scheduler == null)
+            return;
+
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // last chance to keep the extensions we already promised
+        flushQuietly();
+    }
+}
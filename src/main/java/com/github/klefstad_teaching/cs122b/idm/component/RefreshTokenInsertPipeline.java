@@ -0,0 +1,239 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.IDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.util.Futures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for refresh token inserts. Logins queue their token and a single
+ * writer thread inserts whatever has piled up as one JDBC batch in one
+ * transaction, so concurrent logins share a commit instead of paying for one
+ * each. Batches form naturally while the previous one commits, there is no
+ * extra wait when the service is idle.
+ * <p>
+ * If a batch fails its tokens are retried one by one, so a single bad row only
+ * fails its own login.
+ */
+@Component
+public class RefreshTokenInsertPipeline implements DisposableBean
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshTokenInsertPipeline.class);
+
+    private static final long POLL_MILLIS = 100;
+
+    private final IDMRepo                      repo;
+    private final int                          batchMaxSize;
+    private final long                         awaitTimeoutMillis;
+    private final BlockingQueue<PendingInsert> queue;
+    private final Thread                       writer;
+
+    private volatile boolean running = true;
+
+    @Autowired
+    public RefreshTokenInsertPipeline(IDMRepo repo, IDMServiceConfig serviceConfig)
+    {
+        IDMServiceConfig.TokenInsert tokenInsert = serviceConfig.tokenInsert();
+
+        this.repo = repo;
+        this.batchMaxSize = tokenInsert.batchMaxSize();
+        this.awaitTimeoutMillis = tokenInsert.awaitTimeout().toMillis();
+
+        if (! tokenInsert.enabled()) {
+            this.queue = null;
+            this.writer = null;
+            return;
+        }
+
+        this.queue = new ArrayBlockingQueue<>(tokenInsert.queueCapacity());
+        this.writer = new Thread(this::drain, "idm-token-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return a future completed once {@code refreshToken} has been committed
+     */
+    public CompletableFuture<Void> insert(RefreshToken refreshToken)
+    {
+        if (queue == null) {
+            repo.insertRefreshToken(refreshToken);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return enqueue(refreshToken).future;
+    }
+
+    /**
+     * Inserts {@code refreshToken} and waits up to {@code idm.token-insert.await-timeout}
+     * for its commit, rethrowing whatever the insert threw. A login that waits
+     * longer is answered with a 503, and its token is taken back unless the
+     * writer is already writing it, so no session is stored that nobody got.
+     */
+    public void insertAndWait(RefreshToken refreshToken)
+    {
+        if (queue == null) {
+            repo.insertRefreshToken(refreshToken);
+            return;
+        }
+
+        PendingInsert pending = enqueue(refreshToken);
+
+        try {
+            Futures.await(pending.future, awaitTimeoutMillis, "Timed out storing the session, try again later");
+        } finally {
+            // cancelled by the timeout, the writer also skips it if it already took it
+            if (pending.future.isCancelled())
+                queue.remove(pending);
+        }
+    }
+
+    private PendingInsert enqueue(RefreshToken refreshToken)
+    {
+        PendingInsert pending = new PendingInsert(refreshToken);
+
+        if (! running || ! queue.offer(pending)) {
+            pending.future.completeExceptionally(
+                new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                                            "Too many logins in progress, try again later"));
+            return pending;
+        }
+
+        // destroy() clears running before its last drain, so if it is still set
+        // here that drain will see this entry; otherwise take it back ourselves
+        if (! running && queue.remove(pending))
+            pending.future.completeExceptionally(shuttingDown());
+
+        return pending;
+    }
+
+    private static ResponseStatusException shuttingDown()
+    {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shutting down, try again later");
+    }
+
+    public int queuedInserts()
+    {
+        return queue == null ? 0 : queue.size();
+    }
+
+    private void drain()
+    {
+        List<PendingInsert> batch = new ArrayList<>(batchMaxSize);
+
+        while (running) {
+            PendingInsert first;
+            try {
+                first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (first == null)
+                continue;
+
+            batch.add(first);
+            queue.drainTo(batch, batchMaxSize - 1);
+            writeOrFail(batch);
+            batch.clear();
+        }
+
+        // shutting down, write what is still queued
+        while (queue.drainTo(batch, batchMaxSize) > 0) {
+            writeOrFail(batch);
+            batch.clear();
+        }
+    }
+
+    // the writer must outlive any one batch, whatever it throws
+    private void writeOrFail(List<PendingInsert> batch)
+    {
+        try {
+            write(batch);
+        } catch (Throwable t) {
+            LOG.error("Writing {} refresh tokens failed", batch.size(), t);
+            for (PendingInsert pending : batch)
+                pending.future.completeExceptionally(t);
+        }
+    }
+
+    private void write(List<PendingInsert> batch)
+    {
+        // a login that gave up waiting between the drain and here is not written
+        batch.removeIf(pending -> pending.future.isCancelled());
+        if (batch.isEmpty())
+            return;
+
+        List<RefreshToken> tokens = new ArrayList<>(batch.size());
+        for (PendingInsert pending : batch)
+            tokens.add(pending.refreshToken);
+
+        try {
+            repo.insertRefreshTokens(tokens);
+            for (PendingInsert pending : batch)
+                pending.future.complete(null);
+            return;
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+            LOG.warn("Batch insert of {} refresh tokens failed, retrying them one by one", batch.size(), e);
+        }
+
+        for (PendingInsert pending : batch) {
+            try {
+                repo.insertRefreshToken(pending.refreshToken);
+                pending.future.complete(null);
+            } catch (RuntimeException e) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException
+    {
+        if (writer == null)
+            return;
+
+        // the logins waiting on it give up after the same time
+        running = false;
+        writer.join(Math.max(1, awaitTimeoutMillis));
+
+        // whatever the writer did not get to, because it timed out or died, or
+        // because it was queued after its last drain, fails instead of hanging
+        List<PendingInsert> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (PendingInsert pending : left)
+            pending.future.completeExceptionally(shuttingDown());
+
+        if (! left.isEmpty())
+            LOG.warn("Failed {} refresh token inserts still queued at shutdown", left.size());
+    }
+
+    private static final class PendingInsert
+    {
+        private final RefreshToken            refreshToken;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingInsert(RefreshToken refreshToken)
+        {
+            this.refreshToken = refreshToken;
+        }
+    }
+}
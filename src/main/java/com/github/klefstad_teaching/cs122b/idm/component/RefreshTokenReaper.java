@@ -0,0 +1,174 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.IDMRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deletes refresh tokens whose {@code expire_time} or {@code max_life_time} passed
+ * more than {@code grace} ago. Every {@code interval} it walks the table in
+ * primary key order, {@code chunkSize} rows at a time with a pause in between,
+ * so each DELETE only locks a handful of rows and the reaper never competes
+ * with /login and /refresh for long.
+ * <p>
+ * The grace period keeps dead tokens around for a while so a client presenting
+ * one still learns it expired or was revoked rather than that it never existed.
+ * It also has to be longer than the write-behind flush interval; pending
+ * extensions are flushed before every run anyway.
+ */
+@Component
+public class RefreshTokenReaper implements DisposableBean
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshTokenReaper.class);
+
+    private final IDMRepo                  repo;
+    private final RefreshTokenExpiryWriter expiryWriter;
+    private final IDMServiceConfig.Reaper  config;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder rowsReaped = new LongAdder();
+    private final LongAdder runs       = new LongAdder();
+
+    private volatile Instant lastCompletedRun = Instant.now();
+    private volatile int     lastRunRows;
+    private volatile boolean running = true;
+
+    @Autowired
+    public RefreshTokenReaper(IDMRepo repo, RefreshTokenExpiryWriter expiryWriter, IDMServiceConfig serviceConfig)
+    {
+        this.repo = repo;
+        this.expiryWriter = expiryWriter;
+        this.config = serviceConfig.reaper();
+
+        if (! config.enabled()) {
+            this.scheduler = null;
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idm-token-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long intervalMillis = config.interval().toMillis();
+        this.scheduler.scheduleWithFixedDelay(this::reapQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One pass over the table.
+     *
+     * @return the number of rows deleted
+     */
+    public int reap()
+    {
+        if (expiryWriter.enabled())
+            expiryWriter.flush();
+
+        Instant start = Instant.now();
+        Instant cutoff = start.minus(config.grace());
+
+        int     reaped = 0;
+        int     afterId = 0;
+        boolean reachedEnd = false;
+
+        for (int chunk = 0; running && chunk < config.maxChunksPerRun(); chunk++) {
+            List<Integer> ids = repo.selectReapableRefreshTokenIds(afterId, cutoff, config.chunkSize());
+
+            if (! ids.isEmpty()) {
+                int deleted = repo.deleteRefreshTokens(ids, cutoff);
+                reaped += deleted;
+                rowsReaped.add(deleted);
+                afterId = ids.get(ids.size() - 1);
+            }
+
+            if (ids.size() < config.chunkSize()) {
+                reachedEnd = true;
+                break;
+            }
+
+            if (! pause())
+                break;
+        }
+
+        runs.increment();
+        lastRunRows = reaped;
+
+        // a run cut short by max-chunks-per-run leaves rows behind, the lag keeps growing
+        if (reachedEnd)
+            lastCompletedRun = start;
+
+        return reaped;
+    }
+
+    public long rowsReaped()
+    {
+        return rowsReaped.sum();
+    }
+
+    public long runs()
+    {
+        return runs.sum();
+    }
+
+    public int lastRunRows()
+    {
+        return lastRunRows;
+    }
+
+    /**
+     * @return how long ago the reaper last got through every reapable row
+     */
+    public Duration lag()
+    {
+        return Duration.between(lastCompletedRun, Instant.now());
+    }
+
+    private boolean pause()
+    {
+        long pauseMillis = config.pauseBetweenChunks().toMillis();
+        if (pauseMillis <= 0)
+            return true;
+
+        try {
+            Thread.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void reapQuietly()
+    {
+        try {
+            int reaped = reap();
+            if (reaped > 0)
+                LOG.info("Reaped {} refresh tokens", reaped);
+        } catch (RuntimeException e) {
+            LOG.warn("Refresh token reaper run failed", e);
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (scheduler == null)
+            return;
+
+        running = false;
+        scheduler.shutdownNow();
+    }
+}
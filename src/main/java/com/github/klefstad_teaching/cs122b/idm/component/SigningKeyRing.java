@@ -0,0 +1,158 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.security.SigningKeys;
+import com.nimbusds.jose.JOSEException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The current {@link SigningKeys}, optionally reloaded from a JWK set file.
+ * Every {@code reloadInterval} the file's contents are compared with the last
+ * ones loaded; when they differ the file is parsed and, if it is a valid ring,
+ * swapped in. A file that does not parse is logged and retried on the next
+ * interval, the previous keys stay in use until it does. Contents rather than
+ * the modification time are compared, so a write within the file system's
+ * timestamp granularity is not missed.
+ * <p>
+ * Tokens signed by a key that is dropped from the ring stop verifying with the
+ * next request. Cached verifications are cleared through {@code onKeysRemoved}
+ * for the same reason.
+ */
+public class SigningKeyRing implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SigningKeyRing.class);
+
+    private final Path                     file;
+    private final boolean                  fastEncoder;
+    private final Runnable                 onKeysRemoved;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder reloads = new LongAdder();
+
+    private volatile SigningKeys current;
+    private          byte[]      loaded;
+
+    /**
+     * A ring of the one key the service was started with, never reloaded.
+     */
+    public SigningKeyRing(SigningKeys keys)
+    {
+        this.file = null;
+        this.fastEncoder = false;
+        this.onKeysRemoved = () -> {};
+        this.scheduler = null;
+        this.current = keys;
+    }
+
+    public SigningKeyRing(Path file, Duration reloadInterval, boolean fastEncoder, Runnable onKeysRemoved)
+    {
+        this.file = file;
+        this.fastEncoder = fastEncoder;
+        this.onKeysRemoved = onKeysRemoved;
+
+        try {
+            byte[] contents = Files.readAllBytes(file);
+            this.current = load(contents);
+            this.loaded = contents;
+        } catch (IOException | ParseException | JOSEException | IllegalArgumentException e) {
+            throw new IllegalStateException("Could not load the signing key ring from " + file, e);
+        }
+
+        LOG.info("Signing with key {}, verifying {}", current.signingKeyId(), current.keyIds());
+
+        if (reloadInterval.isZero()) {
+            this.scheduler = null;
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idm-key-ring");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long intervalMillis = reloadInterval.toMillis();
+        this.scheduler.scheduleWithFixedDelay(this::reloadQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public SigningKeys current()
+    {
+        return current;
+    }
+
+    private SigningKeys load(byte[] contents)
+        throws ParseException, JOSEException
+    {
+        String json = new String(contents, StandardCharsets.UTF_8);
+        return SigningKeys.of(SigningKeys.parse(json), fastEncoder);
+    }
+
+    /**
+     * Loads the file again if it changed since the last load.
+     *
+     * @return true if a new generation of keys is in use
+     */
+    public synchronized boolean reload()
+        throws IOException, ParseException, JOSEException
+    {
+        if (file == null)
+            return false;
+
+        byte[] contents = Files.readAllBytes(file);
+        if (Arrays.equals(contents, loaded))
+            return false;
+
+        SigningKeys previous = current;
+        // throws for a broken file, which leaves loaded alone so it is tried again
+        SigningKeys next = load(contents);
+
+        current = next;
+        loaded = contents;
+        reloads.increment();
+
+        Set<String> removed = new HashSet<>(previous.keyIds());
+        removed.removeAll(next.keyIds());
+
+        LOG.info("Reloaded {}: signing with key {}, verifying {}", file, next.signingKeyId(), next.keyIds());
+
+        if (! removed.isEmpty())
+            onKeysRemoved.run();
+
+        return true;
+    }
+
+    private void reloadQuietly()
+    {
+        try {
+            reload();
+        } catch (IOException | ParseException | JOSEException | RuntimeException e) {
+            LOG.warn("Could not reload the signing key ring from {}, keeping key {}", file, current.signingKeyId(), e);
+        }
+    }
+
+    public long reloads()
+    {
+        return reloads.sum();
+    }
+
+    @Override
+    public void close()
+    {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.util.BoundedCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of {@link User} rows, keyed by id and by email. Every row is
+ * held for at most {@code ttl}; within this node any write made through
+ * {@link IDMAuthenticationManager} invalidates it right away, writes made by other
+ * nodes become visible once the entry expires.
+ * <p>
+ * Callers always get their own copy, so setting fields on a returned user never
+ * leaks into the cache.
+ */
+@Component
+public class UserCache
+{
+    private final BoundedCache<Integer, User> byId;
+    private final BoundedCache<String, User>  byEmail;
+    private final long                        ttlMillis;
+
+    // bumped on every invalidation, a load that raced one is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    public UserCache(IDMServiceConfig serviceConfig)
+    {
+        IDMServiceConfig.UserCache userCache = serviceConfig.userCache();
+
+        boolean enabled = userCache.maxSize() > 0 && ! userCache.ttl().isZero();
+
+        this.byId = enabled ? new BoundedCache<>(userCache.maxSize()) : null;
+        this.byEmail = enabled ? new BoundedCache<>(userCache.maxSize()) : null;
+        this.ttlMillis = userCache.ttl().toMillis();
+    }
+
+    public User getById(Integer id, Function<Integer, User> loader)
+    {
+        if (byId == null)
+            return loader.apply(id);
+
+        User cached = byId.get(id);
+        if (cached != null)
+            return copyOf(cached);
+
+        long loadedAt = generation.get();
+        User user = loader.apply(id);
+        cache(user, loadedAt);
+        return user;
+    }
+
+    public User getByEmail(String email, Function<String, User> loader)
+    {
+        if (byEmail == null)
+            return loader.apply(email);
+
+        User cached = byEmail.get(emailKey(email));
+        if (cached != null)
+            return copyOf(cached);
+
+        long loadedAt = generation.get();
+        User user = loader.apply(email);
+        cache(user, loadedAt);
+        return user;
+    }
+
+    public void invalidate(User user)
+    {
+        invalidate(user.getId(), user.getEmail());
+    }
+
+    public void invalidate(Integer id, String email)
+    {
+        if (byId == null)
+            return;
+
+        generation.incrementAndGet();
+
+        if (id != null)
+            byId.remove(id);
+        if (email != null)
+            byEmail.remove(emailKey(email));
+    }
+
+    public long size()
+    {
+        return byId == null ? 0 : byId.size();
+    }
+
+    public long hits()
+    {
+        return byId == null ? 0 : byId.hits() + byEmail.hits();
+    }
+
+    public long misses()
+    {
+        return byId == null ? 0 : byId.misses() + byEmail.misses();
+    }
+
+    public long evictions()
+    {
+        return byId == null ? 0 : byId.evictions() + byId.expirations() + byEmail.evictions() + byEmail.expirations();
+    }
+
+    private void cache(User user, long loadedAt)
+    {
+        User copy = copyOf(user);
+        long expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+
+        byId.put(copy.getId(), copy, expiresAtMillis);
+        byEmail.put(emailKey(copy.getEmail()), copy, expiresAtMillis);
+
+        // an invalidation happened while we were loading, the row may be stale
+        if (generation.get() != loadedAt)
+            invalidate(copy);
+    }
+
+    // MySQL compares emails case insensitively, so does the cache
+    private static String emailKey(String email)
+    {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    private static User copyOf(User user)
+    {
+        return new User()
+                .setId(user.getId())
+                .setEmail(user.getEmail())
+                .setUserStatus(user.getUserStatus())
+                .setSalt(user.getSalt())
+                .setHashedPassword(user.getHashedPassword())
+                .setRoles(user.getRoles());
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import com.github.klefstad_teaching.cs122b.idm.component.PoolMetrics;
+import com.github.klefstad_teaching.cs122b.idm.repo.InMemoryIDMRepo;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * The Hikari pool behind every query, configured from {@code idm.pool} instead of
+ * Spring Boot's defaults. URL and credentials still come from
+ * {@code spring.datasource}.
+ */
+@Configuration
+@Profile("!" + InMemoryIDMRepo.PROFILE)
+public class DataSourceConfig
+{
+    public static final String POOL_NAME = "idm";
+
+    @Bean
+    public HikariDataSource dataSource(DataSourceProperties properties,
+                                       IDMServiceConfig serviceConfig,
+                                       PoolMetrics poolMetrics)
+    {
+        IDMServiceConfig.Pool pool = serviceConfig.pool();
+
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder()
+                                                .type(HikariDataSource.class)
+                                                .build();
+
+        dataSource.setPoolName(POOL_NAME);
+        dataSource.setMaximumPoolSize(pool.maximumPoolSize());
+        dataSource.setMinimumIdle(pool.minimumIdle());
+        dataSource.setConnectionTimeout(pool.connectionTimeout().toMillis());
+        dataSource.setIdleTimeout(pool.idleTimeout().toMillis());
+        dataSource.setMaxLifetime(pool.maxLifetime().toMillis());
+        dataSource.setLeakDetectionThreshold(pool.leakDetectionThreshold().toMillis());
+        dataSource.setRegisterMbeans(pool.registerMbeans());
+        dataSource.setMetricsTrackerFactory(poolMetrics);
+
+        // MySQL Connector/J, other drivers ignore what they do not know
+        dataSource.addDataSourceProperty("cachePrepStmts", pool.cachePrepStmts());
+        dataSource.addDataSourceProperty("prepStmtCacheSize", pool.prepStmtCacheSize());
+        dataSource.addDataSourceProperty("prepStmtCacheSqlLimit", pool.prepStmtCacheSqlLimit());
+        dataSource.addDataSourceProperty("useServerPrepStmts", pool.useServerPrepStmts());
+        dataSource.addDataSourceProperty("rewriteBatchedStatements", pool.rewriteBatchedStatements());
+
+        return dataSource;
+    }
+}
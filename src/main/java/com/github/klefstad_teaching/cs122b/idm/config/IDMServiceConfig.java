@@ -2,28 +2,72 @@ package com.github.klefstad_teaching.cs122b.idm.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.ConstructorBinding;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.Objects;
 
 @ConstructorBinding
 @ConfigurationProperties(prefix = "idm")
 public class IDMServiceConfig
 {
-    private final String   keyFileName;
-    private final Duration accessTokenExpire;
-    private final Duration refreshTokenExpire;
-    private final Duration maxRefreshTokenLifeTime;
+    private final String         keyFileName;
+    private final Duration       accessTokenExpire;
+    private final Duration       refreshTokenExpire;
+    private final Duration       maxRefreshTokenLifeTime;
+    private final Hashing        hashing;
+    private final Password       password;
+    private final Jwt            jwt;
+    private final WriteBehind    writeBehind;
+    private final TokenInsert    tokenInsert;
+    private final UserCache      userCache;
+    private final Validation     validation;
+    private final Reaper         reaper;
+    private final Migration      migration;
+    private final TokenStorage   refreshTokenStorage;
+    private final Pool           pool;
+    private final InMemory       inMemory;
+    private final VirtualThreads virtualThreads;
+    private final KeyRing        keyRing;
 
     public IDMServiceConfig(String keyFileName,
                             Duration accessTokenExpire,
                             Duration refreshTokenExpire,
-                            Duration maxRefreshTokenLifeTime)
+                            Duration maxRefreshTokenLifeTime,
+                            @DefaultValue Hashing hashing,
+                            @DefaultValue Password password,
+                            @DefaultValue Jwt jwt,
+                            @DefaultValue WriteBehind writeBehind,
+                            @DefaultValue TokenInsert tokenInsert,
+                            @DefaultValue UserCache userCache,
+                            @DefaultValue Validation validation,
+                            @DefaultValue Reaper reaper,
+                            @DefaultValue Migration migration,
+                            @DefaultValue("text") TokenStorage refreshTokenStorage,
+                            @DefaultValue Pool pool,
+                            @DefaultValue InMemory inMemory,
+                            @DefaultValue VirtualThreads virtualThreads,
+                            @DefaultValue KeyRing keyRing)
     {
         this.keyFileName = Objects.requireNonNull(keyFileName);
         this.accessTokenExpire = Objects.requireNonNull(accessTokenExpire);
         this.refreshTokenExpire = Objects.requireNonNull(refreshTokenExpire);
         this.maxRefreshTokenLifeTime = Objects.requireNonNull(maxRefreshTokenLifeTime);
+        this.hashing = Objects.requireNonNull(hashing);
+        this.password = Objects.requireNonNull(password);
+        this.jwt = Objects.requireNonNull(jwt);
+        this.writeBehind = Objects.requireNonNull(writeBehind);
+        this.tokenInsert = Objects.requireNonNull(tokenInsert);
+        this.userCache = Objects.requireNonNull(userCache);
+        this.validation = Objects.requireNonNull(validation);
+        this.reaper = Objects.requireNonNull(reaper);
+        this.migration = Objects.requireNonNull(migration);
+        this.refreshTokenStorage = Objects.requireNonNull(refreshTokenStorage);
+        this.pool = Objects.requireNonNull(pool);
+        this.inMemory = Objects.requireNonNull(inMemory);
+        this.virtualThreads = Objects.requireNonNull(virtualThreads);
+        this.keyRing = Objects.requireNonNull(keyRing);
     }
 
     public String keyFileName()
@@ -45,4 +89,699 @@ public class IDMServiceConfig
     {
         return maxRefreshTokenLifeTime;
     }
+
+    public Hashing hashing()
+    {
+        return hashing;
+    }
+
+    public Password password()
+    {
+        return password;
+    }
+
+    public Jwt jwt()
+    {
+        return jwt;
+    }
+
+    public WriteBehind writeBehind()
+    {
+        return writeBehind;
+    }
+
+    public TokenInsert tokenInsert()
+    {
+        return tokenInsert;
+    }
+
+    public UserCache userCache()
+    {
+        return userCache;
+    }
+
+    public Validation validation()
+    {
+        return validation;
+    }
+
+    public Reaper reaper()
+    {
+        return reaper;
+    }
+
+    public Migration migration()
+    {
+        return migration;
+    }
+
+    public TokenStorage refreshTokenStorage()
+    {
+        return refreshTokenStorage;
+    }
+
+    public Pool pool()
+    {
+        return pool;
+    }
+
+    public InMemory inMemory()
+    {
+        return inMemory;
+    }
+
+    public VirtualThreads virtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    public KeyRing keyRing()
+    {
+        return keyRing;
+    }
+
+    /**
+     * How refresh tokens are stored. Moving from {@code TEXT} to {@code BINARY}
+     * takes two steps, each rolled out to every node before the next:
+     * <ol>
+     *     <li>add {@code classpath:db/migration-binary-token} and switch to {@code DUAL},
+     *     new rows carry both columns and lookups still use {@code token};</li>
+     *     <li>add {@code classpath:db/migration-binary-token-only} and switch to
+     *     {@code BINARY}, which drops the index on {@code token}.</li>
+     * </ol>
+     */
+    public enum TokenStorage
+    {
+        TEXT,
+        DUAL,
+        BINARY
+    }
+
+    /**
+     * Settings for the dedicated password hashing pool.
+     * <p>
+     * A {@code threads} value of 0 sizes the pool to the number of available cores.
+     * A request waits at most {@code awaitTimeout} for its hash before it is
+     * answered with a 503.
+     */
+    public static class Hashing
+    {
+        private final int      threads;
+        private final int      queueCapacity;
+        private final Duration awaitTimeout;
+
+        public Hashing(@DefaultValue("0") int threads,
+                       @DefaultValue("64") int queueCapacity,
+                       @DefaultValue("5s") Duration awaitTimeout)
+        {
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+            this.awaitTimeout = awaitTimeout;
+        }
+
+        public int threads()
+        {
+            return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        }
+
+        public int queueCapacity()
+        {
+            return queueCapacity;
+        }
+
+        public Duration awaitTimeout()
+        {
+            return awaitTimeout;
+        }
+    }
+
+    /**
+     * Settings used for newly written password hashes. Stored hashes keep the
+     * settings they were written with and are upgraded on login when
+     * {@code rehashOnLogin} is set.
+     * <p>
+     * When {@code calibrateTarget} is set the iteration count is measured at
+     * startup so that one hash takes about that long on this machine.
+     */
+    public static class Password
+    {
+        private final String   algorithm;
+        private final int      iterations;
+        private final int      keyBitLength;
+        private final int      saltByteLength;
+        private final Duration calibrateTarget;
+        private final boolean  rehashOnLogin;
+
+        public Password(@DefaultValue("pbkdf2-sha512") String algorithm,
+                        @DefaultValue("10000") int iterations,
+                        @DefaultValue("512") int keyBitLength,
+                        @DefaultValue("16") int saltByteLength,
+                        Duration calibrateTarget,
+                        @DefaultValue("true") boolean rehashOnLogin)
+        {
+            this.algorithm = algorithm;
+            this.iterations = iterations;
+            this.keyBitLength = keyBitLength;
+            this.saltByteLength = saltByteLength;
+            this.calibrateTarget = calibrateTarget;
+            this.rehashOnLogin = rehashOnLogin;
+        }
+
+        public String algorithm()
+        {
+            return algorithm;
+        }
+
+        public int iterations()
+        {
+            return iterations;
+        }
+
+        public int keyBitLength()
+        {
+            return keyBitLength;
+        }
+
+        public int saltByteLength()
+        {
+            return saltByteLength;
+        }
+
+        public Duration calibrateTarget()
+        {
+            return calibrateTarget;
+        }
+
+        public boolean rehashOnLogin()
+        {
+            return rehashOnLogin;
+        }
+    }
+
+    /**
+     * Settings for issuing and checking access tokens.
+     * <p>
+     * {@code verifyOnSign} re-verifies every token right after signing it. That
+     * doubles the ECDSA cost of /login and /refresh, so only turn it on to debug
+     * or audit the signing key.
+     * <p>
+     * {@code cacheMaxSize} bounds the number of verified access tokens kept for
+     * /authenticate, 0 turns the cache off. {@code batchMaxSize} caps the number
+     * of tokens one /authenticate/batch request may carry.
+     * <p>
+     * {@code fastEncoder} issues access tokens with {@code AccessTokenEncoder}
+     * instead of nimbus' {@code SignedJWT}; the tokens are the same, turn it off
+     * to compare.
+     */
+    public static class Jwt
+    {
+        private final boolean verifyOnSign;
+        private final int     cacheMaxSize;
+        private final int     batchMaxSize;
+        private final boolean fastEncoder;
+
+        public Jwt(@DefaultValue("false") boolean verifyOnSign,
+                   @DefaultValue("10000") int cacheMaxSize,
+                   @DefaultValue("100") int batchMaxSize,
+                   @DefaultValue("true") boolean fastEncoder)
+        {
+            this.verifyOnSign = verifyOnSign;
+            this.cacheMaxSize = cacheMaxSize;
+            this.batchMaxSize = batchMaxSize;
+            this.fastEncoder = fastEncoder;
+        }
+
+        public boolean verifyOnSign()
+        {
+            return verifyOnSign;
+        }
+
+        public int cacheMaxSize()
+        {
+            return cacheMaxSize;
+        }
+
+        public int batchMaxSize()
+        {
+            return batchMaxSize;
+        }
+
+        public boolean fastEncoder()
+        {
+            return fastEncoder;
+        }
+    }
+
+    /**
+     * Write-behind for refresh token expiry extensions. When enabled, /refresh
+     * keeps new expire times in memory and writes them in batches every
+     * {@code flushInterval}, or once {@code flushSize} tokens are waiting.
+     */
+    public static class WriteBehind
+    {
+        private final boolean  enabled;
+        private final Duration flushInterval;
+        private final int      flushSize;
+
+        public WriteBehind(@DefaultValue("false") boolean enabled,
+                           @DefaultValue("500ms") Duration flushInterval,
+                           @DefaultValue("500") int flushSize)
+        {
+            this.enabled = enabled;
+            this.flushInterval = flushInterval;
+            this.flushSize = flushSize;
+        }
+
+        public boolean enabled()
+        {
+            return enabled;
+        }
+
+        public Duration flushInterval()
+        {
+            return flushInterval;
+        }
+
+        public int flushSize()
+        {
+            return flushSize;
+        }
+    }
+
+    /**
+     * Group commit for refresh token inserts at /login. A single writer drains up
+     * to {@code batchMaxSize} queued tokens into one batch and one commit; callers
+     * wait for the commit that contains their token. When the queue holds
+     * {@code queueCapacity} tokens further logins are answered with a 503, as is
+     * a login that waits longer than {@code awaitTimeout} for its commit. At
+     * shutdown the writer gets the same {@code awaitTimeout} to finish.
+     */
+    public static class TokenInsert
+    {
+        private final boolean  enabled;
+        private final int      batchMaxSize;
+        private final int      queueCapacity;
+        private final Duration awaitTimeout;
+
+        public TokenInsert(@DefaultValue("true") boolean enabled,
+                           @DefaultValue("64") int batchMaxSize,
+                           @DefaultValue("1024") int queueCapacity,
+                           @DefaultValue("5s") Duration awaitTimeout)
+        {
+            this.enabled = enabled;
+            this.batchMaxSize = batchMaxSize;
+            this.queueCapacity = queueCapacity;
+            this.awaitTimeout = awaitTimeout;
+        }
+
+        public boolean enabled()
+        {
+            return enabled;
+        }
+
+        public int batchMaxSize()
+        {
+            return batchMaxSize;
+        }
+
+        public int queueCapacity()
+        {
+            return queueCapacity;
+        }
+
+        public Duration awaitTimeout()
+        {
+            return awaitTimeout;
+        }
+    }
+
+    /**
+     * Read-through cache of user rows. {@code ttl} bounds how long a change made
+     * on another node (password, status) can go unnoticed here; a {@code maxSize}
+     * or {@code ttl} of 0 disables the cache.
+     */
+    public static class UserCache
+    {
+        private final int      maxSize;
+        private final Duration ttl;
+
+        public UserCache(@DefaultValue("10000") int maxSize,
+                         @DefaultValue("30s") Duration ttl)
+        {
+            this.maxSize = maxSize;
+            this.ttl = ttl;
+        }
+
+        public int maxSize()
+        {
+            return maxSize;
+        }
+
+        public Duration ttl()
+        {
+            return ttl;
+        }
+    }
+
+    /**
+     * Background deletion of dead refresh tokens. Each run deletes at most
+     * {@code chunkSize * maxChunksPerRun} rows, sleeping {@code pauseBetweenChunks}
+     * after every chunk, which bounds its rate.
+     */
+    public static class Reaper
+    {
+        private final boolean  enabled;
+        private final Duration interval;
+        private final Duration grace;
+        private final int      chunkSize;
+        private final Duration pauseBetweenChunks;
+        private final int      maxChunksPerRun;
+
+        public Reaper(@DefaultValue("false") boolean enabled,
+                      @DefaultValue("5m") Duration interval,
+                      @DefaultValue("1h") Duration grace,
+                      @DefaultValue("500") int chunkSize,
+                      @DefaultValue("50ms") Duration pauseBetweenChunks,
+                      @DefaultValue("200") int maxChunksPerRun)
+        {
+            this.enabled = enabled;
+            this.interval = interval;
+            this.grace = grace;
+            this.chunkSize = chunkSize;
+            this.pauseBetweenChunks = pauseBetweenChunks;
+            this.maxChunksPerRun = maxChunksPerRun;
+        }
+
+        public boolean enabled()
+        {
+            return enabled;
+        }
+
+        public Duration interval()
+        {
+            return interval;
+        }
+
+        public Duration grace()
+        {
+            return grace;
+        }
+
+        public int chunkSize()
+        {
+            return chunkSize;
+        }
+
+        public Duration pauseBetweenChunks()
+        {
+            return pauseBetweenChunks;
+        }
+
+        public int maxChunksPerRun()
+        {
+            return maxChunksPerRun;
+        }
+    }
+
+    /**
+     * Versioned schema scripts applied at startup, or only checked when disabled.
+     * {@code baselineVersion} is the version a database created from db.sql before
+     * migrations existed, without an {@code idm.schema_version} table, is assumed
+     * to be at.
+     */
+    public static class Migration
+    {
+        private final boolean      enabled;
+        private final List<String> locations;
+        private final int          baselineVersion;
+
+        public Migration(@DefaultValue("true") boolean enabled,
+                         @DefaultValue("classpath:db/migration") List<String> locations,
+                         @DefaultValue("1") int baselineVersion)
+        {
+            this.enabled = enabled;
+            this.locations = locations;
+            this.baselineVersion = baselineVersion;
+        }
+
+        public boolean enabled()
+        {
+            return enabled;
+        }
+
+        public List<String> locations()
+        {
+            return locations;
+        }
+
+        public int baselineVersion()
+        {
+            return baselineVersion;
+        }
+    }
+
+    /**
+     * The JDBC connection pool. A fixed size pool ({@code minimumIdle} equal to
+     * {@code maximumPoolSize}) avoids opening connections under load; a short
+     * {@code connectionTimeout} turns pool exhaustion into fast failures instead of
+     * requests queueing behind it. A {@code leakDetectionThreshold} of 0 disables
+     * leak detection.
+     */
+    public static class Pool
+    {
+        private final int      maximumPoolSize;
+        private final int      minimumIdle;
+        private final Duration connectionTimeout;
+        private final Duration idleTimeout;
+        private final Duration maxLifetime;
+        private final Duration leakDetectionThreshold;
+        private final boolean  cachePrepStmts;
+        private final int      prepStmtCacheSize;
+        private final int      prepStmtCacheSqlLimit;
+        private final boolean  useServerPrepStmts;
+        private final boolean  rewriteBatchedStatements;
+        private final boolean  registerMbeans;
+
+        public Pool(@DefaultValue("10") int maximumPoolSize,
+                    @DefaultValue("10") int minimumIdle,
+                    @DefaultValue("5s") Duration connectionTimeout,
+                    @DefaultValue("10m") Duration idleTimeout,
+                    @DefaultValue("30m") Duration maxLifetime,
+                    @DefaultValue("0s") Duration leakDetectionThreshold,
+                    @DefaultValue("true") boolean cachePrepStmts,
+                    @DefaultValue("250") int prepStmtCacheSize,
+                    @DefaultValue("2048") int prepStmtCacheSqlLimit,
+                    @DefaultValue("true") boolean useServerPrepStmts,
+                    @DefaultValue("true") boolean rewriteBatchedStatements,
+                    @DefaultValue("true") boolean registerMbeans)
+        {
+            this.maximumPoolSize = maximumPoolSize;
+            this.minimumIdle = minimumIdle;
+            this.connectionTimeout = connectionTimeout;
+            this.idleTimeout = idleTimeout;
+            this.maxLifetime = maxLifetime;
+            this.leakDetectionThreshold = leakDetectionThreshold;
+            this.cachePrepStmts = cachePrepStmts;
+            this.prepStmtCacheSize = prepStmtCacheSize;
+            this.prepStmtCacheSqlLimit = prepStmtCacheSqlLimit;
+            this.useServerPrepStmts = useServerPrepStmts;
+            this.rewriteBatchedStatements = rewriteBatchedStatements;
+            this.registerMbeans = registerMbeans;
+        }
+
+        public int maximumPoolSize()
+        {
+            return maximumPoolSize;
+        }
+
+        public int minimumIdle()
+        {
+            return minimumIdle;
+        }
+
+        public Duration connectionTimeout()
+        {
+            return connectionTimeout;
+        }
+
+        public Duration idleTimeout()
+        {
+            return idleTimeout;
+        }
+
+        public Duration maxLifetime()
+        {
+            return maxLifetime;
+        }
+
+        public Duration leakDetectionThreshold()
+        {
+            return leakDetectionThreshold;
+        }
+
+        public boolean cachePrepStmts()
+        {
+            return cachePrepStmts;
+        }
+
+        public int prepStmtCacheSize()
+        {
+            return prepStmtCacheSize;
+        }
+
+        public int prepStmtCacheSqlLimit()
+        {
+            return prepStmtCacheSqlLimit;
+        }
+
+        public boolean useServerPrepStmts()
+        {
+            return useServerPrepStmts;
+        }
+
+        public boolean rewriteBatchedStatements()
+        {
+            return rewriteBatchedStatements;
+        }
+
+        public boolean registerMbeans()
+        {
+            return registerMbeans;
+        }
+    }
+
+    /**
+     * Email and password policy checked at /login and /register.
+     */
+    public static class Validation
+    {
+        private final int     emailMinLength;
+        private final int     emailMaxLength;
+        private final int     passwordMinLength;
+        private final int     passwordMaxLength;
+        private final boolean passwordRequireUpperCase;
+        private final boolean passwordRequireLowerCase;
+        private final boolean passwordRequireDigit;
+
+        public Validation(@DefaultValue("6") int emailMinLength,
+                          @DefaultValue("32") int emailMaxLength,
+                          @DefaultValue("10") int passwordMinLength,
+                          @DefaultValue("20") int passwordMaxLength,
+                          @DefaultValue("true") boolean passwordRequireUpperCase,
+                          @DefaultValue("true") boolean passwordRequireLowerCase,
+                          @DefaultValue("true") boolean passwordRequireDigit)
+        {
+            this.emailMinLength = emailMinLength;
+            this.emailMaxLength = emailMaxLength;
+            this.passwordMinLength = passwordMinLength;
+            this.passwordMaxLength = passwordMaxLength;
+            this.passwordRequireUpperCase = passwordRequireUpperCase;
+            this.passwordRequireLowerCase = passwordRequireLowerCase;
+            this.passwordRequireDigit = passwordRequireDigit;
+        }
+
+        public int emailMinLength()
+        {
+            return emailMinLength;
+        }
+
+        public int emailMaxLength()
+        {
+            return emailMaxLength;
+        }
+
+        public int passwordMinLength()
+        {
+            return passwordMinLength;
+        }
+
+        public int passwordMaxLength()
+        {
+            return passwordMaxLength;
+        }
+
+        public boolean passwordRequireUpperCase()
+        {
+            return passwordRequireUpperCase;
+        }
+
+        public boolean passwordRequireLowerCase()
+        {
+            return passwordRequireLowerCase;
+        }
+
+        public boolean passwordRequireDigit()
+        {
+            return passwordRequireDigit;
+        }
+    }
+
+    /**
+     * Settings for the {@code in-memory} profile. {@code latency} is waited out on
+     * every repository call, standing in for a database round trip.
+     */
+    public static class InMemory
+    {
+        private final Duration latency;
+
+        public InMemory(@DefaultValue("0ms") Duration latency)
+        {
+            this.latency = latency;
+        }
+
+        public Duration latency()
+        {
+            return latency;
+        }
+    }
+
+    /**
+     * Serves requests on virtual threads instead of Tomcat's worker pool. Needs
+     * Java 21 or newer; password hashing stays on the bounded hashing pool.
+     */
+    public static class VirtualThreads
+    {
+        private final boolean enabled;
+
+        public VirtualThreads(@DefaultValue("false") boolean enabled)
+        {
+            this.enabled = enabled;
+        }
+
+        public boolean enabled()
+        {
+            return enabled;
+        }
+    }
+
+    /**
+     * Signing keys for rotation. {@code file} is a JWK set on the file system,
+     * the first key signs new access tokens and every key verifies. Without it
+     * the single {@code keyFileName} key from the classpath is used as before.
+     * <p>
+     * The file is checked for changes every {@code reloadInterval}, 0 only loads
+     * it at startup.
+     */
+    public static class KeyRing
+    {
+        private final String   file;
+        private final Duration reloadInterval;
+
+        public KeyRing(String file,
+                       @DefaultValue("30s") Duration reloadInterval)
+        {
+            this.file = file;
+            this.reloadInterval = reloadInterval;
+        }
+
+        public String file()
+        {
+            return file;
+        }
+
+        public Duration reloadInterval()
+        {
+            return reloadInterval;
+        }
+    }
 }
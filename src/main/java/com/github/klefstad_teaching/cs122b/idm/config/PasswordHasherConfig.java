@@ -0,0 +1,42 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import com.github.klefstad_teaching.cs122b.idm.security.PasswordHasher;
+import com.github.klefstad_teaching.cs122b.idm.security.Pbkdf2PasswordHasher;
+import com.github.klefstad_teaching.cs122b.idm.security.TimedPasswordHasher;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PasswordHasherConfig
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PasswordHasherConfig.class);
+
+    @Bean
+    public PasswordHasher passwordHasher(IDMServiceConfig serviceConfig, MeterRegistry registry)
+    {
+        IDMServiceConfig.Password password = serviceConfig.password();
+
+        int iterations = password.iterations();
+
+        if (password.calibrateTarget() != null) {
+            iterations = Pbkdf2PasswordHasher.calibrate(password.algorithm(),
+                                                        password.keyBitLength(),
+                                                        password.saltByteLength(),
+                                                        password.calibrateTarget());
+
+            // nodes calibrate independently, pin the value once it looks right
+            LOG.info("Calibrated {} to {} iterations for a {} ms hash, set idm.password.iterations={} to pin it",
+                     password.algorithm(), iterations, password.calibrateTarget().toMillis(), iterations);
+        }
+
+        return new TimedPasswordHasher(
+            new Pbkdf2PasswordHasher(password.algorithm(),
+                                     iterations,
+                                     password.keyBitLength(),
+                                     password.saltByteLength()),
+            registry);
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import com.github.klefstad_teaching.cs122b.idm.util.VirtualThreads;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * With {@code idm.virtual-threads.enabled} every request, and so every
+ * repository call it makes, runs on its own virtual thread. A request blocked on
+ * MySQL then holds no platform thread, and concurrency is capped by the
+ * connection pool ({@code idm.pool.maximum-pool-size}) instead of Tomcat's
+ * max-threads. PBKDF2 is CPU bound and keeps running on the bounded
+ * {@code PasswordHashExecutor}; a virtual thread waiting for it unmounts.
+ * <p>
+ * This only holds for a driver that blocks outside {@code synchronized}. Every
+ * Connector/J before 9.0.0, including all of 8.x, does its socket I/O while
+ * holding the connection's monitor, which pins the carrier thread for the whole
+ * round trip, so request concurrency would fall back to the number of carriers.
+ * The default build keeps the driver Spring Boot manages, so build with
+ * {@code mvn -Dvirtual-threads} for {@code com.mysql:mysql-connector-j} 9.x,
+ * where those monitors are {@code ReentrantLock}s. Run with
+ * {@code -Djdk.tracePinnedThreads=full} to see any pinning that is left.
+ */
+@Configuration
+public class VirtualThreadConfig
+{
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadCustomizer(IDMServiceConfig serviceConfig)
+    {
+        if (! serviceConfig.virtualThreads().enabled())
+            return protocolHandler -> {};
+
+        // asked for explicitly, so an old runtime is a startup error rather than a silent fallback
+        if (! VirtualThreads.isSupported())
+            throw new IllegalStateException(
+                "idm.virtual-threads.enabled needs Java 21 or newer, this is " + Runtime.version());
+
+        return protocolHandler -> {
+            ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("idm-request-");
+            protocolHandler.setExecutor(executor);
+            LOG.info("Serving requests on virtual threads");
+        };
+    }
+}
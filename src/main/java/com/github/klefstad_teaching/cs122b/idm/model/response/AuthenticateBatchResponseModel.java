@@ -0,0 +1,46 @@
+package com.github.klefstad_teaching.cs122b.idm.model.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.github.klefstad_teaching.cs122b.core.base.ResponseModel;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+
+import java.util.List;
+import java.util.Map;
+
+public class AuthenticateBatchResponseModel extends ResponseModel<AuthenticateBatchResponseModel> {
+    private List<TokenResult> results;
+
+    public List<TokenResult> getResults() {
+        return results;
+    }
+
+    public AuthenticateBatchResponseModel setResults(List<TokenResult> results) {
+        this.results = results;
+        return this;
+    }
+
+    // one per requested token, in request order
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class TokenResult {
+        private Result              result;
+        private Map<String, Object> claims;
+
+        public Result getResult() {
+            return result;
+        }
+
+        public TokenResult setResult(Result result) {
+            this.result = result;
+            return this;
+        }
+
+        public Map<String, Object> getClaims() {
+            return claims;
+        }
+
+        public TokenResult setClaims(Map<String, Object> claims) {
+            this.claims = claims;
+            return this;
+        }
+    }
+}
@@ -1,151 +1,58 @@
 package com.github.klefstad_teaching.cs122b.idm.repo;
 
-import com.github.klefstad_teaching.cs122b.core.error.ResultError;
-import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
-import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
-import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.stereotype.Component;
 
-import java.sql.Timestamp;
-import java.sql.Types;
 import java.time.Instant;
-
-@Component
-public class IDMRepo
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Users and refresh tokens. {@link JdbcIDMRepo} is the MySQL implementation,
+ * {@link InMemoryIDMRepo} replaces it under the {@code in-memory} profile.
+ * <p>
+ * Lookups that find nothing throw a {@code ResultError} with the matching
+ * not found result.
+ */
+public interface IDMRepo
 {
-    private final NamedParameterJdbcTemplate template;
+    User searchByEmail(String email);
 
-    @Autowired
-    public IDMRepo(NamedParameterJdbcTemplate template)
-    {
-        this.template = template;
-    }
-    // do sql in workbench
-    public NamedParameterJdbcTemplate getTemplate() {
-        return template;
-    }
-    public User searchByEmail(String email) {
-        try {
-            // expect return only one row
-            User user = this.template.queryForObject(
-                    "SELECT id, email, user_status_id, salt, hashed_password FROM idm.user WHERE email = :email;",
-                    new MapSqlParameterSource()
-                            .addValue("email", email, Types.VARCHAR),
-                    (rs, rowNum) ->
-                            new User()
-                                    .setId(rs.getInt("id"))
-                                    .setEmail(rs.getString("email"))
-                                    .setUserStatus(UserStatus.fromId(rs.getInt("user_status_id")))
-                                    .setSalt(rs.getString("salt"))
-                                    .setHashedPassword(rs.getString("hashed_password")));
-            return user;
-        } catch (DataAccessException e) {
-            throw new ResultError(IDMResults.USER_NOT_FOUND);
-        }
-    }
-    public RefreshToken searchByRereshToken(String refreshToken)
-    {
-        try {
-            // expect return only one row
-            RefreshToken token = this.template.queryForObject(
-                    "SELECT id, token, user_id, token_status_id, expire_time, max_life_time " +
-                            "FROM idm.refresh_token " +
-                            "WHERE token = :refreshToken;",
-                    new MapSqlParameterSource()
-                            .addValue("refreshToken", refreshToken, Types.VARCHAR),
-                    (rs, rowNum) ->
-                            new RefreshToken()
-                                    .setToken(rs.getString("token"))
-                                    .setUserId(rs.getInt("user_id"))
-                                    .setTokenStatus(TokenStatus.fromId(rs.getInt("token_status_id")))
-                                    .setExpireTime(rs.getTimestamp("expire_time").toInstant())
-                                    .setMaxLifeTime(rs.getTimestamp("max_life_time").toInstant()));
-            return token;
-        } catch (DataAccessException e) {
-//            e.printStackTrace();
-            throw new ResultError(IDMResults.REFRESH_TOKEN_NOT_FOUND);}
-    }
+    User searchById(Integer id);
 
-    public void insertUser(String email, Integer user_status_id, String salt, String hashed_password)
-    {
-        try {
-            // manipulate database
-            this.template.update(
-                    "INSERT INTO idm.user (email, user_status_id, salt, hashed_password)" +
-                            "VALUES (:email, :user_status_id, :salt, :hashed_password);",
-                    new MapSqlParameterSource()
-                            .addValue("email", email, Types.VARCHAR)
-                            .addValue("user_status_id", user_status_id, Types.INTEGER)
-                            .addValue("salt", salt, Types.VARCHAR)
-                            .addValue("hashed_password", hashed_password, Types.VARCHAR)
-            );
-        } catch (DataAccessException e) {
-            throw new ResultError(IDMResults.USER_ALREADY_EXISTS);}
-    }
-    public void insertRefreshToken(RefreshToken refreshToken)
-    {
-            // manipulate database
-        this.template.update(
-                "INSERT INTO idm.refresh_token (token, user_id, token_status_id, expire_time, max_life_time)" +
-                        "VALUES (:token, :user_id, :token_status_id, :expire_time, :max_life_time);",
-                new MapSqlParameterSource()
-                        .addValue("token", refreshToken.getToken(), Types.VARCHAR)
-                        .addValue("user_id", refreshToken.getUserId(), Types.INTEGER)
-                        .addValue("token_status_id", refreshToken.getTokenStatus().id(), Types.INTEGER)
-                        .addValue("expire_time", Timestamp.from(refreshToken.getExpireTime()), Types.TIMESTAMP)
-                        .addValue("max_life_time", Timestamp.from(refreshToken.getMaxLifeTime()), Types.TIMESTAMP)
-        );
-    }
+    RefreshToken searchByRereshToken(String refreshToken);
 
-    public void updateRefreshToken(RefreshToken token)
-    {
-        Integer status_id = token.getTokenStatus().id();
-        Integer token_id = token.getId();
-        Instant expire_time = token.getExpireTime();
-        try {
-            // manipulate database
-            this.template.update(
-                    "UPDATE idm.refresh_token " +
-                            "SET token_status_id = :token_status_id, expire_time = :expire_time WHERE id = :token_id;",
-                    new MapSqlParameterSource()
-                            .addValue("token_status_id", status_id, Types.INTEGER)
-                            .addValue("token_id", token_id, Types.INTEGER)
-                            .addValue("expire_time", Timestamp.from(expire_time), Types.TIMESTAMP)
-                    // Date to Timestamp ? ?
-                    // do I need to add more values ??
-            );
-        } catch (DataAccessException e) {
-            throw new ResultError(IDMResults.REFRESH_TOKEN_NOT_FOUND);}
-    }
+    /**
+     * Slides the expiry of an active, unexpired refresh token whose max life time
+     * allows {@code newExpireTime}, atomically.
+     *
+     * @return the token's user, or null if any condition failed
+     */
+    User extendRefreshToken(String refreshToken, Instant now, Instant newExpireTime);
 
+    /**
+     * Revokes {@code token} and inserts {@code replacement}, atomically.
+     *
+     * @return false if the old token was no longer active
+     */
+    boolean rotateRefreshToken(RefreshToken token, RefreshToken replacement);
 
-    public User searchById(Integer id) {
-        try {
-            // expect return only one row
-            User user = this.template.queryForObject(
-                    "SELECT id, email, user_status_id, salt, hashed_password FROM idm.user WHERE id = :id;",
-                    new MapSqlParameterSource()
-                            .addValue("id", id, Types.INTEGER),
-                    (rs, rowNum) ->
-                            new User()
-                                    .setId(rs.getInt("id"))
-                                    .setEmail(rs.getString("email"))
-                                    .setUserStatus(UserStatus.fromId(rs.getInt("user_status_id")))
-                                    .setSalt(rs.getString("salt"))
-                                    .setHashedPassword(rs.getString("hashed_password")));
-            return user;
-        } catch (DataAccessException e) {
-            throw new ResultError(IDMResults.USER_NOT_FOUND);
-        }
-    }
+    /**
+     * Moves the expiry of each active token forward to the given time, never back.
+     */
+    void updateRefreshTokenExpireTimes(Map<Integer, Instant> expireTimes);
 
-}
+    List<Integer> selectReapableRefreshTokenIds(int afterId, Instant cutoff, int limit);
+
+    int deleteRefreshTokens(List<Integer> ids, Instant cutoff);
 
+    void insertUser(String email, Integer user_status_id, String salt, String hashed_password);
 
+    void updateUserPassword(Integer id, String hashed_password);
 
+    void insertRefreshToken(RefreshToken refreshToken);
+
+    void insertRefreshTokens(List<RefreshToken> refreshTokens);
+
+    void updateRefreshToken(RefreshToken token);
+}
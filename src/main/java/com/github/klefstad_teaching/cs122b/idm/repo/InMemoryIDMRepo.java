@@ -0,0 +1,326 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps users and refresh tokens in concurrent maps, for load testing the
+ * controller, hashing and token path without MySQL. Enabled with the
+ * {@code in-memory} profile, nothing survives a restart.
+ * <p>
+ * Every call first waits {@code idm.in-memory.latency}, so a realistic database
+ * round trip can be put back in when needed. Conditional updates lock the one
+ * token they touch, which gives the same outcome as the SQL versions under
+ * concurrent refreshes. Emails and tokens compare case insensitively, like the
+ * MySQL columns.
+ */
+@Component
+@Profile(InMemoryIDMRepo.PROFILE)
+public class InMemoryIDMRepo implements IDMRepo
+{
+    public static final String PROFILE = "in-memory";
+
+    private final long latencyNanos;
+
+    private final AtomicInteger        userIds       = new AtomicInteger();
+    private final Map<Integer, User>   users         = new ConcurrentHashMap<>();
+    private final Map<String, Integer> userIdByEmail = new ConcurrentHashMap<>();
+
+    // ordered by id so the reaper can walk it like the primary key
+    private final AtomicInteger                               tokenIds      = new AtomicInteger();
+    private final ConcurrentSkipListMap<Integer, RefreshToken> tokens        = new ConcurrentSkipListMap<>();
+    private final Map<String, RefreshToken>                   tokensByValue = new ConcurrentHashMap<>();
+
+    @Autowired
+    public InMemoryIDMRepo(IDMServiceConfig serviceConfig)
+    {
+        this.latencyNanos = serviceConfig.inMemory().latency().toNanos();
+    }
+
+    @Override
+    public User searchByEmail(String email)
+    {
+        delay();
+
+        Integer id = userIdByEmail.get(key(email));
+        User user = id == null ? null : users.get(id);
+
+        if (user == null)
+            throw new ResultError(IDMResults.USER_NOT_FOUND);
+        return copyOf(user);
+    }
+
+    @Override
+    public User searchById(Integer id)
+    {
+        delay();
+
+        User user = users.get(id);
+
+        if (user == null)
+            throw new ResultError(IDMResults.USER_NOT_FOUND);
+        return copyOf(user);
+    }
+
+    @Override
+    public RefreshToken searchByRereshToken(String refreshToken)
+    {
+        delay();
+
+        RefreshToken token = tokensByValue.get(key(refreshToken));
+
+        if (token == null)
+            throw new ResultError(IDMResults.REFRESH_TOKEN_NOT_FOUND);
+
+        synchronized (token) {
+            return copyOf(token).setToken(refreshToken);
+        }
+    }
+
+    @Override
+    public User extendRefreshToken(String refreshToken, Instant now, Instant newExpireTime)
+    {
+        delay();
+
+        RefreshToken token = tokensByValue.get(key(refreshToken));
+        if (token == null)
+            return null;
+
+        synchronized (token) {
+            if (! isStored(token) ||
+                token.getTokenStatus() != TokenStatus.ACTIVE ||
+                token.getExpireTime().isBefore(now) ||
+                token.getMaxLifeTime().isBefore(newExpireTime))
+                return null;
+
+            token.setExpireTime(newExpireTime);
+        }
+
+        User user = users.get(token.getUserId());
+        return user == null ? null : copyOf(user);
+    }
+
+    @Override
+    public boolean rotateRefreshToken(RefreshToken token, RefreshToken replacement)
+    {
+        delay();
+
+        RefreshToken stored = tokens.get(token.getId());
+        if (stored == null)
+            return false;
+
+        // the lock stands in for the transaction's row lock, a concurrent rotation
+        // waits and then sees the outcome, never a revoke that is being undone
+        synchronized (stored) {
+            if (! isStored(stored) || stored.getTokenStatus() != TokenStatus.ACTIVE)
+                return false;
+
+            stored.setTokenStatus(TokenStatus.REVOKED);
+
+            try {
+                insert(replacement);
+            } catch (RuntimeException e) {
+                stored.setTokenStatus(TokenStatus.ACTIVE);
+                throw e;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void updateRefreshTokenExpireTimes(Map<Integer, Instant> expireTimes)
+    {
+        delay();
+
+        expireTimes.forEach((id, expireTime) -> {
+            RefreshToken token = tokens.get(id);
+            if (token == null)
+                return;
+
+            synchronized (token) {
+                if (token.getTokenStatus() == TokenStatus.ACTIVE && token.getExpireTime().isBefore(expireTime))
+                    token.setExpireTime(expireTime);
+            }
+        });
+    }
+
+    @Override
+    public List<Integer> selectReapableRefreshTokenIds(int afterId, Instant cutoff, int limit)
+    {
+        delay();
+
+        List<Integer> ids = new ArrayList<>();
+
+        for (RefreshToken token : tokens.tailMap(afterId, false).values()) {
+            if (ids.size() == limit)
+                break;
+            if (isReapable(token, cutoff))
+                ids.add(token.getId());
+        }
+
+        return ids;
+    }
+
+    @Override
+    public int deleteRefreshTokens(List<Integer> ids, Instant cutoff)
+    {
+        delay();
+
+        int deleted = 0;
+
+        for (Integer id : ids) {
+            RefreshToken token = tokens.get(id);
+            if (token == null)
+                continue;
+
+            // an extension between the check and the remove would otherwise be lost
+            synchronized (token) {
+                if (! isReapable(token, cutoff))
+                    continue;
+
+                tokens.remove(id);
+                tokensByValue.remove(key(token.getToken()));
+            }
+            deleted++;
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public void insertUser(String email, Integer user_status_id, String salt, String hashed_password)
+    {
+        delay();
+
+        int id = userIds.incrementAndGet();
+
+        // the row goes in before its email is claimed, so a lookup that finds the
+        // email always finds the user; a losing insert takes its row back
+        users.put(id,
+                  new User()
+                          .setId(id)
+                          .setEmail(email)
+                          .setUserStatus(UserStatus.fromId(user_status_id))
+                          .setSalt(salt)
+                          .setHashedPassword(hashed_password));
+
+        if (userIdByEmail.putIfAbsent(key(email), id) != null) {
+            users.remove(id);
+            throw new ResultError(IDMResults.USER_ALREADY_EXISTS);
+        }
+    }
+
+    @Override
+    public void updateUserPassword(Integer id, String hashed_password)
+    {
+        delay();
+
+        users.computeIfPresent(id, (key, user) -> copyOf(user).setSalt(null).setHashedPassword(hashed_password));
+    }
+
+    @Override
+    public void insertRefreshToken(RefreshToken refreshToken)
+    {
+        delay();
+
+        insert(refreshToken);
+    }
+
+    @Override
+    public void insertRefreshTokens(List<RefreshToken> refreshTokens)
+    {
+        delay();
+
+        refreshTokens.forEach(this::insert);
+    }
+
+    @Override
+    public void updateRefreshToken(RefreshToken token)
+    {
+        delay();
+
+        RefreshToken stored = tokens.get(token.getId());
+        if (stored == null)
+            return;
+
+        synchronized (stored) {
+            stored.setTokenStatus(token.getTokenStatus())
+                  .setExpireTime(token.getExpireTime());
+        }
+    }
+
+    private void insert(RefreshToken refreshToken)
+    {
+        RefreshToken stored = copyOf(refreshToken).setId(tokenIds.incrementAndGet());
+
+        if (tokensByValue.putIfAbsent(key(stored.getToken()), stored) != null)
+            throw new IllegalStateException("Duplicate refresh token");
+
+        tokens.put(stored.getId(), stored);
+    }
+
+    // false once deleteRefreshTokens removed it, like an UPDATE that finds no row
+    private boolean isStored(RefreshToken token)
+    {
+        return tokens.get(token.getId()) == token;
+    }
+
+    private static boolean isReapable(RefreshToken token, Instant cutoff)
+    {
+        synchronized (token) {
+            return token.getExpireTime().isBefore(cutoff) || token.getMaxLifeTime().isBefore(cutoff);
+        }
+    }
+
+    private void delay()
+    {
+        if (latencyNanos > 0)
+            LockSupport.parkNanos(latencyNanos);
+    }
+
+    private static String key(String value)
+    {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    private static User copyOf(User user)
+    {
+        return new User()
+                .setId(user.getId())
+                .setEmail(user.getEmail())
+                .setUserStatus(user.getUserStatus())
+                .setSalt(user.getSalt())
+                .setHashedPassword(user.getHashedPassword())
+                .setRoles(user.getRoles());
+    }
+
+    private static RefreshToken copyOf(RefreshToken token)
+    {
+        return new RefreshToken()
+                .setId(token.getId())
+                .setToken(token.getToken())
+                .setUserId(token.getUserId())
+                .setTokenStatus(token.getTokenStatus())
+                .setExpireTime(token.getExpireTime())
+                .setMaxLifeTime(token.getMaxLifeTime());
+    }
+}
@@ -0,0 +1,438 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import com.github.klefstad_teaching.cs122b.idm.util.TokenUuid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All SQL is positional and fixed at construction, parameters are bound by
+ * index in a {@code PreparedStatementSetter} and columns are read by index, so a
+ * query costs no parameter maps, no named-parameter parsing and no column name
+ * lookups. The column numbers in the row mappers follow the SELECT lists right
+ * above them.
+ */
+@Component
+@Profile("!" + InMemoryIDMRepo.PROFILE)
+public class JdbcIDMRepo implements IDMRepo
+{
+    // 1 id, 2 email, 3 user_status_id, 4 salt, 5 hashed_password, 6 role_id
+    private static final String SELECT_USER_WITH_ROLES =
+            "SELECT u.id, u.email, u.user_status_id, u.salt, u.hashed_password, ur.role_id " +
+                    "FROM idm.user u " +
+                    "LEFT JOIN idm.user_role ur ON ur.user_id = u.id ";
+
+    private static final String SEARCH_USER_BY_EMAIL = SELECT_USER_WITH_ROLES + "WHERE u.email = ?;";
+    private static final String SEARCH_USER_BY_ID    = SELECT_USER_WITH_ROLES + "WHERE u.id = ?;";
+
+    private static final String ROTATE_REFRESH_TOKEN =
+            "UPDATE idm.refresh_token SET token_status_id = ? WHERE id = ? AND token_status_id = ?;";
+
+    private static final String UPDATE_REFRESH_TOKEN_EXPIRE_TIME =
+            "UPDATE idm.refresh_token SET expire_time = ? " +
+                    "WHERE id = ? AND token_status_id = ? AND expire_time < ?;";
+
+    private static final String SELECT_REAPABLE_REFRESH_TOKEN_IDS =
+            "SELECT id FROM idm.refresh_token " +
+                    "WHERE id > ? AND (expire_time < ? OR max_life_time < ?) " +
+                    "ORDER BY id LIMIT ?;";
+
+    private static final String INSERT_USER =
+            "INSERT INTO idm.user (email, user_status_id, salt, hashed_password) VALUES (?, ?, ?, ?);";
+
+    private static final String UPDATE_USER_PASSWORD =
+            "UPDATE idm.user SET salt = NULL, hashed_password = ? WHERE id = ?;";
+
+    private static final String UPDATE_REFRESH_TOKEN =
+            "UPDATE idm.refresh_token SET token_status_id = ?, expire_time = ? WHERE id = ?;";
+
+    private static final ResultSetExtractor<User> USER_WITH_ROLES = JdbcIDMRepo::extractUserWithRoles;
+
+    private final JdbcTemplate                  template;
+    private final IDMServiceConfig.TokenStorage tokenStorage;
+
+    // the statements that depend on which refresh token column is in use
+    private final String insertRefreshToken;
+    private final String searchRefreshToken;
+    private final String extendRefreshToken;
+    private final String searchUserByRefreshToken;
+
+    @Autowired
+    public JdbcIDMRepo(JdbcTemplate template, IDMServiceConfig serviceConfig)
+    {
+        this.template = template;
+        this.tokenStorage = serviceConfig.refreshTokenStorage();
+
+        String tokenColumn;
+        switch (tokenStorage) {
+            case DUAL:
+                this.insertRefreshToken =
+                        "INSERT INTO idm.refresh_token (token, token_bin, user_id, token_status_id, expire_time, max_life_time) " +
+                                "VALUES (?, ?, ?, ?, ?, ?);";
+                tokenColumn = "token";
+                break;
+            case BINARY:
+                this.insertRefreshToken =
+                        "INSERT INTO idm.refresh_token (token_bin, user_id, token_status_id, expire_time, max_life_time) " +
+                                "VALUES (?, ?, ?, ?, ?);";
+                tokenColumn = "token_bin";
+                break;
+            default:
+                this.insertRefreshToken =
+                        "INSERT INTO idm.refresh_token (token, user_id, token_status_id, expire_time, max_life_time) " +
+                                "VALUES (?, ?, ?, ?, ?);";
+                tokenColumn = "token";
+                break;
+        }
+
+        // 1 id, 2 user_id, 3 token_status_id, 4 expire_time, 5 max_life_time
+        this.searchRefreshToken =
+                "SELECT id, user_id, token_status_id, expire_time, max_life_time " +
+                        "FROM idm.refresh_token " +
+                        "WHERE " + tokenColumn + " = ?;";
+        this.extendRefreshToken =
+                "UPDATE idm.refresh_token " +
+                        "SET expire_time = ? " +
+                        "WHERE " + tokenColumn + " = ? " +
+                        "AND token_status_id = ? " +
+                        "AND expire_time >= ? " +
+                        "AND max_life_time >= ?;";
+        this.searchUserByRefreshToken =
+                SELECT_USER_WITH_ROLES +
+                        "JOIN idm.refresh_token rt ON rt.user_id = u.id " +
+                        "WHERE rt." + tokenColumn + " = ?;";
+    }
+    // do sql in workbench
+    public JdbcTemplate getTemplate() {
+        return template;
+    }
+    @Override
+    public User searchByEmail(String email) {
+        // one row per role, the roles come with the user in the same round trip
+        User user = this.template.query(
+                SEARCH_USER_BY_EMAIL,
+                ps -> ps.setString(1, email),
+                USER_WITH_ROLES);
+
+        if (user == null)
+            throw new ResultError(IDMResults.USER_NOT_FOUND);
+        return user;
+    }
+    @Override
+    public RefreshToken searchByRereshToken(String refreshToken)
+    {
+        // at most one row, a missing one is null; anything thrown is a real failure
+        RefreshToken token = this.template.query(
+                searchRefreshToken,
+                ps -> bindToken(ps, 1, refreshToken),
+                rs -> ! rs.next() ? null :
+                        new RefreshToken()
+                                .setId(rs.getInt(1))
+                                .setToken(refreshToken)
+                                .setUserId(rs.getInt(2))
+                                .setTokenStatus(TokenStatus.fromId(rs.getInt(3)))
+                                .setExpireTime(rs.getTimestamp(4).toInstant())
+                                .setMaxLifeTime(rs.getTimestamp(5).toInstant()));
+
+        if (token == null)
+            throw new ResultError(IDMResults.REFRESH_TOKEN_NOT_FOUND);
+        return token;
+    }
+
+    /**
+     * Slides the expiry of an active, unexpired refresh token whose max life time
+     * allows it, and returns the token's user. The conditional UPDATE checks and
+     * writes in one statement, so concurrent refreshes of one token cannot race;
+     * MySQL has no UPDATE ... RETURNING, the user comes from a follow up SELECT in
+     * the same transaction.
+     *
+     * @return the token's user, or null if any condition failed
+     */
+    @Override
+    @Transactional
+    public User extendRefreshToken(String refreshToken, Instant now, Instant newExpireTime)
+    {
+        Timestamp newExpire = Timestamp.from(newExpireTime);
+
+        int updated = this.template.update(
+                extendRefreshToken,
+                ps -> {
+                    ps.setTimestamp(1, newExpire);
+                    bindToken(ps, 2, refreshToken);
+                    ps.setInt(3, TokenStatus.ACTIVE.id());
+                    ps.setTimestamp(4, Timestamp.from(now));
+                    ps.setTimestamp(5, newExpire);
+                });
+
+        if (updated == 0)
+            return null;
+
+        return this.template.query(
+                searchUserByRefreshToken,
+                ps -> bindToken(ps, 1, refreshToken),
+                USER_WITH_ROLES);
+    }
+
+    /**
+     * Revokes {@code token} and inserts {@code replacement} in one transaction. Only
+     * the request that actually flips the old token from active gets to insert.
+     *
+     * @return false if the old token was no longer active
+     */
+    @Override
+    @Transactional
+    public boolean rotateRefreshToken(RefreshToken token, RefreshToken replacement)
+    {
+        int revoked = this.template.update(
+                ROTATE_REFRESH_TOKEN,
+                ps -> {
+                    ps.setInt(1, TokenStatus.REVOKED.id());
+                    ps.setInt(2, token.getId());
+                    ps.setInt(3, TokenStatus.ACTIVE.id());
+                });
+
+        if (revoked == 0)
+            return false;
+
+        insertRefreshToken(replacement);
+        return true;
+    }
+
+    /**
+     * Writes coalesced expiry extensions in one JDBC batch and one commit. Rows
+     * that changed status or already carry a later expiry are left alone.
+     */
+    @Override
+    @Transactional
+    public void updateRefreshTokenExpireTimes(Map<Integer, Instant> expireTimes)
+    {
+        List<Map.Entry<Integer, Instant>> entries = new ArrayList<>(expireTimes.entrySet());
+
+        this.template.batchUpdate(
+                UPDATE_REFRESH_TOKEN_EXPIRE_TIME,
+                new BatchPreparedStatementSetter()
+                {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException
+                    {
+                        Timestamp expireTime = Timestamp.from(entries.get(i).getValue());
+
+                        ps.setTimestamp(1, expireTime);
+                        ps.setInt(2, entries.get(i).getKey());
+                        ps.setInt(3, TokenStatus.ACTIVE.id());
+                        ps.setTimestamp(4, expireTime);
+                    }
+
+                    @Override
+                    public int getBatchSize()
+                    {
+                        return entries.size();
+                    }
+                });
+    }
+
+    /**
+     * @return up to {@code limit} ids after {@code afterId}, in primary key order, of
+     * refresh tokens whose expiry or max life time is before {@code cutoff}
+     */
+    @Override
+    public List<Integer> selectReapableRefreshTokenIds(int afterId, Instant cutoff, int limit)
+    {
+        Timestamp cutoffTime = Timestamp.from(cutoff);
+
+        return this.template.query(
+                SELECT_REAPABLE_REFRESH_TOKEN_IDS,
+                ps -> {
+                    ps.setInt(1, afterId);
+                    ps.setTimestamp(2, cutoffTime);
+                    ps.setTimestamp(3, cutoffTime);
+                    ps.setInt(4, limit);
+                },
+                (rs, rowNum) -> rs.getInt(1));
+    }
+
+    // the condition is checked again, a token may have been extended since it was selected
+    @Override
+    public int deleteRefreshTokens(List<Integer> ids, Instant cutoff)
+    {
+        StringBuilder sql = new StringBuilder("DELETE FROM idm.refresh_token WHERE id IN (");
+        for (int i = 0; i < ids.size(); i++)
+            sql.append(i == 0 ? "?" : ", ?");
+        sql.append(") AND (expire_time < ? OR max_life_time < ?);");
+
+        Timestamp cutoffTime = Timestamp.from(cutoff);
+
+        return this.template.update(
+                sql.toString(),
+                ps -> {
+                    int index = 1;
+                    for (Integer id : ids)
+                        ps.setInt(index++, id);
+                    ps.setTimestamp(index++, cutoffTime);
+                    ps.setTimestamp(index, cutoffTime);
+                });
+    }
+
+    @Override
+    public void insertUser(String email, Integer user_status_id, String salt, String hashed_password)
+    {
+        try {
+            // manipulate database
+            this.template.update(
+                    INSERT_USER,
+                    ps -> {
+                        ps.setString(1, email);
+                        ps.setInt(2, user_status_id);
+                        ps.setString(3, salt);
+                        ps.setString(4, hashed_password);
+                    });
+        } catch (DuplicateKeyException e) {
+            // only the unique email, a pool or connection failure stays a 500
+            throw new ResultError(IDMResults.USER_ALREADY_EXISTS);
+        }
+    }
+    @Override
+    public void updateUserPassword(Integer id, String hashed_password)
+    {
+        this.template.update(
+                UPDATE_USER_PASSWORD,
+                ps -> {
+                    ps.setString(1, hashed_password);
+                    ps.setInt(2, id);
+                });
+    }
+
+    @Override
+    public void insertRefreshToken(RefreshToken refreshToken)
+    {
+            // manipulate database
+        this.template.update(insertRefreshToken, ps -> bindRefreshToken(ps, refreshToken));
+    }
+
+    /**
+     * Inserts {@code refreshTokens} as one JDBC batch under a single commit.
+     */
+    @Override
+    @Transactional
+    public void insertRefreshTokens(List<RefreshToken> refreshTokens)
+    {
+        this.template.batchUpdate(
+                insertRefreshToken,
+                new BatchPreparedStatementSetter()
+                {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException
+                    {
+                        bindRefreshToken(ps, refreshTokens.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize()
+                    {
+                        return refreshTokens.size();
+                    }
+                });
+    }
+
+    private void bindRefreshToken(PreparedStatement ps, RefreshToken refreshToken) throws SQLException
+    {
+        int index = 1;
+
+        if (tokenStorage != IDMServiceConfig.TokenStorage.BINARY)
+            ps.setString(index++, refreshToken.getToken());
+        if (tokenStorage != IDMServiceConfig.TokenStorage.TEXT)
+            ps.setBytes(index++, TokenUuid.toBytes(refreshToken.getToken()));
+
+        ps.setInt(index++, refreshToken.getUserId());
+        ps.setInt(index++, refreshToken.getTokenStatus().id());
+        ps.setTimestamp(index++, Timestamp.from(refreshToken.getExpireTime()));
+        ps.setTimestamp(index, Timestamp.from(refreshToken.getMaxLifeTime()));
+    }
+
+    // binds the token the way the lookup column stores it
+    private void bindToken(PreparedStatement ps, int index, String refreshToken) throws SQLException
+    {
+        if (tokenStorage == IDMServiceConfig.TokenStorage.BINARY)
+            ps.setBytes(index, TokenUuid.toBytes(refreshToken));
+        else
+            ps.setString(index, refreshToken);
+    }
+
+    @Override
+    public void updateRefreshToken(RefreshToken token)
+    {
+        Integer status_id = token.getTokenStatus().id();
+        Integer token_id = token.getId();
+        Instant expire_time = token.getExpireTime();
+
+        this.template.update(
+                UPDATE_REFRESH_TOKEN,
+                ps -> {
+                    ps.setInt(1, status_id);
+                    ps.setTimestamp(2, Timestamp.from(expire_time));
+                    ps.setInt(3, token_id);
+                });
+    }
+
+
+    @Override
+    public User searchById(Integer id) {
+        User user = this.template.query(
+                SEARCH_USER_BY_ID,
+                ps -> ps.setInt(1, id),
+                USER_WITH_ROLES);
+
+        if (user == null)
+            throw new ResultError(IDMResults.USER_NOT_FOUND);
+        return user;
+    }
+
+    // null if there was no row, the user's roles otherwise sit in role_id, one per row
+    private static User extractUserWithRoles(ResultSet rs) throws SQLException
+    {
+        User user = null;
+
+        while (rs.next()) {
+            if (user == null) {
+                user = new User()
+                        .setId(rs.getInt(1))
+                        .setEmail(rs.getString(2))
+                        .setUserStatus(UserStatus.fromId(rs.getInt(3)))
+                        .setSalt(rs.getString(4))
+                        .setHashedPassword(rs.getString(5));
+            }
+
+            int roleId = rs.getInt(6);
+            if (! rs.wasNull())
+                user.setRole(Role.fromId(roleId));
+        }
+
+        return user;
+    }
+
+}
+
+
+
@@ -0,0 +1,316 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Applies the versioned scripts under {@code idm.migration.locations} on startup
+ * and records them in {@code idm.schema_version}. Scripts are named
+ * {@code V<version>__<description>.sql} and run once, in version order; an
+ * applied script whose checksum changed stops the service from starting.
+ * <p>
+ * A database created from db.sql before migrations existed is baselined: the
+ * versions up to {@code baselineVersion} are recorded as applied without
+ * running them. Concurrent nodes serialize on a MySQL named lock.
+ * <p>
+ * With {@code idm.migration.enabled: false} nothing is changed, but a database
+ * that has not been brought up to the newest script stops the service from
+ * starting instead of failing on the first query that needs the newer schema.
+ */
+@Component
+@Profile("!" + InMemoryIDMRepo.PROFILE)
+public class SchemaMigrator implements InitializingBean
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    private static final Pattern SCRIPT_NAME       = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final String  LOCK_NAME         = "idm.schema_migration";
+    private static final int     LOCK_TIMEOUT_SECS = 300;
+    private static final long    BASELINE_CHECKSUM = 0;
+
+    private final NamedParameterJdbcTemplate template;
+    private final IDMServiceConfig.Migration config;
+
+    @Autowired
+    public SchemaMigrator(NamedParameterJdbcTemplate template, IDMServiceConfig serviceConfig)
+    {
+        this.template = template;
+        this.config = serviceConfig.migration();
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (config.enabled())
+            migrate();
+        else
+            verify();
+    }
+
+    /**
+     * @throws IllegalStateException if a script has not been applied
+     */
+    public void verify()
+    {
+        List<Migration> migrations = discover();
+
+        this.template.getJdbcTemplate().execute((ConnectionCallback<Void>) connection -> {
+            Map<Integer, Long> applied = tableExists(connection, "schema_version")
+                                         ? appliedChecksums(connection)
+                                         : new HashMap<>();
+
+            for (Migration migration : migrations) {
+                if (! applied.containsKey(migration.version))
+                    throw new IllegalStateException(
+                            "Migration " + migration.script + " has not been applied and idm.migration.enabled is false, " +
+                            "enable it or apply the script by hand");
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * @return the number of scripts applied
+     */
+    public int migrate()
+    {
+        List<Migration> migrations = discover();
+
+        // the named lock belongs to the session, everything runs on one connection
+        Integer applied = this.template.getJdbcTemplate().execute(
+                (ConnectionCallback<Integer>) connection -> migrate(connection, migrations));
+
+        return applied == null ? 0 : applied;
+    }
+
+    private int migrate(Connection connection, List<Migration> migrations) throws SQLException
+    {
+        lock(connection);
+        try {
+            createVersionTable(connection);
+
+            Map<Integer, Long> applied = appliedChecksums(connection);
+
+            if (applied.isEmpty() && tableExists(connection, "refresh_token"))
+                baseline(connection, migrations, applied);
+
+            int count = 0;
+            for (Migration migration : migrations) {
+                Long checksum = applied.get(migration.version);
+
+                if (checksum == null) {
+                    apply(connection, migration);
+                    count++;
+                } else if (checksum != BASELINE_CHECKSUM && checksum != migration.checksum) {
+                    throw new IllegalStateException(
+                            "Migration " + migration.script + " changed after it was applied, add a new version instead");
+                }
+            }
+
+            if (count > 0)
+                LOG.info("Applied {} schema migrations", count);
+
+            return count;
+        } finally {
+            unlock(connection);
+        }
+    }
+
+    private List<Migration> discover()
+    {
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        Map<Integer, Migration>             byVersion = new HashMap<>();
+
+        for (String location : config.locations()) {
+            Resource[] resources;
+            try {
+                resources = resolver.getResources(location + "/V*__*.sql");
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not list migrations in " + location, e);
+            }
+
+            for (Resource resource : resources) {
+                Migration migration = Migration.of(resource);
+                Migration existing = byVersion.putIfAbsent(migration.version, migration);
+
+                if (existing != null)
+                    throw new IllegalStateException(
+                            "Migrations " + existing.script + " and " + migration.script + " share a version");
+            }
+        }
+
+        List<Migration> migrations = new ArrayList<>(byVersion.values());
+        migrations.sort(Comparator.comparingInt(migration -> migration.version));
+        return migrations;
+    }
+
+    private void createVersionTable(Connection connection) throws SQLException
+    {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE SCHEMA IF NOT EXISTS idm");
+            statement.execute(
+                    "CREATE TABLE IF NOT EXISTS idm.schema_version " +
+                            "(" +
+                            "    version         INT            NOT NULL PRIMARY KEY," +
+                            "    description     VARCHAR(128)   NOT NULL," +
+                            "    script          VARCHAR(255)   NOT NULL," +
+                            "    checksum        BIGINT         NOT NULL," +
+                            "    installed_on    TIMESTAMP      NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                            "    execution_ms    INT            NOT NULL" +
+                            ")");
+        }
+    }
+
+    private Map<Integer, Long> appliedChecksums(Connection connection) throws SQLException
+    {
+        Map<Integer, Long> applied = new HashMap<>();
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT version, checksum FROM idm.schema_version")) {
+            while (rs.next())
+                applied.put(rs.getInt("version"), rs.getLong("checksum"));
+        }
+
+        return applied;
+    }
+
+    private void baseline(Connection connection, List<Migration> migrations, Map<Integer, Long> applied)
+            throws SQLException
+    {
+        for (Migration migration : migrations) {
+            if (migration.version > config.baselineVersion())
+                break;
+
+            record(connection, migration, "<< baseline >>", BASELINE_CHECKSUM, 0);
+            applied.put(migration.version, BASELINE_CHECKSUM);
+        }
+
+        LOG.info("Baselined the existing schema at version {}", config.baselineVersion());
+    }
+
+    // MySQL commits DDL implicitly, a script that fails halfway has to be finished by hand
+    private void apply(Connection connection, Migration migration) throws SQLException
+    {
+        long start = System.nanoTime();
+
+        ScriptUtils.executeSqlScript(connection, new EncodedResource(migration.resource, StandardCharsets.UTF_8));
+
+        int executionMillis = (int) ((System.nanoTime() - start) / 1_000_000);
+        record(connection, migration, migration.description, migration.checksum, executionMillis);
+
+        LOG.info("Applied {} in {} ms", migration.script, executionMillis);
+    }
+
+    private void record(Connection connection, Migration migration, String description, long checksum, int executionMillis)
+            throws SQLException
+    {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO idm.schema_version (version, description, script, checksum, execution_ms) " +
+                        "VALUES (?, ?, ?, ?, ?)")) {
+            statement.setInt(1, migration.version);
+            statement.setString(2, description);
+            statement.setString(3, migration.script);
+            statement.setLong(4, checksum);
+            statement.setInt(5, executionMillis);
+            statement.executeUpdate();
+        }
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException
+    {
+        try (ResultSet rs = connection.getMetaData().getTables("idm", null, table, new String[] {"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    private static void lock(Connection connection) throws SQLException
+    {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.setInt(2, LOCK_TIMEOUT_SECS);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                if (! rs.next() || rs.getInt(1) != 1)
+                    throw new IllegalStateException("Timed out waiting for another node's schema migration");
+            }
+        }
+    }
+
+    private static void unlock(Connection connection) throws SQLException
+    {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.executeQuery().close();
+        }
+    }
+
+    private static final class Migration
+    {
+        private final int      version;
+        private final String   description;
+        private final String   script;
+        private final long     checksum;
+        private final Resource resource;
+
+        private Migration(int version, String description, String script, long checksum, Resource resource)
+        {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+            this.checksum = checksum;
+            this.resource = resource;
+        }
+
+        private static Migration of(Resource resource)
+        {
+            String  script = resource.getFilename();
+            Matcher matcher = SCRIPT_NAME.matcher(script == null ? "" : script);
+
+            if (! matcher.matches())
+                throw new IllegalStateException("Migration " + script + " is not named V<version>__<description>.sql");
+
+            CRC32 crc = new CRC32();
+            try (InputStream in = resource.getInputStream()) {
+                crc.update(StreamUtils.copyToByteArray(in));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read migration " + script, e);
+            }
+
+            return new Migration(Integer.parseInt(matcher.group(1)),
+                                 matcher.group(2).replace('_', ' '),
+                                 script,
+                                 crc.getValue(),
+                                 resource);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times every call into the active repository as {@code idm.repo}, tagged with
+ * the query. Being {@code @Primary} it is what the rest of the service gets
+ * injected; its own constructor gets the one other {@link IDMRepo}, Spring
+ * leaves a bean out of its own candidates.
+ * <p>
+ * The time includes waiting for a pooled connection, compare with the
+ * {@code idm.pool} acquire time to tell the pool from the database.
+ */
+@Component
+@Primary
+public class TimedIDMRepo implements IDMRepo
+{
+    private static final String TIMER = "idm.repo";
+
+    private final IDMRepo       delegate;
+    private final MeterRegistry registry;
+
+    private final Timer searchByEmail;
+    private final Timer searchById;
+    private final Timer searchByRefreshToken;
+    private final Timer extendRefreshToken;
+    private final Timer rotateRefreshToken;
+    private final Timer updateRefreshTokenExpireTimes;
+    private final Timer selectReapableRefreshTokenIds;
+    private final Timer deleteRefreshTokens;
+    private final Timer insertUser;
+    private final Timer updateUserPassword;
+    private final Timer insertRefreshToken;
+    private final Timer insertRefreshTokens;
+    private final Timer updateRefreshToken;
+
+    @Autowired
+    public TimedIDMRepo(IDMRepo delegate, MeterRegistry registry)
+    {
+        this.delegate = delegate;
+        this.registry = registry;
+
+        this.searchByEmail = timer("search_by_email");
+        this.searchById = timer("search_by_id");
+        this.searchByRefreshToken = timer("search_by_refresh_token");
+        this.extendRefreshToken = timer("extend_refresh_token");
+        this.rotateRefreshToken = timer("rotate_refresh_token");
+        this.updateRefreshTokenExpireTimes = timer("update_refresh_token_expire_times");
+        this.selectReapableRefreshTokenIds = timer("select_reapable_refresh_token_ids");
+        this.deleteRefreshTokens = timer("delete_refresh_tokens");
+        this.insertUser = timer("insert_user");
+        this.updateUserPassword = timer("update_user_password");
+        this.insertRefreshToken = timer("insert_refresh_token");
+        this.insertRefreshTokens = timer("insert_refresh_tokens");
+        this.updateRefreshToken = timer("update_refresh_token");
+    }
+
+    private Timer timer(String query)
+    {
+        return Timer.builder(TIMER)
+                    .description("IDM repository calls, including the wait for a connection")
+                    .tag("query", query)
+                    .register(registry);
+    }
+
+    @Override
+    public User searchByEmail(String email)
+    {
+        return searchByEmail.record(() -> delegate.searchByEmail(email));
+    }
+
+    @Override
+    public User searchById(Integer id)
+    {
+        return searchById.record(() -> delegate.searchById(id));
+    }
+
+    @Override
+    public RefreshToken searchByRereshToken(String refreshToken)
+    {
+        return searchByRefreshToken.record(() -> delegate.searchByRereshToken(refreshToken));
+    }
+
+    @Override
+    public User extendRefreshToken(String refreshToken, Instant now, Instant newExpireTime)
+    {
+        return extendRefreshToken.record(() -> delegate.extendRefreshToken(refreshToken, now, newExpireTime));
+    }
+
+    @Override
+    public boolean rotateRefreshToken(RefreshToken token, RefreshToken replacement)
+    {
+        return rotateRefreshToken.record(() -> delegate.rotateRefreshToken(token, replacement));
+    }
+
+    @Override
+    public void updateRefreshTokenExpireTimes(Map<Integer, Instant> expireTimes)
+    {
+        updateRefreshTokenExpireTimes.record(() -> delegate.updateRefreshTokenExpireTimes(expireTimes));
+    }
+
+    @Override
+    public List<Integer> selectReapableRefreshTokenIds(int afterId, Instant cutoff, int limit)
+    {
+        return selectReapableRefreshTokenIds.record(() -> delegate.selectReapableRefreshTokenIds(afterId, cutoff, limit));
+    }
+
+    @Override
+    public int deleteRefreshTokens(List<Integer> ids, Instant cutoff)
+    {
+        return deleteRefreshTokens.record(() -> delegate.deleteRefreshTokens(ids, cutoff));
+    }
+
+    @Override
+    public void insertUser(String email, Integer user_status_id, String salt, String hashed_password)
+    {
+        insertUser.record(() -> delegate.insertUser(email, user_status_id, salt, hashed_password));
+    }
+
+    @Override
+    public void updateUserPassword(Integer id, String hashed_password)
+    {
+        updateUserPassword.record(() -> delegate.updateUserPassword(id, hashed_password));
+    }
+
+    @Override
+    public void insertRefreshToken(RefreshToken refreshToken)
+    {
+        insertRefreshToken.record(() -> delegate.insertRefreshToken(refreshToken));
+    }
+
+    @Override
+    public void insertRefreshTokens(List<RefreshToken> refreshTokens)
+    {
+        insertRefreshTokens.record(() -> delegate.insertRefreshTokens(refreshTokens));
+    }
+
+    @Override
+    public void updateRefreshToken(RefreshToken token)
+    {
+        updateRefreshToken.record(() -> delegate.updateRefreshToken(token));
+    }
+}
@@ -9,6 +9,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -21,6 +22,8 @@ public class User
     private String     hashedPassword;
 
     private List<Role> roles;
+    // the roles as Role.mask() bits, for the roles claim and hasRole
+    private int        roleMask;
 
     public Integer getId()
     {
@@ -77,30 +80,44 @@ public class User
         return this;
     }
 
+    /**
+     * Read only, roles are added through the setters so the mask stays in step.
+     */
     public List<Role> getRoles()
     {
-        if (roles == null) {
-            this.roles = new ArrayList<>();
-        }
-
-        return roles;
+        return roles == null ? Collections.emptyList() : Collections.unmodifiableList(roles);
     }
 
     public User setRoles(Role... roles)
     {
-        getRoles().addAll(Arrays.asList(roles));
-        return this;
+        return setRoles(Arrays.asList(roles));
     }
 
     public User setRoles(List<Role> roles)
     {
-        getRoles().addAll(roles);
+        for (Role role : roles)
+            setRole(role);
         return this;
     }
 
     public User setRole(Role role)
     {
-        getRoles().add(role);
+        if (roles == null) {
+            this.roles = new ArrayList<>();
+        }
+
+        roles.add(role);
+        roleMask |= role.mask();
         return this;
     }
+
+    public int getRoleMask()
+    {
+        return roleMask;
+    }
+
+    public boolean hasRole(Role role)
+    {
+        return Role.has(roleMask, role);
+    }
 }
@@ -3,6 +3,12 @@ package com.github.klefstad_teaching.cs122b.idm.repo.entity.type;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
 public enum Role
 {
     ADMIN(1, "Admin", "Role for admin access", 5),
@@ -14,6 +20,25 @@ public enum Role
     private final String description;
     private final int    precedence;
 
+    // the roles claim for every combination of roles, indexed by mask
+    private static final List<List<String>> NAMES_BY_MASK;
+
+    static {
+        Role[] roles = values();
+
+        List<List<String>> namesByMask = new ArrayList<>(1 << roles.length);
+        for (int mask = 0; mask < 1 << roles.length; mask++) {
+            List<String> names = new ArrayList<>();
+            for (Role role : roles) {
+                if (has(mask, role))
+                    names.add(role.name);
+            }
+            namesByMask.add(Collections.unmodifiableList(names));
+        }
+
+        NAMES_BY_MASK = Collections.unmodifiableList(namesByMask);
+    }
+
     Role(int id, String name, String description, int precedence)
     {
         this.id = id;
@@ -52,4 +77,44 @@ public enum Role
 
         throw new IllegalArgumentException("Id not found");
     }
+
+    /**
+     * @return this role's bit, ids start at 1
+     */
+    public int mask() { return 1 << (id - 1); }
+
+    public static int maskOf(Collection<Role> roles)
+    {
+        int mask = 0;
+
+        for (Role role : roles)
+            mask |= role.mask();
+
+        return mask;
+    }
+
+    public static boolean has(int mask, Role role)
+    {
+        return (mask & role.mask()) != 0;
+    }
+
+    public static EnumSet<Role> fromMask(int mask)
+    {
+        EnumSet<Role> roles = EnumSet.noneOf(Role.class);
+
+        for (Role role : values()) {
+            if (has(mask, role))
+                roles.add(role);
+        }
+
+        return roles;
+    }
+
+    /**
+     * @return the role names for {@code mask}, shared and unmodifiable
+     */
+    public static List<String> names(int mask)
+    {
+        return NAMES_BY_MASK.get(mask);
+    }
 }
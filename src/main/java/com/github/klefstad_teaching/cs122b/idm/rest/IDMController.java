@@ -2,10 +2,13 @@ package com.github.klefstad_teaching.cs122b.idm.rest;
 
 import com.github.klefstad_teaching.cs122b.core.error.ResultError;
 import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.component.AccessTokenVerification;
 import com.github.klefstad_teaching.cs122b.idm.component.IDMAuthenticationManager;
 import com.github.klefstad_teaching.cs122b.idm.component.IDMJwtManager;
+import com.github.klefstad_teaching.cs122b.idm.model.request.AuthenticateBatchRequestModel;
 import com.github.klefstad_teaching.cs122b.idm.model.request.LoginRequestModel;
 import com.github.klefstad_teaching.cs122b.idm.model.request.RefreshRequestModel;
+import com.github.klefstad_teaching.cs122b.idm.model.response.AuthenticateBatchResponseModel;
 import com.github.klefstad_teaching.cs122b.idm.model.response.AuthenticateResponseModel;
 import com.github.klefstad_teaching.cs122b.idm.model.response.LoginResponseModel;
 import com.github.klefstad_teaching.cs122b.idm.model.response.RegisterResponseModel;
@@ -17,13 +20,16 @@ import com.github.klefstad_teaching.cs122b.idm.util.Validate;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.proc.BadJOSEException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.time.Instant;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 // line 140
 @RestController
 public class    IDMController
@@ -41,48 +47,13 @@ public class    IDMController
         this.jwtManager = jwtManager;
         this.validate = validate;
     }
-    // all input, output, result
-    private void validateEmail(String email)
-    {
-        if (email.length() > 32 || email.length() < 6)
-            throw new ResultError(IDMResults.EMAIL_ADDRESS_HAS_INVALID_LENGTH);
-
-        if (! Pattern.matches("[A-Za-z0-9]+@[A-Za-z0-9]+\\.[A-Za-z0-9]+", email))
-            throw new ResultError(IDMResults.EMAIL_ADDRESS_HAS_INVALID_FORMAT);
-
-    }
-    private void validatePassword(String password)
-    {
-        if (password.length() > 20 || password.length() < 10)
-        throw new ResultError(IDMResults.PASSWORD_DOES_NOT_MEET_LENGTH_REQUIREMENTS);
-        if (! Pattern.matches("^[a-zA-Z0-9]+$", password))
-            throw new ResultError(IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
-        boolean hasUpperCase = false;
-        boolean hasLowerCase = false;
-        boolean hasNumberCase = false;
-        for (char c: password.toCharArray()){
-            if (c >= 'A' && c <= 'Z'){
-                hasUpperCase = true;
-            }
-            else if (c >= 'a' && c <= 'z'){
-                hasLowerCase = true;
-            }
-            else if (c >= '0' && c <= '9'){
-                hasNumberCase = true;
-            }
-        }
-        if (!hasUpperCase || !hasLowerCase || !hasNumberCase)
-            throw new ResultError(IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
-
-    }
 
     @PostMapping("/login")
     public ResponseEntity<LoginResponseModel> login(
             @RequestBody LoginRequestModel request) throws BadJOSEException, JOSEException {
         // Input validate here, throw error
-        validateEmail(request.getEmail());
-        String string = new String(request.getPassword());
-        validatePassword(string);
+        validate.email(request.getEmail());
+        validate.password(request.getPassword());
 
         User user = authManager.selectAndAuthenticateUser(request.getEmail(), request.getPassword());
         LoginResponseModel response = new LoginResponseModel();
@@ -95,7 +66,7 @@ public class    IDMController
         RefreshToken refreshToken = jwtManager.buildRefreshToken(user.getId());
 
         // ?? casting Date to timestamp ? ?
-        authManager.repo.insertRefreshToken(refreshToken);
+        authManager.insertRefreshToken(refreshToken);
 
         response.setAccessToken(accessToken);
         response.setRefreshToken(refreshToken.getToken());
@@ -108,9 +79,8 @@ public class    IDMController
     public ResponseEntity<RegisterResponseModel> register(
             @RequestBody LoginRequestModel request) throws BadJOSEException, JOSEException {
         // Input validate here, throw error
-        validateEmail(request.getEmail());
-        String string = new String(request.getPassword());
-        validatePassword(string);
+        validate.email(request.getEmail());
+        validate.password(request.getPassword());
         authManager.createAndInsertUser(request.getEmail(), request.getPassword());
         RegisterResponseModel response = new RegisterResponseModel();
         response.setResult(IDMResults.USER_REGISTERED_SUCCESSFULLY);
@@ -122,7 +92,24 @@ public class    IDMController
     public ResponseEntity<LoginResponseModel> refresh(
             @RequestBody RefreshRequestModel request) throws BadJOSEException, JOSEException {
         // Input validate here, throw error
+        authManager.validateRefreshToken(request.getRefreshToken());
+
+        // common case: one conditional UPDATE slides the expiry of an active token
+        Instant now = Instant.now();
+        User user = authManager.extendRefreshToken(request.getRefreshToken(),
+                                                   now,
+                                                   jwtManager.refreshTokenExpireTime(now));
+
+        LoginResponseModel response = new LoginResponseModel();
+
+        if (user != null) {
+            response.setAccessToken(jwtManager.buildAccessToken(user));
+            response.setRefreshToken(request.getRefreshToken());
+            response.setResult(IDMResults.RENEWED_FROM_REFRESH_TOKEN);
+            return response.toResponse();
+        }
 
+        // otherwise find out why: unknown, expired, revoked or at the end of its max life
         RefreshToken token = authManager.verifyRefreshToken(request.getRefreshToken());
         if (token.getTokenStatus() == TokenStatus.fromId(2)){
             throw new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED);
@@ -134,28 +121,16 @@ public class    IDMController
         if (jwtManager.hasExpired(token))
         {
             authManager.expireRefreshToken(token);
-            System.out.println("CURRENT TIME: " + Instant.now());
-            System.out.println("EXPIRE TIME: " + token.getExpireTime());
             throw new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED);
         }
-        // Update expire time
-        jwtManager.updateRefreshTokenExpireTime(token);
-        LoginResponseModel response = new LoginResponseModel();
-        response.setAccessToken(jwtManager.buildAccessToken(authManager.getUserFromRefreshToken(token)));
-        if (token.getExpireTime().isAfter(token.getMaxLifeTime()))
-        {
-            // revoke
-            authManager.revokeRefreshToken(token);
-            RefreshToken new_token = jwtManager.buildRefreshToken(token.getId());
-            authManager.repo.insertRefreshToken(new_token);
-            response.setRefreshToken(new_token.getToken());
-            response.setResult(IDMResults.RENEWED_FROM_REFRESH_TOKEN);
-            return response.toResponse();
-        }
 
-        // update table
-        authManager.updateRefreshTokenExpireTime(token); // repo
-        response.setRefreshToken(token.getToken());
+        // still active, so extending it would have passed its max life time: rotate
+        RefreshToken newToken = jwtManager.buildRefreshToken(token.getUserId());
+        if (! authManager.rotateRefreshToken(token, newToken))
+            throw new ResultError(IDMResults.REFRESH_TOKEN_IS_REVOKED);
+
+        response.setAccessToken(jwtManager.buildAccessToken(authManager.getUserFromRefreshToken(token)));
+        response.setRefreshToken(newToken.getToken());
         response.setResult(IDMResults.RENEWED_FROM_REFRESH_TOKEN);
 
         return response.toResponse();
@@ -172,4 +147,24 @@ public class    IDMController
         response.setResult(IDMResults.ACCESS_TOKEN_IS_VALID);
         return response.toResponse();
     }
+
+    @PostMapping("/authenticate/batch")
+    public ResponseEntity<AuthenticateBatchResponseModel> authenticateBatch(
+            @RequestBody AuthenticateBatchRequestModel request) {
+        if (request.getAccessTokens() == null)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "accessTokens is required");
+
+        List<AuthenticateBatchResponseModel.TokenResult> results = new ArrayList<>();
+        for (AccessTokenVerification verification : jwtManager.verifyAccessTokens(request.getAccessTokens())) {
+            results.add(
+                    new AuthenticateBatchResponseModel.TokenResult()
+                            .setResult(verification.result())
+                            .setClaims(verification.isValid() ? verification.claims().toJSONObject() : null));
+        }
+
+        // each token carries its own result, the request itself has none
+        AuthenticateBatchResponseModel response = new AuthenticateBatchResponseModel();
+        response.setResults(results);
+        return ResponseEntity.ok(response);
+    }
 }
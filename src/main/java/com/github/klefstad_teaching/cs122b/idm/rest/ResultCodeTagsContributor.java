@@ -0,0 +1,71 @@
+package com.github.klefstad_teaching.cs122b.idm.rest;
+
+import com.github.klefstad_teaching.cs122b.core.base.ResponseModel;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.boot.actuate.metrics.web.servlet.WebMvcTagsContributor;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Adds a {@code result} tag with the {@code IDMResults} code to the
+ * {@code http.server.requests} timer of every endpoint. The code is picked up
+ * from the response body as it is written, which covers both the controller's
+ * responses and the ones built from a thrown {@code ResultError}; responses
+ * without a result (e.g. /authenticate/batch) are tagged {@code none}.
+ */
+@ControllerAdvice
+public class ResultCodeTagsContributor implements ResponseBodyAdvice<Object>, WebMvcTagsContributor
+{
+    private static final String RESULT_CODE = ResultCodeTagsContributor.class.getName() + ".RESULT_CODE";
+
+    private static final Tag NO_RESULT = Tag.of("result", "none");
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType)
+    {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body,
+                                  MethodParameter returnType,
+                                  MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request,
+                                  ServerHttpResponse response)
+    {
+        if (body instanceof ResponseModel && request instanceof ServletServerHttpRequest) {
+            Result result = ((ResponseModel<?>) body).getResult();
+            if (result != null)
+                ((ServletServerHttpRequest) request).getServletRequest().setAttribute(RESULT_CODE, result.code());
+        }
+        return body;
+    }
+
+    @Override
+    public Iterable<Tag> getTags(HttpServletRequest request,
+                                 HttpServletResponse response,
+                                 Object handler,
+                                 Throwable exception)
+    {
+        Object code = request.getAttribute(RESULT_CODE);
+        return code == null ? Tags.of(NO_RESULT) : Tags.of("result", code.toString());
+    }
+
+    @Override
+    public Iterable<Tag> getLongRequestTags(HttpServletRequest request, Object handler)
+    {
+        return Tags.empty();
+    }
+}
@@ -0,0 +1,323 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Issues compact access tokens for one signing key without going through
+ * {@code JWSHeader}, {@code JWTClaimsSet} and their JSON maps for every token.
+ * <p>
+ * The Base64URL header is encoded once. The claims are written straight into a
+ * pooled buffer, in the same shape {@code IDMJwtManager} builds them with
+ * nimbus:
+ * <pre>
+ *     {"sub":"&lt;email&gt;","exp":&lt;seconds&gt;,"id":&lt;user id&gt;,"roles":[...],"iat":&lt;seconds&gt;}
+ * </pre>
+ * The ECDSA signature is the only per token crypto. The JDK's P1363 signature
+ * format is already the fixed length R || S that JWS expects, so no DER
+ * transcoding is needed.
+ * <p>
+ * Buffers and their initialised {@link Signature} are kept in a pool of about
+ * one per core rather than per thread, so thread-per-request virtual threads
+ * reuse them instead of building a new set for every token.
+ */
+public final class AccessTokenEncoder
+{
+    private static final byte[] BASE64URL =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] SUB   = ascii("{\"sub\":\"");
+    private static final byte[] EXP   = ascii("\",\"exp\":");
+    private static final byte[] ID    = ascii(",\"" + JWTManager.CLAIM_ID + "\":");
+    private static final byte[] ROLES = ascii(",\"" + JWTManager.CLAIM_ROLES + "\":");
+    private static final byte[] IAT   = ascii(",\"iat\":");
+
+    private final byte[]                header;
+    private final byte[][]              rolesByMask;
+    private final PrivateKey            privateKey;
+    private final String                signatureAlgorithm;
+    private final int                   signatureLength;
+    private final BlockingQueue<Buffer> buffers;
+
+    public AccessTokenEncoder(ECKey key, JWSHeader header)
+    {
+        JWSAlgorithm algorithm = header.getAlgorithm();
+
+        if (JWSAlgorithm.ES256.equals(algorithm)) {
+            this.signatureAlgorithm = "SHA256withECDSAinP1363Format";
+            this.signatureLength = 64;
+        } else if (JWSAlgorithm.ES384.equals(algorithm)) {
+            this.signatureAlgorithm = "SHA384withECDSAinP1363Format";
+            this.signatureLength = 96;
+        } else if (JWSAlgorithm.ES512.equals(algorithm)) {
+            this.signatureAlgorithm = "SHA512withECDSAinP1363Format";
+            this.signatureLength = 132;
+        } else {
+            throw new IllegalArgumentException("Not an ECDSA JWS algorithm: " + algorithm);
+        }
+
+        if (! Curve.forJWSAlgorithm(algorithm).contains(key.getCurve()))
+            throw new IllegalArgumentException(algorithm + " can not sign with a " + key.getCurve() + " key");
+
+        try {
+            this.privateKey = key.toECPrivateKey();
+        } catch (JOSEException e) {
+            throw new IllegalArgumentException("Key " + key.getKeyID() + " has no private part", e);
+        }
+
+        // fail at startup rather than on the first login if the JDK lacks the algorithm
+        newSignature();
+
+        this.header = ascii(header.toBase64URL().toString() + ".");
+        this.rolesByMask = rolesByMask();
+        // encoding never blocks, so more buffers than cores would rarely be in use at once
+        this.buffers = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+    }
+
+    private Signature newSignature()
+    {
+        try {
+            Signature signature = Signature.getInstance(signatureAlgorithm);
+            signature.initSign(privateKey);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Can not sign with " + signatureAlgorithm, e);
+        }
+    }
+
+    // there are only 2^roles masks, render the JSON array of each one up front
+    private static byte[][] rolesByMask()
+    {
+        byte[][] rolesByMask = new byte[1 << Role.values().length][];
+
+        for (int mask = 0; mask < rolesByMask.length; mask++) {
+            List<String> names = Role.names(mask);
+
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < names.size(); i++) {
+                if (i > 0)
+                    json.append(',');
+                json.append('"').append(names.get(i)).append('"');
+            }
+            rolesByMask[mask] = json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        return rolesByMask;
+    }
+
+    /**
+     * @param issueTime  seconds since the epoch, as in {@code iat}
+     * @param expireTime seconds since the epoch, as in {@code exp}
+     * @return the compact serialization, {@code header.claims.signature}
+     */
+    public String encode(String subject, Integer userId, int roleMask, long issueTime, long expireTime)
+        throws JOSEException
+    {
+        Buffer buffer = buffers.poll();
+        if (buffer == null)
+            buffer = new Buffer(newSignature());
+
+        try {
+            return encode(buffer, subject, userId, roleMask, issueTime, expireTime);
+        } finally {
+            // dropped if the pool is already full
+            buffers.offer(buffer);
+        }
+    }
+
+    private String encode(Buffer buffer, String subject, Integer userId, int roleMask, long issueTime, long expireTime)
+        throws JOSEException
+    {
+        buffer.claimsLength = 0;
+        buffer.claims(SUB);
+        buffer.jsonString(subject);
+        buffer.claims(EXP);
+        buffer.number(expireTime);
+        // JWTClaimsSet leaves null claims out
+        if (userId != null) {
+            buffer.claims(ID);
+            buffer.number(userId);
+        }
+        buffer.claims(ROLES);
+        buffer.claims(rolesByMask[roleMask]);
+        buffer.claims(IAT);
+        buffer.number(issueTime);
+        buffer.claim((byte) '}');
+
+        int signingInputLength = header.length + encodedLength(buffer.claimsLength);
+        byte[] out = buffer.out(signingInputLength + 1 + encodedLength(signatureLength));
+
+        System.arraycopy(header, 0, out, 0, header.length);
+        base64Url(buffer.claims, buffer.claimsLength, out, header.length);
+        out[signingInputLength] = '.';
+
+        byte[] signature;
+        try {
+            buffer.signature.update(out, 0, signingInputLength);
+            signature = buffer.signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new JOSEException("Could not sign the access token", e);
+        }
+
+        int length = base64Url(signature, signature.length, out, signingInputLength + 1);
+
+        return new String(out, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private static int encodedLength(int length)
+    {
+        return length / 3 * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+
+    // unpadded, as JWS requires; returns the end of the encoded bytes in dst
+    private static int base64Url(byte[] src, int length, byte[] dst, int offset)
+    {
+        int i = 0;
+
+        for (; i + 3 <= length; i += 3) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dst[offset++] = BASE64URL[bits >>> 18];
+            dst[offset++] = BASE64URL[bits >>> 12 & 0x3f];
+            dst[offset++] = BASE64URL[bits >>> 6 & 0x3f];
+            dst[offset++] = BASE64URL[bits & 0x3f];
+        }
+
+        if (length - i == 1) {
+            int bits = (src[i] & 0xff) << 16;
+            dst[offset++] = BASE64URL[bits >>> 18];
+            dst[offset++] = BASE64URL[bits >>> 12 & 0x3f];
+        } else if (length - i == 2) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8;
+            dst[offset++] = BASE64URL[bits >>> 18];
+            dst[offset++] = BASE64URL[bits >>> 12 & 0x3f];
+            dst[offset++] = BASE64URL[bits >>> 6 & 0x3f];
+        }
+
+        return offset;
+    }
+
+    private static byte[] ascii(String text)
+    {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A signature and scratch space, used by one encode at a time. Both only grow.
+     */
+    private static final class Buffer
+    {
+        private final Signature signature;
+
+        private byte[] claims = new byte[256];
+        private int    claimsLength;
+        private byte[] out    = new byte[512];
+
+        private Buffer(Signature signature)
+        {
+            this.signature = signature;
+        }
+
+        private byte[] out(int length)
+        {
+            if (out.length < length)
+                out = new byte[Math.max(length, out.length * 2)];
+            return out;
+        }
+
+        private void ensure(int extra)
+        {
+            if (claimsLength + extra > claims.length)
+                claims = Arrays.copyOf(claims, Math.max(claimsLength + extra, claims.length * 2));
+        }
+
+        private void claim(byte b)
+        {
+            ensure(1);
+            claims[claimsLength++] = b;
+        }
+
+        private void claims(byte[] bytes)
+        {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, claims, claimsLength, bytes.length);
+            claimsLength += bytes.length;
+        }
+
+        private void number(long value)
+        {
+            if (value < 0) {
+                claim((byte) '-');
+                value = -value;
+            }
+
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10)
+                digits++;
+
+            ensure(digits);
+            for (int i = claimsLength + digits - 1; i >= claimsLength; i--) {
+                claims[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            claimsLength += digits;
+        }
+
+        // the contents of a JSON string as UTF-8, escaping what JSON requires
+        private void jsonString(String text)
+        {
+            // worst case is six bytes per char, for an escaped control character
+            ensure(text.length() * 6);
+
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+
+                if (c == '"' || c == '\\') {
+                    claims[claimsLength++] = '\\';
+                    claims[claimsLength++] = (byte) c;
+                } else if (c < 0x20) {
+                    claims[claimsLength++] = '\\';
+                    claims[claimsLength++] = 'u';
+                    claims[claimsLength++] = '0';
+                    claims[claimsLength++] = '0';
+                    claims[claimsLength++] = HEX[c >>> 4];
+                    claims[claimsLength++] = HEX[c & 0xf];
+                } else if (c < 0x80) {
+                    claims[claimsLength++] = (byte) c;
+                } else if (c < 0x800) {
+                    claims[claimsLength++] = (byte) (0xc0 | c >>> 6);
+                    claims[claimsLength++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+                           Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    claims[claimsLength++] = (byte) (0xf0 | codePoint >>> 18);
+                    claims[claimsLength++] = (byte) (0x80 | codePoint >>> 12 & 0x3f);
+                    claims[claimsLength++] = (byte) (0x80 | codePoint >>> 6 & 0x3f);
+                    claims[claimsLength++] = (byte) (0x80 | codePoint & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    // a lone surrogate, replaced the way String.getBytes would
+                    claims[claimsLength++] = '?';
+                } else {
+                    claims[claimsLength++] = (byte) (0xe0 | c >>> 12);
+                    claims[claimsLength++] = (byte) (0x80 | c >>> 6 & 0x3f);
+                    claims[claimsLength++] = (byte) (0x80 | c & 0x3f);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * A password hash together with everything needed to recompute it:
+ * <pre>
+ *     $pbkdf2-sha512$i=10000$&lt;base64 salt&gt;$&lt;base64 hash&gt;
+ * </pre>
+ * Rows written before this format existed keep the salt in its own column and
+ * the bare hash in {@code hashed_password}; {@link #fromColumns} reads both.
+ */
+public final class EncodedPassword
+{
+    private static final Logger LOG = LoggerFactory.getLogger(EncodedPassword.class);
+
+    private static final char   SEPARATOR   = '$';
+    private static final String COST_PREFIX = "i=";
+
+    // the settings every row was hashed with before the format was versioned
+    private static final String LEGACY_ALGORITHM  = "pbkdf2-sha512";
+    private static final int    LEGACY_ITERATIONS = 10000;
+
+    private final String algorithm;
+    private final int    cost;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    public EncodedPassword(String algorithm, int cost, byte[] salt, byte[] hash)
+    {
+        this.algorithm = Objects.requireNonNull(algorithm);
+        this.cost = cost;
+        this.salt = Objects.requireNonNull(salt);
+        this.hash = Objects.requireNonNull(hash);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the row holds neither format
+     */
+    public static EncodedPassword fromColumns(String salt, String hashedPassword)
+    {
+        if (hashedPassword == null || hashedPassword.isEmpty())
+            throw new IllegalArgumentException("No password hash");
+
+        if (hashedPassword.charAt(0) == SEPARATOR)
+            return parse(hashedPassword);
+
+        if (salt == null)
+            throw new IllegalArgumentException("A legacy password hash without its salt");
+
+        byte[] saltBytes;
+        byte[] hash;
+        try {
+            saltBytes = Base64.getDecoder().decode(salt);
+            hash = Base64.getDecoder().decode(hashedPassword);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Not a legacy password hash", e);
+        }
+
+        if (saltBytes.length == 0)
+            throw new IllegalArgumentException("A legacy password hash without its salt");
+
+        return new EncodedPassword(LEGACY_ALGORITHM, LEGACY_ITERATIONS, saltBytes, hash);
+    }
+
+    /**
+     * The password of a user row. A row we can not read fails the login like a
+     * wrong password, not with a 500.
+     *
+     * @throws ResultError with {@code INVALID_CREDENTIALS} if the row holds neither format
+     */
+    public static EncodedPassword ofUser(User user)
+    {
+        try {
+            return fromColumns(user.getSalt(), user.getHashedPassword());
+        } catch (IllegalArgumentException e) {
+            LOG.error("Stored password of user {} is malformed", user.getId(), e);
+            throw new ResultError(IDMResults.INVALID_CREDENTIALS);
+        }
+    }
+
+    public static EncodedPassword parse(String encoded)
+    {
+        String[] parts = encoded.split("\\$", -1);
+
+        if (parts.length != 5 || ! parts[0].isEmpty() || ! parts[2].startsWith(COST_PREFIX))
+            throw new IllegalArgumentException("Not an encoded password");
+
+        int    cost;
+        byte[] salt;
+        byte[] hash;
+        try {
+            cost = Integer.parseInt(parts[2].substring(COST_PREFIX.length()));
+            salt = Base64.getDecoder().decode(parts[3]);
+            hash = Base64.getDecoder().decode(parts[4]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Not an encoded password", e);
+        }
+
+        // an empty hash would match every password
+        if (parts[1].isEmpty() || cost < 1 || salt.length == 0 || hash.length == 0)
+            throw new IllegalArgumentException("Not an encoded password");
+
+        return new EncodedPassword(parts[1], cost, salt, hash);
+    }
+
+    public String encode()
+    {
+        return SEPARATOR + algorithm +
+               SEPARATOR + COST_PREFIX + cost +
+               SEPARATOR + Base64.getEncoder().encodeToString(salt) +
+               SEPARATOR + Base64.getEncoder().encodeToString(hash);
+    }
+
+    public String algorithm()
+    {
+        return algorithm;
+    }
+
+    public int cost()
+    {
+        return cost;
+    }
+
+    public byte[] salt()
+    {
+        return salt;
+    }
+
+    public byte[] hash()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return SEPARATOR + algorithm + SEPARATOR + COST_PREFIX + cost + SEPARATOR + "...";
+    }
+}
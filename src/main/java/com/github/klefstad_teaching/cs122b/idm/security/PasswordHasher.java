@@ -0,0 +1,49 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+/**
+ * Hashes and checks passwords using the self describing {@link EncodedPassword}
+ * format, so the algorithm and cost of every stored hash travel with the hash.
+ */
+public interface PasswordHasher
+{
+    /**
+     * @return the algorithm id written into new hashes, e.g. {@code pbkdf2-sha512}
+     */
+    String algorithm();
+
+    /**
+     * @return true if this hasher can check hashes written with {@code algorithm}
+     */
+    boolean supports(String algorithm);
+
+    /**
+     * Hashes {@code password} with a fresh salt and the currently configured cost.
+     */
+    EncodedPassword hash(char[] password);
+
+    /**
+     * Checks {@code password} against {@code encoded} using the algorithm, cost and
+     * salt recorded in {@code encoded} rather than the current settings.
+     */
+    boolean verify(char[] password, EncodedPassword encoded);
+
+    /**
+     * {@link #verify} for a hash read back from a user row, which may have been
+     * written with an algorithm this hasher does not know.
+     *
+     * @throws IllegalStateException if {@code stored} was
+     */
+    default boolean verifyStored(char[] password, EncodedPassword stored)
+    {
+        if (! supports(stored.algorithm()))
+            throw new IllegalStateException("No password hasher for " + stored.algorithm());
+
+        return verify(password, stored);
+    }
+
+    /**
+     * @return true if {@code encoded} was written with settings other than the
+     * current ones and should be replaced the next time the password is known
+     */
+    boolean needsRehash(EncodedPassword encoded);
+}
@@ -0,0 +1,255 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Pbkdf2PasswordHasher implements PasswordHasher
+{
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    // a Mac is not thread safe, each hashing thread keeps its own
+    private static final Map<String, ThreadLocal<Mac>> MACS = threadLocalMacs();
+
+    private static final int    CALIBRATION_ITERATIONS = 10000;
+    private static final int    CALIBRATION_ROUNDS     = 10;
+    private static final int    MIN_ITERATIONS         = 1000;
+    private static final char[] CALIBRATION_PASSWORD   = "CalibrationPassWord0".toCharArray();
+
+    private final String algorithm;
+    private final int    iterations;
+    private final int    keyBitLength;
+    private final int    saltByteLength;
+
+    public Pbkdf2PasswordHasher(String algorithm, int iterations, int keyBitLength, int saltByteLength)
+    {
+        // fail at startup rather than on the first login
+        if (! MACS.containsKey(algorithm))
+            throw new IllegalArgumentException("Unsupported password hash algorithm: " + algorithm);
+
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.keyBitLength = keyBitLength;
+        this.saltByteLength = saltByteLength;
+    }
+
+    /**
+     * Times {@code algorithm} on this machine and returns the iteration count that
+     * makes a single hash take roughly {@code target}, rounded to a multiple of 1000.
+     */
+    public static int calibrate(String algorithm, int keyBitLength, int saltByteLength, Duration target)
+    {
+        Pbkdf2PasswordHasher probe =
+            new Pbkdf2PasswordHasher(algorithm, CALIBRATION_ITERATIONS, keyBitLength, saltByteLength);
+
+        long fastest = Long.MAX_VALUE;
+
+        // the first rounds only warm up the JIT, the fastest round is the least noisy
+        for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+            long start = System.nanoTime();
+            probe.hash(CALIBRATION_PASSWORD);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+
+        long iterations = CALIBRATION_ITERATIONS * target.toNanos() / Math.max(fastest, 1);
+        iterations = Math.round(iterations / 1000.0) * 1000;
+
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_ITERATIONS, iterations));
+    }
+
+    public int iterations()
+    {
+        return iterations;
+    }
+
+    @Override
+    public String algorithm()
+    {
+        return algorithm;
+    }
+
+    @Override
+    public boolean supports(String algorithm)
+    {
+        return MACS.containsKey(algorithm);
+    }
+
+    @Override
+    public EncodedPassword hash(char[] password)
+    {
+        byte[] salt = new byte[saltByteLength];
+        SECURE_RANDOM.nextBytes(salt);
+
+        return new EncodedPassword(algorithm,
+                                   iterations,
+                                   salt,
+                                   pbkdf2(algorithm, password, salt, iterations, keyBitLength));
+    }
+
+    @Override
+    public boolean verify(char[] password, EncodedPassword encoded)
+    {
+        byte[] hash = pbkdf2(encoded.algorithm(),
+                             password,
+                             encoded.salt(),
+                             encoded.cost(),
+                             encoded.hash().length * Byte.SIZE);
+
+        // constant time, a mismatch must not reveal how many leading bytes matched
+        return MessageDigest.isEqual(hash, encoded.hash());
+    }
+
+    @Override
+    public boolean needsRehash(EncodedPassword encoded)
+    {
+        return ! algorithm.equals(encoded.algorithm()) ||
+               iterations != encoded.cost() ||
+               saltByteLength != encoded.salt().length ||
+               keyBitLength != encoded.hash().length * Byte.SIZE;
+    }
+
+    /**
+     * PBKDF2 (RFC 8018) on this thread's JCA {@link Mac}, equivalent to the
+     * {@code PBKDF2WithHmac*} factories without looking up a provider and building
+     * a {@code PBEKeySpec} per call. Every round writes its result into the same
+     * buffer through {@link Mac#doFinal(byte[], int)}.
+     */
+    private static byte[] pbkdf2(String algorithm, char[] password, byte[] salt, int iterations, int keyBitLength)
+    {
+        Mac    mac           = MACS.get(algorithm).get();
+        byte[] passwordBytes = encode(password);
+
+        int    macLength = mac.getMacLength();
+        int    keyLength = keyBitLength / Byte.SIZE;
+        byte[] key       = new byte[keyLength];
+        byte[] u         = new byte[macLength];
+        byte[] t         = new byte[macLength];
+
+        try {
+            mac.init(new PasswordKey(passwordBytes, mac.getAlgorithm()));
+
+            for (int block = 1, offset = 0; offset < keyLength; block++, offset += macLength) {
+                // U1 = PRF(password, salt || INT(block))
+                mac.update(salt);
+                mac.update((byte) (block >>> 24));
+                mac.update((byte) (block >>> 16));
+                mac.update((byte) (block >>> 8));
+                mac.update((byte) block);
+                mac.doFinal(u, 0);
+                System.arraycopy(u, 0, t, 0, macLength);
+
+                // Uj = PRF(password, Uj-1), T = U1 ^ U2 ^ ... ^ Uc
+                for (int i = 1; i < iterations; i++) {
+                    mac.update(u);
+                    mac.doFinal(u, 0);
+                    for (int j = 0; j < macLength; j++)
+                        t[j] ^= u[j];
+                }
+
+                System.arraycopy(t, 0, key, offset, Math.min(macLength, keyLength - offset));
+            }
+
+            return key;
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            // nothing derived from the password outlives the call, the Mac's own
+            // pads are overwritten by keying it with zeros
+            Arrays.fill(passwordBytes, (byte) 0);
+            Arrays.fill(u, (byte) 0);
+            Arrays.fill(t, (byte) 0);
+            clear(mac);
+        }
+    }
+
+    private static void clear(Mac mac)
+    {
+        try {
+            mac.init(new PasswordKey(new byte[1], mac.getAlgorithm()));
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // same UTF-8 conversion the JCA PBKDF2 implementation applies to the password
+    private static byte[] encode(char[] password)
+    {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[]     bytes   = new byte[encoded.remaining()];
+        encoded.get(bytes);
+
+        // the buffer is a copy of the password too
+        if (encoded.hasArray())
+            Arrays.fill(encoded.array(), (byte) 0);
+
+        return bytes;
+    }
+
+    private static Map<String, ThreadLocal<Mac>> threadLocalMacs()
+    {
+        Map<String, ThreadLocal<Mac>> macs = new HashMap<>();
+
+        macs.put("pbkdf2-sha1", ThreadLocal.withInitial(() -> mac("HmacSHA1")));
+        macs.put("pbkdf2-sha256", ThreadLocal.withInitial(() -> mac("HmacSHA256")));
+        macs.put("pbkdf2-sha512", ThreadLocal.withInitial(() -> mac("HmacSHA512")));
+
+        return Collections.unmodifiableMap(macs);
+    }
+
+    private static Mac mac(String algorithm)
+    {
+        try {
+            return Mac.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The password bytes as an HMAC key. {@code SecretKeySpec} rejects an empty
+     * key, PBKDF2 allows an empty password, as does the JDK's own PBKDF2 key.
+     * Hands out copies, the caller owns and clears the bytes.
+     */
+    private static final class PasswordKey implements SecretKey
+    {
+        private final byte[] bytes;
+        private final String algorithm;
+
+        private PasswordKey(byte[] bytes, String algorithm)
+        {
+            this.bytes = bytes;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String getAlgorithm()
+        {
+            return algorithm;
+        }
+
+        @Override
+        public String getFormat()
+        {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded()
+        {
+            return bytes.clone();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One immutable generation of the key ring: the key that signs new access tokens
+ * and a verifier for every key whose tokens are still accepted, looked up by
+ * {@code kid}. The first key signs, the rest only verify.
+ * <p>
+ * Everything derived from a key (header, signer, verifiers, encoder) is built
+ * here once, so swapping in a new generation is a single reference write.
+ */
+public final class SigningKeys
+{
+    private final ECKey                    signingKey;
+    private final JWSHeader                header;
+    private final JWSSigner                signer;
+    private final AccessTokenEncoder       encoder;
+    private final Map<String, JWSVerifier> verifiers;
+
+    private SigningKeys(List<ECKey> keys, boolean fastEncoder)
+        throws JOSEException
+    {
+        if (keys.isEmpty())
+            throw new IllegalArgumentException("The key ring has no keys");
+
+        Set<Curve> curves = Curve.forJWSAlgorithm(JWTManager.JWS_ALGORITHM);
+        Map<String, JWSVerifier> verifiers = new HashMap<>();
+
+        for (ECKey key : keys) {
+            if (key.getKeyID() == null)
+                throw new IllegalArgumentException("Every key in the ring needs a kid");
+            if (! curves.contains(key.getCurve()))
+                throw new IllegalArgumentException(
+                    "Key " + key.getKeyID() + " is " + key.getCurve() + ", " + JWTManager.JWS_ALGORITHM + " needs " + curves);
+            if (verifiers.put(key.getKeyID(), new ECDSAVerifier(key.toECPublicKey())) != null)
+                throw new IllegalArgumentException("Key " + key.getKeyID() + " is in the ring twice");
+        }
+
+        this.signingKey = keys.get(0);
+
+        if (! signingKey.isPrivate())
+            throw new IllegalArgumentException("Signing key " + signingKey.getKeyID() + " has no private part");
+
+        this.header =
+            new JWSHeader.Builder(JWTManager.JWS_ALGORITHM)
+                .keyID(signingKey.getKeyID())
+                .type(JWTManager.JWS_TYPE)
+                .build();
+        this.signer = new ECDSASigner(signingKey);
+        this.encoder = fastEncoder ? new AccessTokenEncoder(signingKey, header) : null;
+        this.verifiers = Collections.unmodifiableMap(verifiers);
+    }
+
+    public static SigningKeys of(List<ECKey> keys, boolean fastEncoder)
+        throws JOSEException
+    {
+        return new SigningKeys(keys, fastEncoder);
+    }
+
+    /**
+     * Reads a JWK set, signing key first, or a single JWK like {@code ec-key.json}.
+     */
+    public static List<ECKey> parse(String json)
+        throws ParseException
+    {
+        List<JWK> jwks;
+        try {
+            jwks = JWKSet.parse(json).getKeys();
+        } catch (ParseException e) {
+            jwks = Collections.singletonList(JWK.parse(json));
+        }
+
+        List<ECKey> keys = new ArrayList<>(jwks.size());
+        for (JWK jwk : jwks) {
+            if (! (jwk instanceof ECKey))
+                throw new ParseException("Key " + jwk.getKeyID() + " is not an EC key", 0);
+            keys.add((ECKey) jwk);
+        }
+
+        return keys;
+    }
+
+    public String signingKeyId()
+    {
+        return signingKey.getKeyID();
+    }
+
+    public JWSHeader header()
+    {
+        return header;
+    }
+
+    public JWSSigner signer()
+    {
+        return signer;
+    }
+
+    /**
+     * @return null if new tokens are signed through nimbus
+     */
+    public AccessTokenEncoder encoder()
+    {
+        return encoder;
+    }
+
+    /**
+     * @return the verifier for the key {@code header} names, null if the token
+     * was not signed by a key in the ring
+     */
+    public JWSVerifier verifier(JWSHeader header)
+    {
+        if (! JWTManager.JWS_ALGORITHM.equals(header.getAlgorithm()) || header.getKeyID() == null)
+            return null;
+
+        return verifiers.get(header.getKeyID());
+    }
+
+    public Set<String> keyIds()
+    {
+        return verifiers.keySet();
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the time of every hash and check of another hasher as
+ * {@code idm.password}, tagged with the operation. Checks are also tagged with
+ * whether the password matched.
+ */
+public class TimedPasswordHasher implements PasswordHasher
+{
+    private static final String TIMER = "idm.password";
+
+    private final PasswordHasher delegate;
+    private final Timer          hash;
+    private final Timer          verifyMatch;
+    private final Timer          verifyMismatch;
+
+    public TimedPasswordHasher(PasswordHasher delegate, MeterRegistry registry)
+    {
+        this.delegate = delegate;
+        this.hash = timer(registry, "hash", "none");
+        this.verifyMatch = timer(registry, "verify", "match");
+        this.verifyMismatch = timer(registry, "verify", "mismatch");
+    }
+
+    private Timer timer(MeterRegistry registry, String operation, String outcome)
+    {
+        return Timer.builder(TIMER)
+                    .description("Password hashing and checking")
+                    .tag("algorithm", delegate.algorithm())
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(registry);
+    }
+
+    @Override
+    public String algorithm()
+    {
+        return delegate.algorithm();
+    }
+
+    @Override
+    public boolean supports(String algorithm)
+    {
+        return delegate.supports(algorithm);
+    }
+
+    @Override
+    public EncodedPassword hash(char[] password)
+    {
+        long start = System.nanoTime();
+        try {
+            return delegate.hash(password);
+        } finally {
+            hash.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean verify(char[] password, EncodedPassword encoded)
+    {
+        long start = System.nanoTime();
+        boolean matches = delegate.verify(password, encoded);
+
+        (matches ? verifyMatch : verifyMismatch).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return matches;
+    }
+
+    @Override
+    public boolean needsRehash(EncodedPassword encoded)
+    {
+        return delegate.needsRehash(encoded);
+    }
+}
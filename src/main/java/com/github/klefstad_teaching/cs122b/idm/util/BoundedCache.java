@@ -0,0 +1,177 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size bounded LRU cache whose entries also carry their own expiry time.
+ * <p>
+ * The cache is split into independently locked segments so concurrent readers
+ * rarely contend; LRU order and the size bound are kept per segment.
+ */
+public class BoundedCache<K, V>
+{
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    private final LongAdder hits        = new LongAdder();
+    private final LongAdder misses      = new LongAdder();
+    private final LongAdder evictions   = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public BoundedCache(int maxSize)
+    {
+        int segmentSize = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment<>(segmentSize, this);
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it has expired
+     */
+    public V get(K key)
+    {
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V>      entry;
+
+        synchronized (segment) {
+            entry = segment.get(key);
+
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                segment.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.value;
+    }
+
+    public void put(K key, V value, long expiresAtMillis)
+    {
+        Segment<K, V> segment = segmentFor(key);
+
+        synchronized (segment) {
+            segment.put(key, new Entry<>(value, expiresAtMillis));
+        }
+    }
+
+    public void remove(K key)
+    {
+        Segment<K, V> segment = segmentFor(key);
+
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void clear()
+    {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long size()
+    {
+        long size = 0;
+
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    public long hits()
+    {
+        return hits.sum();
+    }
+
+    public long misses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return entries dropped to stay within the size bound
+     */
+    public long evictions()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * @return entries dropped because their expiry time passed
+     */
+    public long expirations()
+    {
+        return expirations.sum();
+    }
+
+    private Segment<K, V> segmentFor(K key)
+    {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static final class Entry<V>
+    {
+        private final V    value;
+        private final long expiresAtMillis;
+
+        private Entry(V value, long expiresAtMillis)
+        {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        private boolean isExpired(long nowMillis)
+        {
+            return nowMillis >= expiresAtMillis;
+        }
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, Entry<V>>
+    {
+        private final int                maxSize;
+        private final BoundedCache<K, V> cache;
+
+        private Segment(int maxSize, BoundedCache<K, V> cache)
+        {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.cache = cache;
+        }
+
+        // the least recently used entry is often one that already expired
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest)
+        {
+            if (size() <= maxSize)
+                return false;
+
+            if (eldest.getValue().isExpired(System.currentTimeMillis()))
+                cache.expirations.increment();
+            else
+                cache.evictions.increment();
+
+            return true;
+        }
+    }
+}
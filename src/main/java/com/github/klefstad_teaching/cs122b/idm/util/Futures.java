@@ -0,0 +1,62 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waiting on the futures of the IDM work queues from a request thread.
+ */
+public final class Futures
+{
+    private Futures() {}
+
+    /**
+     * Waits up to {@code timeoutMillis} for {@code future}, rethrowing whatever it
+     * failed with (e.g. a {@code ResultError}) instead of a wrapping
+     * {@link ExecutionException}. A caller that waits longer is answered with a
+     * 503 carrying {@code timeoutReason}, and {@code future} is cancelled so that
+     * a task still queued behind it is skipped rather than run for nobody.
+     */
+    public static <T> T await(CompletableFuture<T> future, long timeoutMillis, String timeoutReason)
+    {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new CompletionException(e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, timeoutReason);
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted", e);
+        }
+    }
+
+    /**
+     * Passes a cancellation of {@code dependent} back to {@code source}, which a
+     * future built with {@code thenApply} and friends does not do on its own.
+     *
+     * @return {@code dependent}
+     */
+    public static <T> CompletableFuture<T> cancelling(CompletableFuture<T> dependent, CompletableFuture<?> source)
+    {
+        dependent.whenComplete((result, failure) -> {
+            if (failure instanceof CancellationException)
+                source.cancel(false);
+        });
+
+        return dependent;
+    }
+}
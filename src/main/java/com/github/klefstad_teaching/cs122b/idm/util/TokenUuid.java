@@ -0,0 +1,110 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+
+/**
+ * Refresh tokens are UUIDs in their canonical 36 character form. These helpers
+ * check and convert that form in a single pass without going through
+ * {@link java.util.UUID} or creating intermediate strings.
+ */
+public final class TokenUuid
+{
+    public static final int TEXT_LENGTH  = 36;
+    public static final int BYTES_LENGTH = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private TokenUuid() {}
+
+    /**
+     * @return true if {@code token} is 8-4-4-4-12 hex digits, either case
+     */
+    public static boolean isValid(CharSequence token)
+    {
+        return parse(token, null);
+    }
+
+    /**
+     * Checks a refresh token sent by a client.
+     *
+     * @throws ResultError with {@code REFRESH_TOKEN_HAS_INVALID_LENGTH} or
+     * {@code REFRESH_TOKEN_HAS_INVALID_FORMAT}
+     */
+    public static void validateRefreshToken(String token)
+    {
+        if (token.length() != TEXT_LENGTH)
+            throw new ResultError(IDMResults.REFRESH_TOKEN_HAS_INVALID_LENGTH);
+        if (! isValid(token))
+            throw new ResultError(IDMResults.REFRESH_TOKEN_HAS_INVALID_FORMAT);
+    }
+
+    /**
+     * @return the 16 bytes of {@code token}
+     * @throws IllegalArgumentException if it is not a canonical UUID
+     */
+    public static byte[] toBytes(CharSequence token)
+    {
+        byte[] bytes = new byte[BYTES_LENGTH];
+
+        if (! parse(token, bytes))
+            throw new IllegalArgumentException("Not a canonical UUID");
+
+        return bytes;
+    }
+
+    public static String toText(byte[] bytes)
+    {
+        char[] text = new char[TEXT_LENGTH];
+        int    t = 0;
+
+        for (int i = 0; i < BYTES_LENGTH; i++) {
+            if (i == 4 || i == 6 || i == 8 || i == 10)
+                text[t++] = '-';
+
+            text[t++] = HEX[(bytes[i] >> 4) & 0xf];
+            text[t++] = HEX[bytes[i] & 0xf];
+        }
+
+        return new String(text);
+    }
+
+    // validates and, when out is not null, decodes in the same pass
+    private static boolean parse(CharSequence token, byte[] out)
+    {
+        if (token.length() != TEXT_LENGTH)
+            return false;
+
+        int b = 0;
+        for (int i = 0; i < TEXT_LENGTH; ) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (token.charAt(i++) != '-')
+                    return false;
+                continue;
+            }
+
+            int high = digit(token.charAt(i++));
+            int low = digit(token.charAt(i++));
+
+            if ((high | low) < 0)
+                return false;
+
+            if (out != null)
+                out[b] = (byte) (high << 4 | low);
+            b++;
+        }
+
+        return true;
+    }
+
+    private static int digit(char c)
+    {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'a' && c <= 'f')
+            return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F')
+            return c - 'A' + 10;
+        return -1;
+    }
+}
@@ -1,9 +1,96 @@
 package com.github.klefstad_teaching.cs122b.idm.util;
 
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+/**
+ * Request validation for /login and /register. Both checks are single pass
+ * scanners over the input, the password is read straight from the request's
+ * {@code char[]} and never copied into a {@code String}.
+ * <p>
+ * An email is {@code [A-Za-z0-9]+@[A-Za-z0-9]+\.[A-Za-z0-9]+}. A password is
+ * alphanumeric and, depending on the policy, needs an upper case letter, a
+ * lower case letter and a digit. The lengths come from {@code idm.validation}.
+ */
 @Component
 public final class Validate
 {
+    private final IDMServiceConfig.Validation policy;
 
+    @Autowired
+    public Validate(IDMServiceConfig serviceConfig)
+    {
+        this.policy = serviceConfig.validation();
+    }
+
+    public void email(String email)
+    {
+        if (email == null || email.length() > policy.emailMaxLength() || email.length() < policy.emailMinLength())
+            throw new ResultError(IDMResults.EMAIL_ADDRESS_HAS_INVALID_LENGTH);
+
+        if (! isEmail(email))
+            throw new ResultError(IDMResults.EMAIL_ADDRESS_HAS_INVALID_FORMAT);
+    }
+
+    public void password(char[] password)
+    {
+        if (password == null || password.length > policy.passwordMaxLength() || password.length < policy.passwordMinLength())
+            throw new ResultError(IDMResults.PASSWORD_DOES_NOT_MEET_LENGTH_REQUIREMENTS);
+
+        boolean hasUpperCase = false;
+        boolean hasLowerCase = false;
+        boolean hasDigit = false;
+
+        for (char c : password) {
+            if (c >= 'A' && c <= 'Z')
+                hasUpperCase = true;
+            else if (c >= 'a' && c <= 'z')
+                hasLowerCase = true;
+            else if (c >= '0' && c <= '9')
+                hasDigit = true;
+            else
+                throw new ResultError(IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
+        }
+
+        if ((policy.passwordRequireUpperCase() && ! hasUpperCase) ||
+            (policy.passwordRequireLowerCase() && ! hasLowerCase) ||
+            (policy.passwordRequireDigit() && ! hasDigit))
+            throw new ResultError(IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT);
+    }
+
+    // local part, '@', domain, '.', top level domain; every part at least one character
+    static boolean isEmail(CharSequence email)
+    {
+        int length = email.length();
+        int i = 0;
+
+        i = skipAlphanumeric(email, i);
+        if (i == 0 || i == length || email.charAt(i) != '@')
+            return false;
+
+        int domainStart = ++i;
+        i = skipAlphanumeric(email, i);
+        if (i == domainStart || i == length || email.charAt(i) != '.')
+            return false;
+
+        int tldStart = ++i;
+        i = skipAlphanumeric(email, i);
+        return i != tldStart && i == length;
+    }
+
+    private static int skipAlphanumeric(CharSequence s, int i)
+    {
+        while (i < s.length() && isAlphanumeric(s.charAt(i)))
+            i++;
+
+        return i;
+    }
+
+    private static boolean isAlphanumeric(char c)
+    {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+    }
 }
@@ -0,0 +1,9 @@
+-- optional, only once every node runs with idm.refresh-token-storage: binary;
+-- rows written by text nodes since V100 still need their binary token
+UPDATE idm.refresh_token SET token_bin = UNHEX(REPLACE(token, '-', '')) WHERE token_bin IS NULL;
+
+-- the VARCHAR(36) unique index goes, the old column stays nullable for a rollback
+ALTER TABLE idm.refresh_token
+    MODIFY token_bin       BINARY(16)     NOT NULL,
+    MODIFY token           VARCHAR(36)    NULL,
+    DROP INDEX token;
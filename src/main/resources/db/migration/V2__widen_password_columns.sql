@@ -0,0 +1,4 @@
+-- salt moved into hashed_password with the $alg$i=cost$salt$hash encoding, only legacy rows still use it
+ALTER TABLE idm.user
+    MODIFY salt                VARCHAR(8)     NULL,
+    MODIFY hashed_password     VARCHAR(255)   NOT NULL;
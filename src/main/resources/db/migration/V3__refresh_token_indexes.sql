@@ -0,0 +1,6 @@
+-- per user lookups and revocation, e.g. revoke every active token of a user;
+-- also takes over the index InnoDB created implicitly for the user_id foreign key
+CREATE INDEX idx_refresh_token_user_status ON idm.refresh_token (user_id, token_status_id);
+
+-- cleanup and admin queries by status and expiry
+CREATE INDEX idx_refresh_token_status_expire ON idm.refresh_token (token_status_id, expire_time);
@@ -47,6 +47,7 @@ public class IDMServiceTest
     private static final String LOGIN_PATH        = "/login";
     private static final String REFRESH_PATH      = "/refresh";
     private static final String AUTHENTICATE_PATH = "/authenticate";
+    private static final String AUTHENTICATE_BATCH_PATH = "/authenticate/batch";
 
     private static final JSONObject ADMIN    = makeUser("Admin@example.com",
                                                         "AdminPassWord0");
@@ -842,4 +843,35 @@ public class IDMServiceTest
                     .andDo(print())
                     .andExpectAll(isResult(IDMResults.ACCESS_TOKEN_IS_INVALID));
     }
+
+    @Test
+    public void authenticateBatchMixedTokens()
+        throws Exception
+    {
+        JSONObject responseObject =
+            (JSONObject) JSONValue.parse(
+                this.mockMvc.perform(post(LOGIN_PATH).contentType(MediaType.APPLICATION_JSON)
+                                                     .content(ACTIVE.toString()))
+                            .andDo(print())
+                            .andExpectAll(isResult(IDMResults.USER_LOGGED_IN_SUCCESSFULLY))
+                            .andReturn()
+                            .getResponse()
+                            .getContentAsString());
+
+        JSONArray accessTokens = new JSONArray();
+        accessTokens.add(responseObject.getAsString("accessToken"));
+        accessTokens.add("invalidToken");
+
+        JSONObject request = new JSONObject();
+        request.put("accessTokens", accessTokens);
+
+        this.mockMvc.perform(post(AUTHENTICATE_BATCH_PATH).contentType(MediaType.APPLICATION_JSON)
+                                                          .content(request.toJSONString()))
+                    .andDo(print())
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("results[0].result.code").value(IDMResults.ACCESS_TOKEN_IS_VALID.code()))
+                    .andExpect(jsonPath("results[0].claims.sub").value(ACTIVE.getAsString("email")))
+                    .andExpect(jsonPath("results[1].result.code").value(IDMResults.ACCESS_TOKEN_IS_INVALID.code()))
+                    .andExpect(jsonPath("results[1].claims").doesNotHaveJsonPath());
+    }
 }
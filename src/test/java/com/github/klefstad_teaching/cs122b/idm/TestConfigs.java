@@ -0,0 +1,104 @@
+package com.github.klefstad_teaching.cs122b.idm;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+
+import java.time.Duration;
+import java.util.Collections;
+
+/**
+ * The values from src/main/resources/application.yml, built by hand so that
+ * unit tests can create components without starting Spring.
+ */
+public final class TestConfigs
+{
+    private static final IDMServiceConfig.Validation VALIDATION =
+        new IDMServiceConfig.Validation(6, 32, 10, 20, true, true, true);
+
+    // written right away, tests of the expiry writer pass their own
+    private static final IDMServiceConfig.WriteBehind WRITE_BEHIND =
+        new IDMServiceConfig.WriteBehind(false, Duration.ofMillis(500), 500);
+
+    // inserted inline, tests of the pipeline pass their own
+    private static final IDMServiceConfig.TokenInsert TOKEN_INSERT =
+        new IDMServiceConfig.TokenInsert(false, 64, 1024, Duration.ofSeconds(5));
+
+    private TestConfigs() {}
+
+    public static IDMServiceConfig serviceConfig()
+    {
+        return serviceConfig(new IDMServiceConfig.Jwt(false, 10000, 100, true),
+                             new IDMServiceConfig.KeyRing(null, Duration.ofSeconds(30)));
+    }
+
+    public static IDMServiceConfig serviceConfig(IDMServiceConfig.Validation validation)
+    {
+        return serviceConfig(new IDMServiceConfig.Jwt(false, 10000, 100, true),
+                             new IDMServiceConfig.KeyRing(null, Duration.ofSeconds(30)),
+                             validation,
+                             WRITE_BEHIND,
+                             TOKEN_INSERT);
+    }
+
+    public static IDMServiceConfig serviceConfig(IDMServiceConfig.WriteBehind writeBehind)
+    {
+        return serviceConfig(new IDMServiceConfig.Jwt(false, 10000, 100, true),
+                             new IDMServiceConfig.KeyRing(null, Duration.ofSeconds(30)),
+                             VALIDATION,
+                             writeBehind,
+                             TOKEN_INSERT);
+    }
+
+    public static IDMServiceConfig serviceConfig(IDMServiceConfig.TokenInsert tokenInsert)
+    {
+        return serviceConfig(new IDMServiceConfig.Jwt(false, 10000, 100, true),
+                             new IDMServiceConfig.KeyRing(null, Duration.ofSeconds(30)),
+                             VALIDATION,
+                             WRITE_BEHIND,
+                             tokenInsert);
+    }
+
+    public static IDMServiceConfig serviceConfig(IDMServiceConfig.Jwt jwt, IDMServiceConfig.KeyRing keyRing)
+    {
+        return serviceConfig(jwt, keyRing, VALIDATION, WRITE_BEHIND, TOKEN_INSERT);
+    }
+
+    private static IDMServiceConfig serviceConfig(IDMServiceConfig.Jwt jwt,
+                                                  IDMServiceConfig.KeyRing keyRing,
+                                                  IDMServiceConfig.Validation validation,
+                                                  IDMServiceConfig.WriteBehind writeBehind,
+                                                  IDMServiceConfig.TokenInsert tokenInsert)
+    {
+        return new IDMServiceConfig(
+            "ec-key.json",
+            Duration.ofMinutes(30),
+            Duration.ofHours(12),
+            Duration.ofDays(30),
+            new IDMServiceConfig.Hashing(0, 64, Duration.ofSeconds(5)),
+            new IDMServiceConfig.Password("pbkdf2-sha512", 10000, 512, 16, null, true),
+            jwt,
+            writeBehind,
+            tokenInsert,
+            new IDMServiceConfig.UserCache(10000, Duration.ofSeconds(30)),
+            validation,
+            new IDMServiceConfig.Reaper(false, Duration.ofMinutes(5), Duration.ofHours(1), 500, Duration.ofMillis(50), 200),
+            new IDMServiceConfig.Migration(false, Collections.singletonList("classpath:db/migration"), 1),
+            IDMServiceConfig.TokenStorage.TEXT,
+            new IDMServiceConfig.Pool(10, 10, Duration.ofSeconds(5), Duration.ofMinutes(10), Duration.ofMinutes(30),
+                                      Duration.ZERO, true, 250, 2048, true, true, true),
+            new IDMServiceConfig.InMemory(Duration.ZERO),
+            new IDMServiceConfig.VirtualThreads(false),
+            keyRing);
+    }
+
+    public static User activeUser()
+    {
+        return new User()
+            .setId(4)
+            .setEmail("Active@example.com")
+            .setUserStatus(UserStatus.ACTIVE)
+            .setRoles(Role.PREMIUM);
+    }
+}
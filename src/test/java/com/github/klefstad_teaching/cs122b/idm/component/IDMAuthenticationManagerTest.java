@@ -0,0 +1,136 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.TestConfigs;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.InMemoryIDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.security.Pbkdf2PasswordHasher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IDMAuthenticationManagerTest
+{
+    // Active@example.com from src/test/resources/idm-test-data.sql
+    private static final String EMAIL       = "Active@example.com";
+    private static final String PASSWORD    = "ActivePassWord0";
+    private static final String LEGACY_SALT = "BXVDsQ==";
+    private static final String LEGACY_HASH =
+        "3906lItAtnDxDK5i85TKsdhfMNJgHYcK6quOR6FegjmPB6ppS6NH7j3ie83kjwotLlVZZVklclRKnyXTSVoEJw==";
+
+    // differs from the legacy 10000 iterations so every legacy row needs a rehash
+    private static final String CURRENT_PREFIX = "$pbkdf2-sha512$i=1000$";
+
+    private InMemoryIDMRepo            repo;
+    private PasswordHashExecutor       hashExecutor;
+    private BackgroundWriteExecutor    backgroundWriter;
+    private RefreshTokenExpiryWriter   expiryWriter;
+    private RefreshTokenInsertPipeline insertPipeline;
+    private IDMAuthenticationManager   authManager;
+
+    @BeforeEach
+    public void setup()
+    {
+        IDMServiceConfig serviceConfig = TestConfigs.serviceConfig();
+
+        repo = new InMemoryIDMRepo(serviceConfig);
+        hashExecutor = new PasswordHashExecutor(serviceConfig);
+        backgroundWriter = new BackgroundWriteExecutor();
+        expiryWriter = new RefreshTokenExpiryWriter(repo, serviceConfig);
+        insertPipeline = new RefreshTokenInsertPipeline(repo, serviceConfig);
+
+        authManager = new IDMAuthenticationManager(repo,
+                                                   hashExecutor,
+                                                   backgroundWriter,
+                                                   new Pbkdf2PasswordHasher("pbkdf2-sha512", 1000, 512, 16),
+                                                   expiryWriter,
+                                                   insertPipeline,
+                                                   new UserCache(serviceConfig),
+                                                   serviceConfig);
+    }
+
+    @AfterEach
+    public void tearDown()
+        throws Exception
+    {
+        insertPipeline.destroy();
+        expiryWriter.destroy();
+        backgroundWriter.destroy();
+        hashExecutor.destroy();
+    }
+
+    @Test
+    public void legacyRowIsRehashedOnLogin()
+        throws Exception
+    {
+        repo.insertUser(EMAIL, 1, LEGACY_SALT, LEGACY_HASH);
+
+        authManager.selectAndAuthenticateUser(EMAIL, PASSWORD.toCharArray());
+
+        String rehashed = awaitRehash();
+        assertTrue(rehashed.startsWith(CURRENT_PREFIX), rehashed);
+        assertNull(repo.searchByEmail(EMAIL).getSalt());
+
+        // the new hash is read back through the cache and still matches
+        assertEquals(EMAIL, authManager.selectAndAuthenticateUser(EMAIL, PASSWORD.toCharArray()).getEmail());
+        assertEquals(rehashed, repo.searchByEmail(EMAIL).getHashedPassword());
+    }
+
+    @Test
+    public void wrongPasswordLeavesTheHashAlone()
+        throws Exception
+    {
+        repo.insertUser(EMAIL, 1, LEGACY_SALT, LEGACY_HASH);
+
+        ResultError error = assertThrows(ResultError.class,
+                                         () -> authManager.selectAndAuthenticateUser(EMAIL, "WrongPassWord0".toCharArray()));
+        assertEquals(IDMResults.INVALID_CREDENTIALS, error.getResult());
+
+        Thread.sleep(200);
+        assertEquals(LEGACY_HASH, repo.searchByEmail(EMAIL).getHashedPassword());
+    }
+
+    @Test
+    public void malformedRowIsInvalidCredentials()
+    {
+        String[] hashes = {
+            "",
+            "not base64!",
+            "$pbkdf2-sha512$i=0$AQIDBA==$CQoLDA==",
+            "$pbkdf2-sha512$i=1000$AQIDBA==$",
+            "$pbkdf2-sha512$i=1000$AQIDBA=="
+        };
+
+        for (int i = 0; i < hashes.length; i++) {
+            String email = "malformed" + i + "@example.com";
+            repo.insertUser(email, 1, LEGACY_SALT, hashes[i]);
+
+            ResultError error = assertThrows(ResultError.class,
+                                             () -> authManager.selectAndAuthenticateUser(email, PASSWORD.toCharArray()),
+                                             hashes[i]);
+            assertEquals(IDMResults.INVALID_CREDENTIALS, error.getResult(), hashes[i]);
+        }
+    }
+
+    // the rehash is written from the background writer after the login returns
+    private String awaitRehash()
+        throws InterruptedException
+    {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+
+        while (System.nanoTime() < deadline) {
+            String hash = repo.searchByEmail(EMAIL).getHashedPassword();
+            if (! LEGACY_HASH.equals(hash))
+                return hash;
+            Thread.sleep(10);
+        }
+
+        throw new AssertionError("Password was not rehashed");
+    }
+}
@@ -0,0 +1,235 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.github.klefstad_teaching.cs122b.idm.TestConfigs;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IDMJwtManagerKeyRingTest
+{
+    @TempDir
+    Path dir;
+
+    private Path          file;
+    private ECKey         oldKey;
+    private ECKey         newKey;
+    private ECKey         foreignKey;
+    private IDMJwtManager jwtManager;
+
+    @BeforeEach
+    public void setup()
+        throws Exception
+    {
+        file = dir.resolve("keys.json");
+        oldKey = newKey("old");
+        newKey = newKey("new");
+        foreignKey = newKey("foreign");
+
+        writeKeys(oldKey);
+
+        // reload interval 0, the tests call reload() themselves
+        IDMServiceConfig serviceConfig =
+            TestConfigs.serviceConfig(new IDMServiceConfig.Jwt(false, 10000, 100, true),
+                                      new IDMServiceConfig.KeyRing(file.toString(), Duration.ZERO));
+
+        jwtManager = new IDMJwtManager(serviceConfig, new AccessTokenCache(serviceConfig), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        jwtManager.destroy();
+    }
+
+    @Test
+    public void appendPromoteRemove()
+        throws Exception
+    {
+        User user = TestConfigs.activeUser();
+
+        String oldToken = jwtManager.buildAccessToken(user);
+        assertEquals("old", kid(oldToken));
+        assertValid(oldToken);
+
+        // 1. append: the new key verifies but does not sign yet
+        writeKeys(oldKey, newKey.toPublicJWK());
+        assertTrue(jwtManager.keyRing().reload());
+        assertEquals("old", kid(jwtManager.buildAccessToken(user)));
+        assertValid(oldToken);
+
+        // 2. promote: the new key signs, the old one still verifies
+        writeKeys(newKey, oldKey.toPublicJWK());
+        assertTrue(jwtManager.keyRing().reload());
+
+        String newToken = jwtManager.buildAccessToken(user);
+        assertEquals("new", kid(newToken));
+        assertValid(newToken);
+        assertValid(oldToken);
+
+        // 3. remove: oldToken is in the verification cache by now and must still be rejected
+        writeKeys(newKey);
+        assertTrue(jwtManager.keyRing().reload());
+
+        assertEquals(IDMResults.ACCESS_TOKEN_IS_INVALID, jwtManager.checkAccessToken(oldToken).result());
+        assertValid(newToken);
+        assertEquals(3, jwtManager.keyRing().reloads());
+    }
+
+    @Test
+    public void unchangedFileIsNotReloaded()
+        throws Exception
+    {
+        writeKeys(oldKey);
+
+        assertFalse(jwtManager.keyRing().reload());
+        assertEquals(0, jwtManager.keyRing().reloads());
+    }
+
+    @Test
+    public void rejectsUnknownAndMissingKid()
+        throws Exception
+    {
+        assertInvalid(sign(foreignKey, header("foreign", JWTManager.JWS_TYPE)));
+        assertInvalid(sign(oldKey, header(null, JWTManager.JWS_TYPE)));
+        // the right key id on someone else's signature
+        assertInvalid(sign(foreignKey, header("old", JWTManager.JWS_TYPE)));
+
+        assertValid(sign(oldKey, header("old", JWTManager.JWS_TYPE)));
+    }
+
+    @Test
+    public void rejectsTheWrongType()
+        throws Exception
+    {
+        assertInvalid(sign(oldKey, header("old", new JOSEObjectType("at+jwt"))));
+        assertInvalid(sign(oldKey, header("old", null)));
+    }
+
+    @Test
+    public void brokenFileKeepsThePreviousKeys()
+        throws Exception
+    {
+        String token = jwtManager.buildAccessToken(TestConfigs.activeUser());
+
+        Files.write(file, "{\"keys\": [".getBytes(StandardCharsets.UTF_8));
+        assertThrows(ParseException.class, () -> jwtManager.keyRing().reload());
+        assertEquals("old", jwtManager.keyRing().current().signingKeyId());
+        assertValid(token);
+
+        // not given up on, the same broken file fails again on the next check
+        assertThrows(ParseException.class, () -> jwtManager.keyRing().reload());
+
+        // a ring without a private signing key is rejected the same way
+        writeKeys(newKey.toPublicJWK());
+        assertThrows(IllegalArgumentException.class, () -> jwtManager.keyRing().reload());
+        assertEquals("old", jwtManager.keyRing().current().signingKeyId());
+
+        // and once it is fixed it is picked up
+        writeKeys(newKey, oldKey.toPublicJWK());
+        assertTrue(jwtManager.keyRing().reload());
+        assertEquals("new", jwtManager.keyRing().current().signingKeyId());
+        assertValid(token);
+        assertEquals(1, jwtManager.keyRing().reloads());
+    }
+
+    @Test
+    public void brokenFileFailsStartup()
+        throws Exception
+    {
+        Files.write(file, "not a key".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalStateException.class,
+                     () -> new SigningKeyRing(file, Duration.ZERO, true, () -> {}));
+    }
+
+    private void assertValid(String token)
+    {
+        AccessTokenVerification verification = jwtManager.checkAccessToken(token);
+
+        assertTrue(verification.isValid());
+        assertEquals("Active@example.com", verification.claims().getSubject());
+    }
+
+    private void assertInvalid(String token)
+    {
+        assertEquals(IDMResults.ACCESS_TOKEN_IS_INVALID, jwtManager.checkAccessToken(token).result());
+    }
+
+    private void writeKeys(JWK... keys)
+        throws Exception
+    {
+        String json = new JWKSet(Arrays.asList(keys)).toString(false);
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ECKey newKey(String kid)
+        throws Exception
+    {
+        return new ECKeyGenerator(Curve.P_256).keyID(kid).generate();
+    }
+
+    private static String kid(String token)
+        throws ParseException
+    {
+        return SignedJWT.parse(token).getHeader().getKeyID();
+    }
+
+    private static JWSHeader header(String kid, JOSEObjectType type)
+    {
+        return new JWSHeader.Builder(JWTManager.JWS_ALGORITHM)
+            .keyID(kid)
+            .type(type)
+            .build();
+    }
+
+    // the claims IDMJwtManager issues, so only the header and signature differ
+    private static String sign(ECKey key, JWSHeader header)
+        throws Exception
+    {
+        Instant now = Instant.now();
+
+        JWTClaimsSet claimsSet =
+            new JWTClaimsSet.Builder()
+                .subject("Active@example.com")
+                .expirationTime(Date.from(now.plus(Duration.ofMinutes(30))))
+                .claim(JWTManager.CLAIM_ID, 4)
+                .claim(JWTManager.CLAIM_ROLES, Role.names(Role.PREMIUM.mask()))
+                .issueTime(Date.from(now))
+                .build();
+
+        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
+        signedJWT.sign(new ECDSASigner(key));
+        return signedJWT.serialize();
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.TestConfigs;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IDMJwtManagerTest
+{
+    private IDMJwtManager jwtManager;
+
+    @BeforeEach
+    public void setup()
+    {
+        IDMServiceConfig serviceConfig = TestConfigs.serviceConfig();
+
+        jwtManager = new IDMJwtManager(serviceConfig, new AccessTokenCache(serviceConfig), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        jwtManager.destroy();
+    }
+
+    @Test
+    public void batchResultsKeepTheTokenOrder()
+        throws Exception
+    {
+        User user = TestConfigs.activeUser();
+
+        // more tokens than cores, a mix of valid and invalid ones in a fixed pattern
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 == 0)
+                tokens.add(jwtManager.buildAccessToken(user));
+            else if (i % 3 == 1)
+                tokens.add("not a token " + i);
+            else
+                tokens.add(null);
+        }
+
+        List<AccessTokenVerification> verifications = jwtManager.verifyAccessTokens(tokens);
+
+        assertEquals(tokens.size(), verifications.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i % 3 == 0) {
+                assertTrue(verifications.get(i).isValid(), "token " + i);
+                assertEquals(user.getEmail(), verifications.get(i).claims().getSubject());
+            } else {
+                assertEquals(IDMResults.ACCESS_TOKEN_IS_INVALID, verifications.get(i).result(), "token " + i);
+            }
+        }
+    }
+
+    @Test
+    public void singleTokenAndEmptyBatch()
+        throws Exception
+    {
+        String token = jwtManager.buildAccessToken(TestConfigs.activeUser());
+
+        assertTrue(jwtManager.verifyAccessTokens(Collections.singletonList(token)).get(0).isValid());
+        assertEquals(0, jwtManager.verifyAccessTokens(Collections.emptyList()).size());
+    }
+
+    @Test
+    public void rejectsAnOversizedBatch()
+    {
+        List<String> tokens = Collections.nCopies(101, "not a token");
+
+        assertThrows(ResponseStatusException.class, () -> jwtManager.verifyAccessTokens(tokens));
+    }
+}
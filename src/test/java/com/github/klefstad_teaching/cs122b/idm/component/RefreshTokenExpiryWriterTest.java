@@ -0,0 +1,258 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.TestConfigs;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.InMemoryIDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.security.Pbkdf2PasswordHasher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RefreshTokenExpiryWriterTest
+{
+    private HookedRepo               repo;
+    private IDMServiceConfig         serviceConfig;
+    private RefreshTokenExpiryWriter expiryWriter;
+    private Integer                  userId;
+    private Instant                  now;
+
+    @BeforeEach
+    public void setup()
+    {
+        // nothing flushes on its own, every test calls flush()
+        serviceConfig = TestConfigs.serviceConfig(new IDMServiceConfig.WriteBehind(true, Duration.ofHours(1), 1000));
+
+        repo = new HookedRepo(serviceConfig);
+        repo.insertUser("Active@example.com", 1, null, "$pbkdf2-sha512$i=1000$AQIDBA==$CQoLDA==");
+        userId = repo.searchByEmail("Active@example.com").getId();
+        expiryWriter = new RefreshTokenExpiryWriter(repo, serviceConfig);
+        now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        if (repo.release != null)
+            repo.release.countDown();
+        expiryWriter.destroy();
+    }
+
+    @Test
+    public void extensionsAreCoalescedToTheLatest()
+    {
+        RefreshToken token = insert(now.plus(1, ChronoUnit.MINUTES));
+
+        expiryWriter.extend(token.getId(), now.plus(3, ChronoUnit.MINUTES));
+        expiryWriter.extend(token.getId(), now.plus(2, ChronoUnit.MINUTES));
+
+        assertEquals(1, expiryWriter.pendingCount());
+        assertEquals(now.plus(3, ChronoUnit.MINUTES), expiryWriter.pendingExpireTime(token.getId()));
+
+        expiryWriter.flush();
+
+        assertEquals(now.plus(3, ChronoUnit.MINUTES), storedExpireTime(token));
+        assertEquals(0, expiryWriter.pendingCount());
+    }
+
+    @Test
+    public void reExtensionDuringAFlushSurvives()
+        throws Exception
+    {
+        RefreshToken token = insert(now.plus(1, ChronoUnit.MINUTES));
+        RefreshToken other = insert(now.plus(1, ChronoUnit.MINUTES));
+
+        expiryWriter.extend(token.getId(), now.plus(2, ChronoUnit.MINUTES));
+        expiryWriter.extend(other.getId(), now.plus(2, ChronoUnit.MINUTES));
+
+        // hold the flush inside its write, then extend one of the tokens again
+        repo.hold();
+        CompletableFuture<Void> flush = CompletableFuture.runAsync(expiryWriter::flush);
+        assertTrue(repo.entered.await(5, TimeUnit.SECONDS));
+
+        expiryWriter.extend(token.getId(), now.plus(5, ChronoUnit.MINUTES));
+        repo.release.countDown();
+        flush.get(5, TimeUnit.SECONDS);
+
+        // the written batch is gone, the newer extension waits for the next flush
+        assertEquals(now.plus(2, ChronoUnit.MINUTES), storedExpireTime(token));
+        assertEquals(now.plus(2, ChronoUnit.MINUTES), storedExpireTime(other));
+        assertEquals(now.plus(5, ChronoUnit.MINUTES), expiryWriter.pendingExpireTime(token.getId()));
+        assertNull(expiryWriter.pendingExpireTime(other.getId()));
+
+        expiryWriter.flush();
+
+        assertEquals(now.plus(5, ChronoUnit.MINUTES), storedExpireTime(token));
+        assertEquals(0, expiryWriter.pendingCount());
+    }
+
+    @Test
+    public void failedFlushKeepsTheEntries()
+    {
+        RefreshToken token = insert(now.plus(1, ChronoUnit.MINUTES));
+        expiryWriter.extend(token.getId(), now.plus(2, ChronoUnit.MINUTES));
+
+        repo.failNext = true;
+        assertThrows(IllegalStateException.class, expiryWriter::flush);
+
+        assertEquals(now.plus(1, ChronoUnit.MINUTES), storedExpireTime(token));
+        assertEquals(now.plus(2, ChronoUnit.MINUTES), expiryWriter.pendingExpireTime(token.getId()));
+
+        expiryWriter.flush();
+
+        assertEquals(now.plus(2, ChronoUnit.MINUTES), storedExpireTime(token));
+        assertEquals(0, expiryWriter.pendingCount());
+    }
+
+    @Test
+    public void cancelledExtensionIsNotWritten()
+    {
+        RefreshToken token = insert(now.plus(1, ChronoUnit.MINUTES));
+        expiryWriter.extend(token.getId(), now.plus(2, ChronoUnit.MINUTES));
+
+        expiryWriter.cancel(token.getId());
+        expiryWriter.flush();
+
+        assertNull(expiryWriter.pendingExpireTime(token.getId()));
+        assertEquals(now.plus(1, ChronoUnit.MINUTES), storedExpireTime(token));
+    }
+
+    @Test
+    public void extensionRacingARevokeDoesNotRevive()
+    {
+        RefreshToken token = insert(now.plus(1, ChronoUnit.MINUTES));
+
+        // the extend lands after the revoke cancelled the token, the flush must not undo the revoke
+        repo.updateRefreshToken(copyOf(token).setTokenStatus(TokenStatus.REVOKED));
+        expiryWriter.extend(token.getId(), now.plus(2, ChronoUnit.MINUTES));
+        expiryWriter.flush();
+
+        RefreshToken stored = repo.searchByRereshToken(token.getToken());
+        assertEquals(TokenStatus.REVOKED, stored.getTokenStatus());
+        assertEquals(now.plus(1, ChronoUnit.MINUTES), stored.getExpireTime());
+    }
+
+    @Test
+    public void pendingExpiryHidesAStaleRow()
+        throws Exception
+    {
+        PasswordHashExecutor       hashExecutor     = new PasswordHashExecutor(serviceConfig);
+        BackgroundWriteExecutor    backgroundWriter = new BackgroundWriteExecutor();
+        RefreshTokenInsertPipeline insertPipeline   = new RefreshTokenInsertPipeline(repo, serviceConfig);
+
+        try {
+            IDMAuthenticationManager authManager =
+                new IDMAuthenticationManager(repo,
+                                             hashExecutor,
+                                             backgroundWriter,
+                                             new Pbkdf2PasswordHasher("pbkdf2-sha512", 1000, 512, 16),
+                                             expiryWriter,
+                                             insertPipeline,
+                                             new UserCache(serviceConfig),
+                                             serviceConfig);
+
+            // the row says it expired a second ago, the extension handed out says it has not
+            RefreshToken token = insert(now.minus(1, ChronoUnit.SECONDS));
+            expiryWriter.extend(token.getId(), now.plus(5, ChronoUnit.MINUTES));
+
+            assertEquals(now.plus(5, ChronoUnit.MINUTES),
+                         authManager.verifyRefreshToken(token.getToken()).getExpireTime());
+            assertNotNull(authManager.extendRefreshToken(token.getToken(),
+                                                         Instant.now(),
+                                                         now.plus(10, ChronoUnit.MINUTES)));
+            assertEquals(now.plus(10, ChronoUnit.MINUTES), expiryWriter.pendingExpireTime(token.getId()));
+
+            // the row itself is only written by the flush
+            assertEquals(now.minus(1, ChronoUnit.SECONDS), storedExpireTime(token));
+        } finally {
+            insertPipeline.destroy();
+            backgroundWriter.destroy();
+            hashExecutor.destroy();
+        }
+    }
+
+    private RefreshToken insert(Instant expireTime)
+    {
+        RefreshToken token = new RefreshToken()
+            .setToken(UUID.randomUUID().toString())
+            .setUserId(userId)
+            .setTokenStatus(TokenStatus.ACTIVE)
+            .setExpireTime(expireTime)
+            .setMaxLifeTime(now.plus(30, ChronoUnit.DAYS));
+
+        repo.insertRefreshToken(token);
+        return repo.searchByRereshToken(token.getToken());
+    }
+
+    private Instant storedExpireTime(RefreshToken token)
+    {
+        return repo.searchByRereshToken(token.getToken()).getExpireTime();
+    }
+
+    private static RefreshToken copyOf(RefreshToken token)
+    {
+        return new RefreshToken()
+            .setId(token.getId())
+            .setToken(token.getToken())
+            .setUserId(token.getUserId())
+            .setTokenStatus(token.getTokenStatus())
+            .setExpireTime(token.getExpireTime())
+            .setMaxLifeTime(token.getMaxLifeTime());
+    }
+
+    // can hold a flush inside its write, or fail the next one like a lost connection
+    private static final class HookedRepo extends InMemoryIDMRepo
+    {
+        private volatile CountDownLatch entered;
+        private volatile CountDownLatch release;
+        private volatile boolean        failNext;
+
+        private HookedRepo(IDMServiceConfig serviceConfig)
+        {
+            super(serviceConfig);
+        }
+
+        private void hold()
+        {
+            entered = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+        }
+
+        @Override
+        public void updateRefreshTokenExpireTimes(Map<Integer, Instant> expireTimes)
+        {
+            if (failNext) {
+                failNext = false;
+                throw new IllegalStateException("Connection reset");
+            }
+
+            if (release != null) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            super.updateRefreshTokenExpireTimes(expireTimes);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.TestConfigs;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.InMemoryIDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RefreshTokenInsertPipelineTest
+{
+    private static final Duration AWAIT_TIMEOUT = Duration.ofMillis(200);
+
+    private BlockingRepo               repo;
+    private RefreshTokenInsertPipeline pipeline;
+    private Integer                    userId;
+
+    @BeforeEach
+    public void setup()
+    {
+        IDMServiceConfig serviceConfig =
+            TestConfigs.serviceConfig(new IDMServiceConfig.TokenInsert(true, 64, 1024, AWAIT_TIMEOUT));
+
+        repo = new BlockingRepo(serviceConfig);
+        repo.insertUser("Active@example.com", 1, null, "$pbkdf2-sha512$i=1000$AQIDBA==$CQoLDA==");
+        userId = repo.searchByEmail("Active@example.com").getId();
+        pipeline = new RefreshTokenInsertPipeline(repo, serviceConfig);
+    }
+
+    @AfterEach
+    public void tearDown()
+        throws Exception
+    {
+        repo.release.countDown();
+        pipeline.destroy();
+    }
+
+    @Test
+    public void queuedTokensShareABatch()
+        throws Exception
+    {
+        CompletableFuture<Void> first = holdWriter();
+
+        List<RefreshToken>            tokens  = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tokens.add(newToken());
+            futures.add(pipeline.insert(tokens.get(i)));
+        }
+
+        assertEquals(10, pipeline.queuedInserts());
+        repo.release.countDown();
+
+        first.get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> future : futures)
+            future.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(1, 10), repo.batchSizes);
+        for (RefreshToken token : tokens)
+            assertNotNull(repo.searchByRereshToken(token.getToken()));
+    }
+
+    @Test
+    public void failedBatchIsRetriedRowByRow()
+        throws Exception
+    {
+        RefreshToken            held  = newToken();
+        CompletableFuture<Void> first = holdWriter(held);
+
+        RefreshToken            good1     = newToken();
+        RefreshToken            good2     = newToken();
+        RefreshToken            duplicate = newToken().setToken(held.getToken());
+        CompletableFuture<Void> future1   = pipeline.insert(good1);
+        CompletableFuture<Void> future2   = pipeline.insert(duplicate);
+        CompletableFuture<Void> future3   = pipeline.insert(good2);
+
+        // the duplicate rolls back the whole batch, like a constraint violation in MySQL
+        repo.failBatches = true;
+        repo.release.countDown();
+
+        first.get(5, TimeUnit.SECONDS);
+        future1.get(5, TimeUnit.SECONDS);
+        future3.get(5, TimeUnit.SECONDS);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future2.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+
+        assertEquals(Arrays.asList(1, 3), repo.batchSizes);
+        assertNotNull(repo.searchByRereshToken(good1.getToken()));
+        assertNotNull(repo.searchByRereshToken(good2.getToken()));
+    }
+
+    @Test
+    public void insertAndWaitTimesOutWithItsOwnMessage()
+        throws Exception
+    {
+        CompletableFuture<Void> first = holdWriter();
+        RefreshToken            late  = newToken();
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                                                 () -> pipeline.insertAndWait(late));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+        assertTrue(e.getReason().contains("storing the session"), e.getReason());
+
+        // the login that gave up is taken back, its token is never stored
+        assertEquals(0, pipeline.queuedInserts());
+        repo.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        pipeline.insert(newToken()).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(1, 1), repo.batchSizes);
+        ResultError notFound = assertThrows(ResultError.class, () -> repo.searchByRereshToken(late.getToken()));
+        assertEquals(IDMResults.REFRESH_TOKEN_NOT_FOUND, notFound.getResult());
+    }
+
+    @Test
+    public void shutdownFailsWhatTheWriterDidNotGetTo()
+        throws Exception
+    {
+        CompletableFuture<Void> first = holdWriter();
+
+        CompletableFuture<Void> queued1 = pipeline.insert(newToken());
+        CompletableFuture<Void> queued2 = pipeline.insert(newToken());
+
+        // the writer is stuck in its batch, destroy gives up on it after the await timeout
+        pipeline.destroy();
+
+        assertShuttingDown(queued1);
+        assertShuttingDown(queued2);
+        assertShuttingDown(pipeline.insert(newToken()));
+
+        // the batch the writer was in still commits
+        repo.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+    }
+
+    // queues one token and waits until the writer is inside its batch, blocked on release
+    private CompletableFuture<Void> holdWriter()
+        throws InterruptedException
+    {
+        return holdWriter(newToken());
+    }
+
+    private CompletableFuture<Void> holdWriter(RefreshToken token)
+        throws InterruptedException
+    {
+        CompletableFuture<Void> future = pipeline.insert(token);
+        assertTrue(repo.entered.await(5, TimeUnit.SECONDS));
+        return future;
+    }
+
+    private static void assertShuttingDown(CompletableFuture<Void> future)
+    {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof ResponseStatusException, String.valueOf(e.getCause()));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ((ResponseStatusException) e.getCause()).getStatus());
+    }
+
+    private RefreshToken newToken()
+    {
+        Instant now = Instant.now();
+
+        return new RefreshToken()
+            .setToken(UUID.randomUUID().toString())
+            .setUserId(userId)
+            .setTokenStatus(TokenStatus.ACTIVE)
+            .setExpireTime(now.plus(1, ChronoUnit.HOURS))
+            .setMaxLifeTime(now.plus(30, ChronoUnit.DAYS));
+    }
+
+    // records each batch, holds the writer in its first one and can fail batches like a rollback
+    private static final class BlockingRepo extends InMemoryIDMRepo
+    {
+        private final List<Integer>  batchSizes = new CopyOnWriteArrayList<>();
+        private final CountDownLatch entered    = new CountDownLatch(1);
+        private final CountDownLatch release    = new CountDownLatch(1);
+
+        private volatile boolean failBatches;
+
+        private BlockingRepo(IDMServiceConfig serviceConfig)
+        {
+            super(serviceConfig);
+        }
+
+        @Override
+        public void insertRefreshTokens(List<RefreshToken> refreshTokens)
+        {
+            batchSizes.add(refreshTokens.size());
+            entered.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+
+            if (failBatches && refreshTokens.size() > 1)
+                throw new IllegalStateException("Batch rolled back");
+
+            super.insertRefreshTokens(refreshTokens);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.TestConfigs;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class UserCacheTest
+{
+    private final UserCache cache = new UserCache(TestConfigs.serviceConfig());
+
+    @Test
+    public void loadsOnceThenHits()
+    {
+        AtomicInteger loads = new AtomicInteger();
+        User          user  = TestConfigs.activeUser();
+
+        cache.getById(user.getId(), id -> { loads.incrementAndGet(); return user; });
+        cache.getById(user.getId(), id -> { loads.incrementAndGet(); return user; });
+        cache.getByEmail("ACTIVE@example.com", email -> { loads.incrementAndGet(); return user; });
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void loadRacingAnInvalidationIsNotCached()
+    {
+        User stale = TestConfigs.activeUser();
+        User fresh = TestConfigs.activeUser().setUserStatus(UserStatus.LOCKED);
+
+        // the row is read, then another request writes it and invalidates before our put
+        User loaded = cache.getById(stale.getId(), id -> {
+            cache.invalidate(stale);
+            return stale;
+        });
+
+        // the caller still gets what it read, the cache must not keep it
+        assertEquals(UserStatus.ACTIVE, loaded.getUserStatus());
+        assertEquals(UserStatus.LOCKED, cache.getById(stale.getId(), id -> fresh).getUserStatus());
+        assertEquals(UserStatus.LOCKED, cache.getByEmail(stale.getEmail(), email -> fresh).getUserStatus());
+    }
+
+    @Test
+    public void loadByEmailRacingAnInvalidationIsNotCached()
+    {
+        User stale = TestConfigs.activeUser();
+        User fresh = TestConfigs.activeUser().setUserStatus(UserStatus.LOCKED);
+
+        cache.getByEmail(stale.getEmail(), email -> {
+            cache.invalidate(stale.getId(), null);
+            return stale;
+        });
+
+        assertEquals(UserStatus.LOCKED, cache.getByEmail(stale.getEmail(), email -> fresh).getUserStatus());
+        assertEquals(UserStatus.LOCKED, cache.getById(stale.getId(), id -> fresh).getUserStatus());
+    }
+
+    @Test
+    public void callersGetTheirOwnCopy()
+    {
+        User user = TestConfigs.activeUser();
+
+        cache.getById(user.getId(), id -> user).setUserStatus(UserStatus.BANNED);
+        user.setUserStatus(UserStatus.LOCKED);
+
+        assertEquals(UserStatus.ACTIVE, cache.getById(user.getId(), id -> user).getUserStatus());
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.idm.TestConfigs;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InMemoryIDMRepoTest
+{
+    private InMemoryIDMRepo repo;
+    private Integer         userId;
+    private Instant         now;
+
+    @BeforeEach
+    public void setup()
+    {
+        repo = new InMemoryIDMRepo(TestConfigs.serviceConfig());
+        repo.insertUser("Active@example.com", 1, null, "$pbkdf2-sha512$i=1000$AQIDBA==$CQoLDA==");
+        userId = repo.searchByEmail("Active@example.com").getId();
+        now = Instant.now();
+    }
+
+    @Test
+    public void failedRotationLeavesTheTokenActive()
+    {
+        RefreshToken token = insert(now.plus(1, ChronoUnit.HOURS));
+        RefreshToken other = insert(now.plus(1, ChronoUnit.HOURS));
+
+        // the replacement reuses a stored value, so its insert fails after the revoke
+        RefreshToken duplicate = newToken(other.getToken(), now.plus(1, ChronoUnit.HOURS));
+
+        assertThrows(IllegalStateException.class, () -> repo.rotateRefreshToken(token, duplicate));
+        assertEquals(TokenStatus.ACTIVE, repo.searchByRereshToken(token.getToken()).getTokenStatus());
+
+        // and the token can still be rotated
+        RefreshToken replacement = newToken(UUID.randomUUID().toString(), now.plus(1, ChronoUnit.HOURS));
+        assertTrue(repo.rotateRefreshToken(token, replacement));
+        assertEquals(TokenStatus.REVOKED, repo.searchByRereshToken(token.getToken()).getTokenStatus());
+        assertFalse(repo.rotateRefreshToken(token, newToken(UUID.randomUUID().toString(), now)));
+    }
+
+    @Test
+    public void extendedTokenIsNotDeleted()
+    {
+        RefreshToken token = insert(now.minus(1, ChronoUnit.MINUTES));
+        Instant cutoff = now;
+
+        assertEquals(Collections.singletonList(token.getId()), repo.selectReapableRefreshTokenIds(0, cutoff, 10));
+
+        // extended after it was selected, the delete has to check again
+        repo.updateRefreshTokenExpireTimes(Collections.singletonMap(token.getId(), now.plus(1, ChronoUnit.HOURS)));
+
+        assertEquals(0, repo.deleteRefreshTokens(Collections.singletonList(token.getId()), cutoff));
+        assertNotNull(repo.searchByRereshToken(token.getToken()));
+    }
+
+    @Test
+    public void deletedTokenCanNotBeExtendedOrRotated()
+    {
+        RefreshToken token = insert(now.minus(1, ChronoUnit.MINUTES));
+
+        assertEquals(1, repo.deleteRefreshTokens(Collections.singletonList(token.getId()), now));
+
+        assertThrows(ResultError.class, () -> repo.searchByRereshToken(token.getToken()));
+        assertNull(repo.extendRefreshToken(token.getToken(), now.minus(2, ChronoUnit.MINUTES), now));
+        assertFalse(repo.rotateRefreshToken(token, newToken(UUID.randomUUID().toString(), now)));
+    }
+
+    @Test
+    public void racingRegistrationsLeaveOneUser()
+        throws Exception
+    {
+        int                   threads  = 8;
+        CountDownLatch        start    = new CountDownLatch(1);
+        ExecutorService       executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> inserts  = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                inserts.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        repo.insertUser("Racing@example.com", 1, null, "$pbkdf2-sha512$i=1000$AQIDBA==$CQoLDA==");
+                        return true;
+                    } catch (ResultError e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+
+            int inserted = 0;
+            for (Future<Boolean> insert : inserts)
+                inserted += insert.get(5, TimeUnit.SECONDS) ? 1 : 0;
+            assertEquals(1, inserted);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // every id after the setup user was tried once, only the winner's row is left
+        Integer winner = repo.searchByEmail("Racing@example.com").getId();
+        for (int id = userId + 1; id <= userId + threads; id++) {
+            int tried = id;
+            if (tried == winner)
+                assertEquals("Racing@example.com", repo.searchById(tried).getEmail());
+            else
+                assertThrows(ResultError.class, () -> repo.searchById(tried));
+        }
+    }
+
+    // the stored copy, with its id
+    private RefreshToken insert(Instant expireTime)
+    {
+        RefreshToken token = newToken(UUID.randomUUID().toString(), expireTime);
+        repo.insertRefreshToken(token);
+        return repo.searchByRereshToken(token.getToken());
+    }
+
+    private RefreshToken newToken(String value, Instant expireTime)
+    {
+        return new RefreshToken()
+            .setToken(value)
+            .setUserId(userId)
+            .setTokenStatus(TokenStatus.ACTIVE)
+            .setExpireTime(expireTime)
+            .setMaxLifeTime(now.plus(30, ChronoUnit.DAYS));
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.klefstad_teaching.cs122b.idm.repo.entity;
+
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserTest
+{
+    @Test
+    public void maskFollowsEverySetter()
+    {
+        User user = new User();
+        assertEquals(0, user.getRoleMask());
+        assertEquals(Collections.emptyList(), user.getRoles());
+
+        user.setRole(Role.EMPLOYEE);
+        assertEquals(Role.EMPLOYEE.mask(), user.getRoleMask());
+
+        user.setRoles(Role.ADMIN);
+        user.setRoles(Collections.singletonList(Role.PREMIUM));
+
+        assertEquals(Role.maskOf(Arrays.asList(Role.values())), user.getRoleMask());
+        assertEquals(Arrays.asList(Role.EMPLOYEE, Role.ADMIN, Role.PREMIUM), user.getRoles());
+    }
+
+    @Test
+    public void hasRoleReadsTheMask()
+    {
+        User user = new User().setRoles(Role.ADMIN, Role.PREMIUM);
+
+        assertTrue(user.hasRole(Role.ADMIN));
+        assertFalse(user.hasRole(Role.EMPLOYEE));
+        assertTrue(user.hasRole(Role.PREMIUM));
+        assertEquals(Arrays.asList("Admin", "Premium"), Role.names(user.getRoleMask()));
+    }
+
+    @Test
+    public void rolesCanOnlyChangeThroughTheSetters()
+    {
+        User user = new User().setRole(Role.ADMIN);
+
+        assertThrows(UnsupportedOperationException.class, () -> user.getRoles().add(Role.PREMIUM));
+        assertFalse(user.hasRole(Role.PREMIUM));
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AccessTokenEncoderTest
+{
+    private static final long ISSUE_TIME  = 1_700_000_000L;
+    private static final long EXPIRE_TIME = ISSUE_TIME + 1800;
+
+    private static final int ALL_ROLES = (1 << Role.values().length) - 1;
+
+    private static final String[] SUBJECTS = {
+        "Active@example.com",
+        "quote\"in@example.com",
+        "back\\slash@example.com",
+        "control\n\t\r\u0001\u001f@example.com",
+        "caf\u00e9@example.com",
+        "\u4f60\u597d@example.com",
+        "emoji\ud83d\ude00@example.com",
+        ""
+    };
+
+    @Test
+    public void claimsMatchTheNimbusPath()
+        throws Exception
+    {
+        ECKey key = newKey(Curve.P_256);
+        JWSHeader header = header(JWTManager.JWS_ALGORITHM, key);
+        AccessTokenEncoder encoder = new AccessTokenEncoder(key, header);
+
+        for (String subject : SUBJECTS) {
+            for (int mask = 0; mask <= ALL_ROLES; mask++) {
+                SignedJWT encoded = SignedJWT.parse(encoder.encode(subject, 42, mask, ISSUE_TIME, EXPIRE_TIME));
+                SignedJWT nimbus = SignedJWT.parse(nimbus(key, header, subject, 42, mask));
+
+                assertTrue(encoded.verify(new ECDSAVerifier(key.toECPublicKey())), subject);
+                assertEquals(nimbus.getHeader().toBase64URL(), encoded.getHeader().toBase64URL());
+                assertEquals(nimbus.getJWTClaimsSet().toJSONObject(), encoded.getJWTClaimsSet().toJSONObject(), subject);
+                assertEquals(subject, encoded.getJWTClaimsSet().getSubject());
+                assertEquals(Role.names(mask), encoded.getJWTClaimsSet().getStringListClaim(JWTManager.CLAIM_ROLES));
+            }
+        }
+    }
+
+    @Test
+    public void nullUserIdIsLeftOut()
+        throws Exception
+    {
+        ECKey key = newKey(Curve.P_256);
+        JWSHeader header = header(JWTManager.JWS_ALGORITHM, key);
+        AccessTokenEncoder encoder = new AccessTokenEncoder(key, header);
+
+        SignedJWT encoded = SignedJWT.parse(encoder.encode("Active@example.com", null, 0, ISSUE_TIME, EXPIRE_TIME));
+        SignedJWT nimbus = SignedJWT.parse(nimbus(key, header, "Active@example.com", null, 0));
+
+        assertTrue(encoded.verify(new ECDSAVerifier(key.toECPublicKey())));
+        assertNull(encoded.getJWTClaimsSet().getClaim(JWTManager.CLAIM_ID));
+        assertEquals(nimbus.getJWTClaimsSet().toJSONObject(), encoded.getJWTClaimsSet().toJSONObject());
+    }
+
+    @Test
+    public void loneSurrogateIsReplaced()
+        throws Exception
+    {
+        ECKey key = newKey(Curve.P_256);
+        AccessTokenEncoder encoder = new AccessTokenEncoder(key, header(JWTManager.JWS_ALGORITHM, key));
+
+        // the same replacement String.getBytes(UTF_8) makes for the nimbus path
+        SignedJWT high = SignedJWT.parse(encoder.encode("a\ud83db@example.com", 1, 0, ISSUE_TIME, EXPIRE_TIME));
+        SignedJWT low = SignedJWT.parse(encoder.encode("a\ude00b@example.com", 1, 0, ISSUE_TIME, EXPIRE_TIME));
+        SignedJWT last = SignedJWT.parse(encoder.encode("a@example.com\ud83d", 1, 0, ISSUE_TIME, EXPIRE_TIME));
+
+        assertTrue(high.verify(new ECDSAVerifier(key.toECPublicKey())));
+        assertEquals("a?b@example.com", high.getJWTClaimsSet().getSubject());
+        assertEquals("a?b@example.com", low.getJWTClaimsSet().getSubject());
+        assertEquals("a@example.com?", last.getJWTClaimsSet().getSubject());
+    }
+
+    @Test
+    public void es384And512SignaturesHaveTheirFixedLength()
+        throws Exception
+    {
+        assertSignatureLength(JWSAlgorithm.ES256, Curve.P_256, 64);
+        assertSignatureLength(JWSAlgorithm.ES384, Curve.P_384, 96);
+        assertSignatureLength(JWSAlgorithm.ES512, Curve.P_521, 132);
+    }
+
+    private static void assertSignatureLength(JWSAlgorithm algorithm, Curve curve, int length)
+        throws Exception
+    {
+        ECKey key = newKey(curve);
+        AccessTokenEncoder encoder = new AccessTokenEncoder(key, header(algorithm, key));
+
+        // R and S are zero padded, so every token has the same length whatever their value
+        for (int i = 0; i < 20; i++) {
+            SignedJWT encoded = SignedJWT.parse(encoder.encode("Active@example.com", i, 0, ISSUE_TIME, EXPIRE_TIME));
+
+            assertEquals(length, encoded.getSignature().decode().length, algorithm.getName());
+            assertTrue(encoded.verify(new ECDSAVerifier(key.toECPublicKey())), algorithm.getName());
+        }
+    }
+
+    @Test
+    public void rejectsAKeyOnTheWrongCurve()
+        throws Exception
+    {
+        ECKey key = newKey(Curve.P_384);
+
+        assertThrows(IllegalArgumentException.class, () -> new AccessTokenEncoder(key, header(JWSAlgorithm.ES256, key)));
+    }
+
+    @Test
+    public void pooledBuffersAreSafeAcrossThreads()
+        throws Exception
+    {
+        ECKey key = newKey(Curve.P_256);
+        AccessTokenEncoder encoder = new AccessTokenEncoder(key, header(JWTManager.JWS_ALGORITHM, key));
+        ECDSAVerifier verifier = new ECDSAVerifier(key.toECPublicKey());
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> tokens = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                // subjects of different lengths so a mixed up buffer would show
+                String subject = "user" + "x".repeat(i % 50) + i + "@example.com";
+                int userId = i;
+                tokens.add(executor.submit(() -> encoder.encode(subject, userId, userId & ALL_ROLES, ISSUE_TIME, EXPIRE_TIME)));
+            }
+
+            for (int i = 0; i < tokens.size(); i++) {
+                SignedJWT encoded = SignedJWT.parse(tokens.get(i).get());
+
+                assertTrue(encoded.verify(verifier));
+                assertEquals("user" + "x".repeat(i % 50) + i + "@example.com", encoded.getJWTClaimsSet().getSubject());
+                assertEquals(Long.valueOf(i), encoded.getJWTClaimsSet().getLongClaim(JWTManager.CLAIM_ID));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ECKey newKey(Curve curve)
+        throws Exception
+    {
+        return new ECKeyGenerator(curve).keyID(curve.getName()).generate();
+    }
+
+    private static JWSHeader header(JWSAlgorithm algorithm, ECKey key)
+    {
+        return new JWSHeader.Builder(algorithm)
+            .keyID(key.getKeyID())
+            .type(JWTManager.JWS_TYPE)
+            .build();
+    }
+
+    // what IDMJwtManager.buildAccessToken produces with the fast encoder off
+    private static String nimbus(ECKey key, JWSHeader header, String subject, Integer userId, int roleMask)
+        throws Exception
+    {
+        JWTClaimsSet claimsSet =
+            new JWTClaimsSet.Builder()
+                .subject(subject)
+                .expirationTime(new Date(EXPIRE_TIME * 1000))
+                .claim(JWTManager.CLAIM_ID, userId)
+                .claim(JWTManager.CLAIM_ROLES, Role.names(roleMask))
+                .issueTime(new Date(ISSUE_TIME * 1000))
+                .build();
+
+        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
+        signedJWT.sign(new ECDSASigner(key));
+        return signedJWT.serialize();
+    }
+}
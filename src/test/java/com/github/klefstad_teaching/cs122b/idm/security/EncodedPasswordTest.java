@@ -0,0 +1,123 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EncodedPasswordTest
+{
+    // Active@example.com from src/test/resources/idm-test-data.sql
+    private static final String LEGACY_SALT = "BXVDsQ==";
+    private static final String LEGACY_HASH =
+        "3906lItAtnDxDK5i85TKsdhfMNJgHYcK6quOR6FegjmPB6ppS6NH7j3ie83kjwotLlVZZVklclRKnyXTSVoEJw==";
+
+    private static final byte[] SALT = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final byte[] HASH = {9, 10, 11, 12};
+
+    @Test
+    public void encodesAndParses()
+    {
+        EncodedPassword encoded = new EncodedPassword("pbkdf2-sha256", 31000, SALT, HASH);
+
+        assertEquals("$pbkdf2-sha256$i=31000$AQIDBAUGBwg=$CQoLDA==", encoded.encode());
+
+        EncodedPassword parsed = EncodedPassword.parse(encoded.encode());
+        assertEquals("pbkdf2-sha256", parsed.algorithm());
+        assertEquals(31000, parsed.cost());
+        assertArrayEquals(SALT, parsed.salt());
+        assertArrayEquals(HASH, parsed.hash());
+    }
+
+    @Test
+    public void readsTheEncodedColumnWithoutTheSaltColumn()
+    {
+        String column = new EncodedPassword("pbkdf2-sha512", 10000, SALT, HASH).encode();
+
+        EncodedPassword read = EncodedPassword.fromColumns(null, column);
+        assertEquals("pbkdf2-sha512", read.algorithm());
+        assertArrayEquals(SALT, read.salt());
+
+        // a leftover salt column never overrides the one in the hash
+        assertArrayEquals(SALT, EncodedPassword.fromColumns(LEGACY_SALT, column).salt());
+    }
+
+    @Test
+    public void readsLegacyTwoColumnRows()
+    {
+        EncodedPassword legacy = EncodedPassword.fromColumns(LEGACY_SALT, LEGACY_HASH);
+
+        assertEquals("pbkdf2-sha512", legacy.algorithm());
+        assertEquals(10000, legacy.cost());
+        assertArrayEquals(Base64.getDecoder().decode(LEGACY_SALT), legacy.salt());
+        assertArrayEquals(Base64.getDecoder().decode(LEGACY_HASH), legacy.hash());
+    }
+
+    @Test
+    public void rejectsMalformedRows()
+    {
+        String salt = "AQIDBAUGBwg=";
+        String hash = "CQoLDA==";
+
+        String[][] rows = {
+            {LEGACY_SALT, null},
+            {LEGACY_SALT, ""},
+            {null, LEGACY_HASH},
+            {"", LEGACY_HASH},
+            {"not base64!", LEGACY_HASH},
+            {LEGACY_SALT, "not base64!"},
+            {null, "$"},
+            {null, "$pbkdf2-sha512"},
+            {null, "$pbkdf2-sha512$i=10000$" + salt},
+            {null, "$pbkdf2-sha512$i=10000$" + salt + "$" + hash + "$"},
+            {null, "$pbkdf2-sha512$10000$" + salt + "$" + hash},
+            {null, "$pbkdf2-sha512$i=$" + salt + "$" + hash},
+            {null, "$pbkdf2-sha512$i=ten$" + salt + "$" + hash},
+            {null, "$pbkdf2-sha512$i=0$" + salt + "$" + hash},
+            {null, "$pbkdf2-sha512$i=-1$" + salt + "$" + hash},
+            {null, "$pbkdf2-sha512$i=99999999999$" + salt + "$" + hash},
+            {null, "$$i=10000$" + salt + "$" + hash},
+            {null, "$pbkdf2-sha512$i=10000$$" + hash},
+            {null, "$pbkdf2-sha512$i=10000$" + salt + "$"},
+            {null, "$pbkdf2-sha512$i=10000$" + salt + "$not base64!"}
+        };
+
+        for (String[] row : rows)
+            assertThrows(IllegalArgumentException.class,
+                         () -> EncodedPassword.fromColumns(row[0], row[1]),
+                         row[0] + " / " + row[1]);
+    }
+
+    @Test
+    public void needsRehashWhenAnySettingDiffers()
+    {
+        Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher("pbkdf2-sha512", 1000, 512, 16);
+
+        assertFalse(hasher.needsRehash(hasher.hash("ActivePassWord0".toCharArray())));
+
+        byte[] salt16 = new byte[16];
+        byte[] hash64 = new byte[64];
+
+        assertFalse(hasher.needsRehash(new EncodedPassword("pbkdf2-sha512", 1000, salt16, hash64)));
+        assertTrue(hasher.needsRehash(new EncodedPassword("pbkdf2-sha256", 1000, salt16, hash64)));
+        assertTrue(hasher.needsRehash(new EncodedPassword("pbkdf2-sha512", 999, salt16, hash64)));
+        assertTrue(hasher.needsRehash(new EncodedPassword("pbkdf2-sha512", 1000, new byte[4], hash64)));
+        assertTrue(hasher.needsRehash(new EncodedPassword("pbkdf2-sha512", 1000, salt16, new byte[32])));
+
+        // every legacy row has a 4 byte salt and 10000 iterations
+        assertTrue(hasher.needsRehash(EncodedPassword.fromColumns(LEGACY_SALT, LEGACY_HASH)));
+    }
+
+    @Test
+    public void toStringLeavesOutSaltAndHash()
+    {
+        String text = new EncodedPassword("pbkdf2-sha512", 10000, SALT, HASH).toString();
+
+        assertEquals("$pbkdf2-sha512$i=10000$...", text);
+    }
+}
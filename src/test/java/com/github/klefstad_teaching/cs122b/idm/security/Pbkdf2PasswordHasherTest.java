@@ -0,0 +1,162 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class Pbkdf2PasswordHasherTest
+{
+    private static final String[][] ALGORITHMS = {
+        {"pbkdf2-sha1", "PBKDF2WithHmacSHA1"},
+        {"pbkdf2-sha256", "PBKDF2WithHmacSHA256"},
+        {"pbkdf2-sha512", "PBKDF2WithHmacSHA512"}
+    };
+
+    // one block, a partial last block, several blocks
+    private static final int[] KEY_BIT_LENGTHS = {128, 160, 256, 512, 520, 1024};
+
+    private static final int[] ITERATIONS = {1, 2, 1000};
+
+    private static final String[] PASSWORDS = {
+        "",
+        "a",
+        "ActivePassWord0",
+        "p\u00e4ssw\u00f6rd\u00df",
+        "\u4f60\u597d\u4e16\u754c",
+        "emoji\ud83d\ude00PassWord0",
+        // a lone surrogate, both sides must turn it into the same replacement byte
+        "lone\ud83dPassWord0",
+        // the HMAC key is hashed first once it is longer than the digest's block
+        "x".repeat(64),
+        "x".repeat(65),
+        "x".repeat(128),
+        "x".repeat(129),
+        "long\u00e9".repeat(200)
+    };
+
+    // the users in src/test/resources/idm-test-data.sql, written before the encoded format
+    private static final String[][] LEGACY_ROWS = {
+        {"AdminPassWord0", "ebf18A==",
+         "QB9Kcn/pYWqSWvp7h7gtksYDYhmeLz8IyxtoKUtttfPnMcgVtCedspVwHF7ryvTNg3rpaxue3qzmIIj+yMoENg=="},
+        {"EmployeePassWord0", "j6u82Q==",
+         "YpqQNAOOWH5Wuii0oFmV6GoW7I1C4JGNMRIQW2e6cZty1JU63oz9zTNIlgaU/h/r9x2fmN1QYXciVDvyhKOsBA=="},
+        {"PremiumPassWord0", "/97ajQ==",
+         "O1VbNL2bAlns/ujxP1BupI9PK7suXSVPJpkkMnHhiRX9YuNOT3+j4R/7JmyQbXgsMr3+Dh4qPt98kH/0+cHqVw=="},
+        {"ActivePassWord0", "BXVDsQ==",
+         "3906lItAtnDxDK5i85TKsdhfMNJgHYcK6quOR6FegjmPB6ppS6NH7j3ie83kjwotLlVZZVklclRKnyXTSVoEJw=="},
+        {"LockedPassWord0", "RtmcdQ==",
+         "SWosU8p7X5gylD5DjZYGn/jx8btmETsayVB6kG3MWUXNXLf1udaBeKN2eJfRXN1aLWeYiDbCjkzC9gwOfDfMmA=="},
+        {"BannedPassWord0", "6qC3gQ==",
+         "phfAVFUj8x5nAETxLYM5xwrpDfRgyxaZm2s5qxEPp8eVQpQskuJIG/xwtarc/Eyt54vPzC3iqTjfr/SQzGUs8Q=="},
+        {"ValidPass0", "Vv2sSw==",
+         "5UlJjR1TzUVWLgWQmjMRioi7tmLLQL99MIhtCi931hBzk6Qtn2szhI+On41hRaclXhChcGviuHmLthDKBWXtwQ=="},
+        {"ValidPass01234567890", "Ww2y+Q==",
+         "+p1+BIm+bWDA8zqJ/8UdP4cH85ycezFz5uOTueaHJ7fzMPvnakqA7qY0h69oISE7jT4i/eeSBRW3JmKW0bh9Gg=="},
+        {"MinEmailPassWord0", "0VJkdg==",
+         "EZoOTU2I1egZ+3FK5ADrZ2kHHy/9XSKr/S3nKbzfUUsJdXJaJqlVcciOsQx/aTYxsQJXTHP9ageAVzTQE9+MEw=="},
+        {"MaxEmailPassWord0", "Z+udXg==",
+         "e80+dqCEWEz1Fy5Ujt4Xaek/6LzROLZeqApaiBP7c1LQrURPEsOkXxR1qhXOimWopWwFaD2xqH56M342wxzVHA=="}
+    };
+
+    @Test
+    public void matchesSecretKeyFactory()
+        throws Exception
+    {
+        Random random = new Random(122);
+
+        for (String[] algorithm : ALGORITHMS) {
+            for (int keyBitLength : KEY_BIT_LENGTHS) {
+                for (int iterations : ITERATIONS) {
+                    Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(algorithm[0], iterations, keyBitLength, 16);
+
+                    for (String password : PASSWORDS) {
+                        byte[] salt = new byte[1 + random.nextInt(32)];
+                        random.nextBytes(salt);
+
+                        byte[] expected = secretKeyFactory(algorithm[1], password, salt, iterations, keyBitLength);
+                        EncodedPassword encoded = new EncodedPassword(algorithm[0], iterations, salt, expected);
+                        String what = algorithm[0] + ", " + keyBitLength + " bits, " + iterations + " iterations, " + password;
+
+                        assertTrue(hasher.verify(password.toCharArray(), encoded), what);
+
+                        byte[] wrong = expected.clone();
+                        wrong[wrong.length - 1] ^= 1;
+                        assertFalse(hasher.verify(password.toCharArray(),
+                                                  new EncodedPassword(algorithm[0], iterations, salt, wrong)), what);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void newHashesMatchSecretKeyFactory()
+        throws Exception
+    {
+        for (String[] algorithm : ALGORITHMS) {
+            Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(algorithm[0], 1000, 512, 16);
+
+            for (String password : PASSWORDS) {
+                EncodedPassword encoded = hasher.hash(password.toCharArray());
+
+                assertArrayEquals(secretKeyFactory(algorithm[1], password, encoded.salt(), 1000, 512),
+                                  encoded.hash(),
+                                  algorithm[0] + ", " + password);
+                assertTrue(encoded.salt().length == 16 && encoded.cost() == 1000);
+            }
+        }
+    }
+
+    @Test
+    public void verifiesLegacyRows()
+        throws Exception
+    {
+        Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher("pbkdf2-sha512", 10000, 512, 16);
+
+        for (String[] row : LEGACY_ROWS) {
+            EncodedPassword encoded = EncodedPassword.fromColumns(row[1], row[2]);
+
+            assertTrue(hasher.verify(row[0].toCharArray(), encoded), row[0]);
+            assertFalse(hasher.verify((row[0] + "x").toCharArray(), encoded), row[0]);
+            assertArrayEquals(Base64.getDecoder().decode(row[2]),
+                              secretKeyFactory("PBKDF2WithHmacSHA512", row[0], Base64.getDecoder().decode(row[1]), 10000, 512));
+        }
+    }
+
+    @Test
+    public void rejectsAnUnknownAlgorithm()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new Pbkdf2PasswordHasher("bcrypt", 10, 512, 16));
+    }
+
+    @Test
+    public void leavesThePasswordAlone()
+    {
+        char[] password = "ActivePassWord0".toCharArray();
+        Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher("pbkdf2-sha512", 10, 512, 16);
+
+        hasher.verify(password, hasher.hash(password));
+
+        assertTrue(Arrays.equals("ActivePassWord0".toCharArray(), password));
+    }
+
+    private static byte[] secretKeyFactory(String algorithm, String password, byte[] salt, int iterations, int keyBitLength)
+        throws Exception
+    {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyBitLength);
+        try {
+            return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FuturesTest
+{
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final CountDownLatch  release  = new CountDownLatch(1);
+
+    @AfterEach
+    public void tearDown()
+        throws Exception
+    {
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rethrowsWhatTheTaskThrew()
+    {
+        ResultError error = new ResultError(IDMResults.INVALID_CREDENTIALS);
+
+        assertSame(error, assertThrows(ResultError.class,
+                                       () -> Futures.await(CompletableFuture.failedFuture(error), 100, "late")));
+        assertEquals("done", Futures.await(CompletableFuture.completedFuture("done"), 100, "late"));
+    }
+
+    @Test
+    public void timedOutTaskIsSkipped()
+        throws Exception
+    {
+        AtomicInteger runs = new AtomicInteger();
+
+        // the only thread is busy, the next task waits in the queue
+        executor.execute(this::awaitRelease);
+        CompletableFuture<Integer> queued = CompletableFuture.supplyAsync(runs::incrementAndGet, executor);
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                                                 () -> Futures.await(queued, 50, "late"));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+        assertEquals("late", e.getReason());
+        assertTrue(queued.isCancelled());
+
+        release.countDown();
+        executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void cancellingADependentReachesItsSource()
+        throws Exception
+    {
+        AtomicInteger runs = new AtomicInteger();
+
+        executor.execute(this::awaitRelease);
+        CompletableFuture<Integer> source    = CompletableFuture.supplyAsync(runs::incrementAndGet, executor);
+        CompletableFuture<String>  dependent = Futures.cancelling(source.thenApply(String::valueOf), source);
+
+        assertThrows(ResponseStatusException.class, () -> Futures.await(dependent, 50, "late"));
+        assertTrue(source.isCancelled());
+
+        release.countDown();
+        executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+        assertEquals(0, runs.get());
+    }
+
+    private void awaitRelease()
+    {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenUuidTest
+{
+    private static final String[] VALID = {
+        "00000000-0000-0000-0000-000000000000",
+        "ffffffff-ffff-ffff-ffff-ffffffffffff",
+        "FFFFFFFF-FFFF-FFFF-FFFF-FFFFFFFFFFFF",
+        "123e4567-e89b-12d3-a456-426614174000",
+        "123E4567-e89B-12d3-A456-426614174000"
+    };
+
+    private static final String[] INVALID = {
+        "",
+        "123e4567-e89b-12d3-a456-42661417400",
+        "123e4567-e89b-12d3-a456-4266141740000",
+        "123e4567e89b12d3a456426614174000",
+        "123e4567-e89b-12d3-a456_426614174000",
+        "123e4567+e89b-12d3-a456-426614174000",
+        "123e456-7e89b-12d3-a456-426614174000",
+        "123e4567-e89b-12d3-a4560426614174000",
+        "g23e4567-e89b-12d3-a456-426614174000",
+        "123e4567-e89b-12d3-a456-42661417400G",
+        "123e4567-e89b-12d3-a456-42661417400 ",
+        " 23e4567-e89b-12d3-a456-426614174000",
+        // digits Character.digit would take
+        "123e4567-e89b-12d3-a456-4266141740\u0660\u0660",
+        "123e4567-e89b-12d3-a456-42661417400\uff10",
+        // UUID.fromString takes these, a refresh token has to be canonical
+        "1-1-1-1-1",
+        "+23e4567-e89b-12d3-a456-426614174000"
+    };
+
+    @Test
+    public void acceptsCanonicalUuids()
+    {
+        for (String token : VALID) {
+            assertTrue(TokenUuid.isValid(token), token);
+            assertArrayEquals(bytes(UUID.fromString(token)), TokenUuid.toBytes(token), token);
+            assertEquals(token.toLowerCase(), TokenUuid.toText(TokenUuid.toBytes(token)), token);
+        }
+    }
+
+    @Test
+    public void rejectsEverythingElse()
+    {
+        for (String token : INVALID) {
+            assertFalse(TokenUuid.isValid(token), token);
+            assertThrows(IllegalArgumentException.class, () -> TokenUuid.toBytes(token), token);
+        }
+    }
+
+    @Test
+    public void refreshTokenValidationNamesTheProblem()
+    {
+        for (String token : VALID)
+            TokenUuid.validateRefreshToken(token);
+
+        for (String token : INVALID) {
+            ResultError error = assertThrows(ResultError.class, () -> TokenUuid.validateRefreshToken(token), token);
+            assertEquals(token.length() == TokenUuid.TEXT_LENGTH ?
+                             IDMResults.REFRESH_TOKEN_HAS_INVALID_FORMAT :
+                             IDMResults.REFRESH_TOKEN_HAS_INVALID_LENGTH,
+                         error.getResult(),
+                         token);
+        }
+    }
+
+    @Test
+    public void randomTokensAgreeWithUuid()
+    {
+        Random random = new Random(122);
+
+        for (int i = 0; i < 200_000; i++) {
+            UUID   uuid  = new UUID(random.nextLong(), random.nextLong());
+            String token = (i & 1) == 0 ? uuid.toString() : uuid.toString().toUpperCase();
+
+            byte[] bytes = TokenUuid.toBytes(token);
+
+            assertArrayEquals(bytes(uuid), bytes, token);
+            assertEquals(uuid.toString(), TokenUuid.toText(bytes), token);
+            assertEquals(uuid, UUID.fromString(TokenUuid.toText(bytes)), token);
+        }
+    }
+
+    @Test
+    public void randomlyBrokenTokensAreRejected()
+    {
+        Random random = new Random(122);
+        String chars  = "0123456789abcdefABCDEF-gG_ \u00e9";
+
+        for (int i = 0; i < 200_000; i++) {
+            char[] token = UUID.randomUUID().toString().toCharArray();
+            int    at    = random.nextInt(token.length);
+            token[at] = chars.charAt(random.nextInt(chars.length()));
+
+            String  text  = new String(token);
+            boolean dash  = at == 8 || at == 13 || at == 18 || at == 23;
+            boolean valid = dash ? token[at] == '-' : Character.digit(token[at], 16) >= 0;
+
+            assertEquals(valid, TokenUuid.isValid(text), text);
+            if (valid)
+                assertArrayEquals(bytes(UUID.fromString(text)), TokenUuid.toBytes(text), text);
+        }
+    }
+
+    private static byte[] bytes(UUID uuid)
+    {
+        return ByteBuffer.allocate(TokenUuid.BYTES_LENGTH)
+                         .putLong(uuid.getMostSignificantBits())
+                         .putLong(uuid.getLeastSignificantBits())
+                         .array();
+    }
+}
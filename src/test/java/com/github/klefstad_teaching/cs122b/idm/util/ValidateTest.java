@@ -0,0 +1,164 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+import com.github.klefstad_teaching.cs122b.idm.TestConfigs;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ValidateTest
+{
+    private static final Result EMAIL_LENGTH    = IDMResults.EMAIL_ADDRESS_HAS_INVALID_LENGTH;
+    private static final Result EMAIL_FORMAT    = IDMResults.EMAIL_ADDRESS_HAS_INVALID_FORMAT;
+    private static final Result PASSWORD_LENGTH = IDMResults.PASSWORD_DOES_NOT_MEET_LENGTH_REQUIREMENTS;
+    private static final Result PASSWORD_CHARS  = IDMResults.PASSWORD_DOES_NOT_MEET_CHARACTER_REQUIREMENT;
+
+    // the regex the controller used before Validate
+    private static final Pattern EMAIL_PATTERN = Pattern.compile("^[A-Za-z0-9]+@[A-Za-z0-9]+\\.[A-Za-z0-9]+$");
+
+    // the defaults from application.yml: email 6 to 32, password 10 to 20, all three classes
+    private final Validate validate = new Validate(TestConfigs.serviceConfig());
+
+    // input, expected result or null when it passes
+    private static final Object[][] EMAILS = {
+        {null, EMAIL_LENGTH},
+        {"", EMAIL_LENGTH},
+        {"a@b.c", EMAIL_LENGTH},
+        {"a@b.cd", null},
+        {"ab@c.d", null},
+        {"a@bc.d", null},
+        {"a".repeat(26) + "@b.com", null},
+        {"a".repeat(27) + "@b.com", EMAIL_LENGTH},
+        {"Active@example.com", null},
+        {"UPPER@CASE.COM", null},
+        {"digits0@123.456", null},
+        {"no.at.example.com", EMAIL_FORMAT},
+        {"@example.com", EMAIL_FORMAT},
+        {"a@@example.com", EMAIL_FORMAT},
+        {"a@b@example.com", EMAIL_FORMAT},
+        {"a@.example.com", EMAIL_FORMAT},
+        {"a@example.", EMAIL_FORMAT},
+        {"a@examplecom", EMAIL_FORMAT},
+        {"a@example..com", EMAIL_FORMAT},
+        {"a@example.co.uk", EMAIL_FORMAT},
+        {"first.last@example.com", EMAIL_FORMAT},
+        {"a_b@example.com", EMAIL_FORMAT},
+        {"a+b@example.com", EMAIL_FORMAT},
+        {"a-b@example.com", EMAIL_FORMAT},
+        {"a b@example.com", EMAIL_FORMAT},
+        {" a@example.com", EMAIL_FORMAT},
+        {"a@example.com ", EMAIL_FORMAT},
+        {"a@example.com\n", EMAIL_FORMAT},
+        {"caf\u00e9@example.com", EMAIL_FORMAT},
+        // look-alike letters
+        {"a@ex\u0430mple.com", EMAIL_FORMAT},
+        {"\uff41@example.com", EMAIL_FORMAT}
+    };
+
+    private static final Object[][] PASSWORDS = {
+        {null, PASSWORD_LENGTH},
+        {"", PASSWORD_LENGTH},
+        {"Abcdefgh1", PASSWORD_LENGTH},
+        {"Abcdefgh12", null},
+        {"Abcdefgh1234567890xy", null},
+        {"Abcdefgh1234567890xyz", PASSWORD_LENGTH},
+        // length is checked before the characters
+        {"ab cd", PASSWORD_LENGTH},
+        {"ActivePassWord0", null},
+        {"0123456789Aa", null},
+        {"activepassword0", PASSWORD_CHARS},
+        {"ACTIVEPASSWORD0", PASSWORD_CHARS},
+        {"ActivePassWord", PASSWORD_CHARS},
+        {"0123456789", PASSWORD_CHARS},
+        {"Active Password0", PASSWORD_CHARS},
+        {"ActivePassWord0!", PASSWORD_CHARS},
+        {"Active_PassWord0", PASSWORD_CHARS},
+        {"Active-PassWord0", PASSWORD_CHARS},
+        {"ActivePassWord0\t", PASSWORD_CHARS},
+        // letters and digits outside ASCII
+        {"ActivePassW\u00f6rd0", PASSWORD_CHARS},
+        {"ActivePassWord\u0660", PASSWORD_CHARS},
+        {"ActivePassWord\uff10", PASSWORD_CHARS},
+        {"ActivePassWord0\ud83d\ude00", PASSWORD_CHARS}
+    };
+
+    @Test
+    public void emails()
+    {
+        for (Object[] row : EMAILS)
+            assertResult((Result) row[1], () -> validate.email((String) row[0]), row[0]);
+    }
+
+    @Test
+    public void passwords()
+    {
+        for (Object[] row : PASSWORDS) {
+            char[] password = row[0] == null ? null : ((String) row[0]).toCharArray();
+            assertResult((Result) row[1], () -> validate.password(password), row[0]);
+        }
+    }
+
+    @Test
+    public void characterClassesFollowThePolicy()
+    {
+        // only lower case letters required, a shorter password allowed
+        Validate relaxed = new Validate(TestConfigs.serviceConfig(
+            new IDMServiceConfig.Validation(3, 64, 4, 8, false, true, false)));
+
+        Object[][] rows = {
+            {"abc", PASSWORD_LENGTH},
+            {"abcd", null},
+            {"abcdefgh", null},
+            {"abcdefghi", PASSWORD_LENGTH},
+            {"ab12", null},
+            {"ABCD", PASSWORD_CHARS},
+            {"1234", PASSWORD_CHARS},
+            {"AB12", PASSWORD_CHARS},
+            {"ab!d", PASSWORD_CHARS}
+        };
+
+        for (Object[] row : rows)
+            assertResult((Result) row[1], () -> relaxed.password(((String) row[0]).toCharArray()), row[0]);
+
+        assertResult(null, () -> relaxed.email("a@b.c"), "a@b.c");
+        assertResult(EMAIL_LENGTH, () -> relaxed.email("a@"), "a@");
+    }
+
+    @Test
+    public void emailScannerAgreesWithTheRegex()
+    {
+        Random random = new Random(122);
+        String chars  = "aZ9@.-_ \u00e9";
+
+        for (int i = 0; i < 200_000; i++) {
+            StringBuilder email = new StringBuilder();
+            int length = 1 + random.nextInt(12);
+
+            for (int c = 0; c < length; c++)
+                email.append(chars.charAt(random.nextInt(chars.length())));
+
+            assertEquals(EMAIL_PATTERN.matcher(email).matches(), Validate.isEmail(email), email.toString());
+        }
+    }
+
+    private static void assertResult(Result expected, Runnable check, Object input)
+    {
+        String message = String.valueOf(input);
+
+        if (expected == null) {
+            assertDoesNotThrow(check::run, message);
+            return;
+        }
+
+        ResultError error = assertThrows(ResultError.class, check::run, message);
+        assertEquals(expected, error.getResult(), message);
+    }
+}